@@ -0,0 +1,359 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 按host自适应调整并发上限的应用拦截器，代替Dispatcher固定的maxRequestsPerHost
+ * <p>
+ * 每个请求记录从发出到收到响应头的时间(RTT)，和这个host出现过的最小RTT比较估计服务器端排队的请求数
+ * queue = limit * (1 - minRtt / rtt)(Vegas)：没有排队时每个样本加1(每个RTT翻倍)，
+ * 排队少于alpha时每个样本加1/limit(每个RTT加1)，多于beta时每个样本减(queue - beta)/limit(每个RTT减去多出的排队数)；
+ * 网络异常、503、429和504按backoffRatio成倍减小，每个RTT最多减一次。
+ * 正在执行的请求不到上限一半时，样本反映不了服务器的容量，不调整。
+ * minRtt每隔minRttResetInterval重新测量，适应服务器或网络的变化。
+ * <p>
+ * 达到上限时按OverflowPolicy排队等待名额(最多maxQueueTime)或者直接抛出LimitExceededException。
+ * 和PriorityScheduler一起使用并且是QUEUE时，异步请求在调度器中按这里的上限排队，不占用Dispatcher的线程。
+ * 需要作为最后一个应用拦截器添加，测量的是每一次网络请求；磁盘缓存直接命中的请求只占用名额，不作为样本。
+ * 和CircuitBreaker一样按"主机:端口"区分，同一个主机的不同端口通常是不同的服务。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: AdaptiveLimiter.java
+ * @author: myName
+ * @date: 2026-10-19 01:10
+ */
+
+public final class AdaptiveLimiter implements Interceptor {
+
+    public enum OverflowPolicy {
+        /**
+         * 等待名额，超过maxQueueTime后抛出LimitExceededException
+         */
+        QUEUE,
+        /**
+         * 立即抛出LimitExceededException
+         */
+        REJECT
+    }
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double alpha;
+    private final double beta;
+    private final double backoffRatio;
+    private final long minRttResetNanos;
+    private final OverflowPolicy policy;
+    private final long maxQueueTimeNanos;
+
+    private final ConcurrentMap<String, HostLimit> hosts = new ConcurrentHashMap<String, HostLimit>();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong dropCount = new AtomicLong();
+
+    private AdaptiveLimiter(Builder builder) {
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.initialLimit = Math.max(minLimit, Math.min(maxLimit, builder.initialLimit));
+        this.alpha = builder.alpha;
+        this.beta = builder.beta;
+        this.backoffRatio = builder.backoffRatio;
+        this.minRttResetNanos = builder.minRttResetNanos;
+        this.policy = builder.policy;
+        this.maxQueueTimeNanos = builder.maxQueueTimeNanos;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        HostLimit host = hostLimit(CircuitBreaker.hostOf(request.url()));
+        int inflight = host.acquire();
+
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                host.release();
+            } else {
+                host.sample(System.nanoTime() - start, inflight, true);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            host.release();
+            throw e;
+        }
+        if (response.networkResponse() == null) {
+            //磁盘缓存命中，没有访问服务器，不能作为RTT样本
+            host.release();
+            return response;
+        }
+        int code = response.code();
+        host.sample(System.nanoTime() - start, inflight, code == 503 || code == 429 || code == 504);
+        return response;
+    }
+
+    private HostLimit hostLimit(String host) {
+        HostLimit limit = hosts.get(host);
+        if (limit == null) {
+            HostLimit created = new HostLimit(host);
+            limit = hosts.putIfAbsent(host, created);
+            if (limit == null) {
+                limit = created;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * host当前允许同时执行的请求数，没有请求过的host为initialLimit；和CircuitBreaker一样，host格式为"主机:端口"
+     */
+    public int limit(String host) {
+        HostLimit limit = hosts.get(host);
+        return limit != null ? limit.limit() : initialLimit;
+    }
+
+    /**
+     * 所有请求过的host当前的上限
+     */
+    public Map<String, Integer> limits() {
+        Map<String, Integer> limits = new HashMap<String, Integer>();
+        for (HostLimit limit : hosts.values()) {
+            limits.put(limit.host, limit.limit());
+        }
+        return limits;
+    }
+
+    /**
+     * host正在执行的请求数
+     */
+    public int inflight(String host) {
+        HostLimit limit = hosts.get(host);
+        return limit != null ? limit.inflight() : 0;
+    }
+
+    public int maxLimit() {
+        return maxLimit;
+    }
+
+    public OverflowPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * 达到上限后排队等待过的请求数
+     */
+    public long queuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * 因为达到上限没有发出的请求数
+     */
+    public long rejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 网络异常和过载响应(503、429、504)的次数
+     */
+    public long dropCount() {
+        return dropCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimiter{limits=" + limits() + ", queued=" + queuedCount + ", rejected=" + rejectedCount
+                + ", drops=" + dropCount + "}";
+    }
+
+    private final class HostLimit {
+        final String host;
+        private double limit = initialLimit;
+        private int inflight;
+        private long minRttNanos;
+        private long minRttMeasuredAt;
+        private long lastDecreaseNanos;
+
+        HostLimit(String host) {
+            this.host = host;
+        }
+
+        synchronized int limit() {
+            return (int) limit;
+        }
+
+        synchronized int inflight() {
+            return inflight;
+        }
+
+        /**
+         * 占用一个名额，返回占用之后正在执行的请求数
+         */
+        synchronized int acquire() throws IOException {
+            if (inflight < (int) limit) {
+                return ++inflight;
+            }
+            if (policy == OverflowPolicy.REJECT) {
+                rejectedCount.incrementAndGet();
+                throw new LimitExceededException(host, (int) limit);
+            }
+            queuedCount.incrementAndGet();
+            long deadline = System.nanoTime() + maxQueueTimeNanos;
+            while (inflight >= (int) limit) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    rejectedCount.incrementAndGet();
+                    throw new LimitExceededException(host, (int) limit);
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for " + host);
+                }
+            }
+            return ++inflight;
+        }
+
+        /**
+         * 请求被取消，只归还名额
+         */
+        synchronized void release() {
+            inflight--;
+            notifyAll();
+        }
+
+        synchronized void sample(long rttNanos, int inflightAtStart, boolean dropped) {
+            inflight--;
+            long now = System.nanoTime();
+            if (dropped) {
+                dropCount.incrementAndGet();
+                //同一个RTT内的多个失败来自同一次过载，只减一次
+                if (now - lastDecreaseNanos > rttNanos) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecreaseNanos = now;
+                }
+            } else {
+                //失败的请求可能很快返回(例如连接被拒绝)，不参与最小RTT
+                if (minRttNanos == 0 || rttNanos < minRttNanos || now - minRttMeasuredAt > minRttResetNanos) {
+                    minRttNanos = Math.max(1, rttNanos);
+                    minRttMeasuredAt = now;
+                }
+                if (inflightAtStart * 2 >= (int) limit) {
+                    adjust(rttNanos);
+                }
+            }
+            notifyAll();
+        }
+
+        /**
+         * 按估计的排队数调整上限，需要在锁内调用
+         */
+        private void adjust(long rttNanos) {
+            double queue = limit * (1 - (double) minRttNanos / rttNanos);
+            if (queue < 1) {
+                limit += 1;
+            } else if (queue < alpha) {
+                limit += 1 / limit;
+            } else if (queue > beta) {
+                //一个RTT内的样本合计减去超出beta的排队数，远超容量时很快收敛
+                limit -= (queue - beta) / limit;
+            }
+            limit = Math.max(minLimit, Math.min(maxLimit, limit));
+        }
+    }
+
+    public static final class Builder {
+        private int initialLimit = 5;
+        private int minLimit = 1;
+        private int maxLimit = 64;
+        private double alpha = 3;
+        private double beta = 6;
+        private double backoffRatio = 0.9;
+        private long minRttResetNanos = TimeUnit.MINUTES.toNanos(1);
+        private OverflowPolicy policy = OverflowPolicy.QUEUE;
+        private long maxQueueTimeNanos = TimeUnit.SECONDS.toNanos(10);
+
+        /**
+         * 新host开始时的上限，默认5(和Dispatcher默认的maxRequestsPerHost相同)
+         */
+        public Builder initialLimit(int initialLimit) {
+            if (initialLimit < 1) throw new IllegalArgumentException("initialLimit < 1");
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * 上限的范围，默认[1, 64]；maxLimit不会超过Dispatcher的maxRequests
+         */
+        public Builder limitRange(int minLimit, int maxLimit) {
+            if (minLimit < 1 || maxLimit < minLimit) throw new IllegalArgumentException("invalid range");
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * 服务器端估计排队数的目标区间，少于alpha时增加上限，多于beta时减小，默认[3, 6]
+         */
+        public Builder queueThresholds(double alpha, double beta) {
+            if (alpha <= 0 || beta < alpha) throw new IllegalArgumentException("invalid thresholds");
+            this.alpha = alpha;
+            this.beta = beta;
+            return this;
+        }
+
+        /**
+         * 失败时上限乘以的比例，(0, 1)，默认0.9
+         */
+        public Builder backoffRatio(double backoffRatio) {
+            if (backoffRatio <= 0 || backoffRatio >= 1) throw new IllegalArgumentException("backoffRatio not in (0, 1)");
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * 多久重新测量一次最小RTT，默认1分钟
+         */
+        public Builder minRttResetInterval(long interval, TimeUnit unit) {
+            if (interval <= 0) throw new IllegalArgumentException("interval <= 0");
+            this.minRttResetNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * 达到上限时的处理方式，默认QUEUE
+         */
+        public Builder overflowPolicy(OverflowPolicy policy) {
+            if (policy == null) throw new NullPointerException("policy == null");
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * QUEUE时最多等待多久，默认10秒
+         */
+        public Builder maxQueueTime(long time, TimeUnit unit) {
+            if (time < 0) throw new IllegalArgumentException("maxQueueTime < 0");
+            this.maxQueueTimeNanos = unit.toNanos(time);
+            return this;
+        }
+
+        public AdaptiveLimiter build() {
+            return new AdaptiveLimiter(this);
+        }
+    }
+}
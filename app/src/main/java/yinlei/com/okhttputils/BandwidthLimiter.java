@@ -0,0 +1,56 @@
+package yinlei.com.okhttputils;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 限制传输速度，多个传输共用一个实例时限制的是它们的总速度
+ * <p>
+ * 每个字节占用1/bytesPerSecond秒，记录下一次可以发送的时间点，没到时间的写入在当前线程中等待。
+ * 调用方需要把数据分成小块(例如8KB)再申请，避免一次等待太久。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: BandwidthLimiter.java
+ * @author: myName
+ * @date: 2026-10-18 18:00
+ */
+
+final class BandwidthLimiter {
+
+    //空闲之后最多允许突发这么久的数据量
+    private static final long MAX_BURST_NANOS = 100000000L;  //100ms
+
+    private final long bytesPerSecond;
+    private long nextFreeNanos = System.nanoTime();
+
+    BandwidthLimiter(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) throw new IllegalArgumentException("bytesPerSecond <= 0");
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * 申请发送byteCount个字节，需要时等待
+     *
+     * @param byteCount
+     * @throws InterruptedIOException
+     */
+    void acquire(long byteCount) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextFreeNanos < now - MAX_BURST_NANOS) {
+                nextFreeNanos = now - MAX_BURST_NANOS;
+            }
+            nextFreeNanos += byteCount * 1000000000L / bytesPerSecond;
+            waitNanos = nextFreeNanos - now;
+        }
+        if (waitNanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while throttling");
+        }
+    }
+}
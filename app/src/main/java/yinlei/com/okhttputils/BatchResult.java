@@ -0,0 +1,55 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+
+/**
+ * 批量提交中一项的结果
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: BatchResult.java
+ * @author: myName
+ * @date: 2026-10-18 19:10
+ */
+
+public final class BatchResult {
+
+    private final int code;
+    private final String body;
+    private final IOException failure;
+
+    BatchResult(int code, String body, IOException failure) {
+        this.code = code;
+        this.body = body;
+        this.failure = failure;
+    }
+
+    /**
+     * HTTP状态码，网络失败时为-1
+     */
+    public int code() {
+        return code;
+    }
+
+    /**
+     * 响应体，网络失败时为null；合并提交时是整个批次的响应体
+     */
+    public String body() {
+        return body;
+    }
+
+    /**
+     * 网络失败的原因，收到响应时为null
+     */
+    public IOException failure() {
+        return failure;
+    }
+
+    public boolean isSuccessful() {
+        return failure == null && code >= 200 && code < 300;
+    }
+
+    @Override
+    public String toString() {
+        return failure != null ? "BatchResult{failure=" + failure + "}" : "BatchResult{code=" + code + "}";
+    }
+}
@@ -0,0 +1,115 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import okhttp3.Request;
+
+/**
+ * 批量提交时等待所有结果，结果的顺序和提交的顺序一致
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: Batches.java
+ * @author: myName
+ * @date: 2026-10-18 19:30
+ */
+
+final class Batches {
+
+    private Batches() {
+    }
+
+    /**
+     * 全部异步执行，并发数由callFactory的Dispatcher限制
+     *
+     * @param callFactory
+     * @param requests
+     * @return
+     * @throws InterruptedIOException 等待时被中断，未完成的请求会被取消
+     */
+    static List<BatchResult> executeAll(Call.Factory callFactory, List<Request> requests) throws InterruptedIOException {
+        final BatchResult[] results = new BatchResult[requests.size()];
+        final CountDownLatch latch = new CountDownLatch(requests.size());
+        List<Call> calls = new ArrayList<Call>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            final int index = i;
+            Call call = callFactory.newCall(requests.get(i));
+            calls.add(call);
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    results[index] = new BatchResult(-1, null, e);
+                    latch.countDown();
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    try {
+                        results[index] = new BatchResult(response.code(), response.body().string(), null);
+                    } catch (IOException e) {
+                        results[index] = new BatchResult(-1, null, e);
+                    } finally {
+                        response.close();
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        await(latch, calls);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 全部交给batcher合并发送
+     *
+     * @param batcher
+     * @param forms
+     * @return
+     * @throws InterruptedIOException 等待时被中断
+     */
+    static List<BatchResult> submitAll(PostBatcher batcher, List<Map<String, String>> forms) throws InterruptedIOException {
+        final BatchResult[] results = new BatchResult[forms.size()];
+        final CountDownLatch latch = new CountDownLatch(forms.size());
+        for (int i = 0; i < forms.size(); i++) {
+            final int index = i;
+            batcher.submit(forms.get(i), new ResultCallback<BatchResult>() {
+                @Override
+                public void onSuccess(Call call, BatchResult result) {
+                    results[index] = result;
+                    latch.countDown();
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    results[index] = new BatchResult(-1, null, e);
+                    latch.countDown();
+                }
+            });
+        }
+        batcher.flush();
+        await(latch, null);
+        return Arrays.asList(results);
+    }
+
+    private static void await(CountDownLatch latch, List<Call> calls) throws InterruptedIOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            if (calls != null) {
+                for (Call call : calls) {
+                    call.cancel();
+                }
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for batch");
+        }
+    }
+}
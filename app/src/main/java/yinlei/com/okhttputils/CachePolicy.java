@@ -0,0 +1,147 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 单个GET请求的缓存策略，转换成请求的Cache-Control，内存缓存和磁盘缓存都按它处理
+ * <p>
+ * CACHE_ONLY：只读缓存，不访问网络，没有缓存时返回504(同步接口返回null)
+ * NETWORK_ONLY：不读缓存，总是从网络获取完整响应，结果仍然写入缓存
+ * CACHE_ELSE_NETWORK：离线优先，有缓存时不管是否过期都直接使用，没有时访问网络
+ * CACHE_THEN_NETWORK：先回调一次缓存(有的话)，再带If-None-Match/If-Modified-Since访问网络回调第二次，
+ * 只能用于异步接口；第二次的response.networkResponse().code()为304时内容和第一次相同
+ * maxStale：缓存过期不超过这个时间时直接使用
+ * minFresh：缓存至少还要新鲜这么久才使用，否则访问网络
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: CachePolicy.java
+ * @author: myName
+ * @date: 2026-10-18 23:50
+ */
+
+public final class CachePolicy {
+
+    /**
+     * 按响应头的缓存规则
+     */
+    public static final CachePolicy DEFAULT = new CachePolicy("DEFAULT", null, false);
+
+    public static final CachePolicy CACHE_ONLY = new CachePolicy("CACHE_ONLY", CacheControl.FORCE_CACHE, false);
+
+    public static final CachePolicy NETWORK_ONLY = new CachePolicy("NETWORK_ONLY", CacheControl.FORCE_NETWORK, false);
+
+    public static final CachePolicy CACHE_ELSE_NETWORK = new CachePolicy("CACHE_ELSE_NETWORK",
+            new CacheControl.Builder().maxStale(Integer.MAX_VALUE, TimeUnit.SECONDS).build(), false);
+
+    public static final CachePolicy CACHE_THEN_NETWORK = new CachePolicy("CACHE_THEN_NETWORK",
+            CacheControl.FORCE_CACHE, true);
+
+    //CACHE_THEN_NETWORK的第二次请求：缓存一律视为过期，有验证器时发条件请求
+    private static final CacheControl REVALIDATE = new CacheControl.Builder().maxAge(0, TimeUnit.SECONDS).build();
+
+    private final String name;
+    private final CacheControl cacheControl;
+    private final boolean cacheThenNetwork;
+
+    private CachePolicy(String name, CacheControl cacheControl, boolean cacheThenNetwork) {
+        this.name = name;
+        this.cacheControl = cacheControl;
+        this.cacheThenNetwork = cacheThenNetwork;
+    }
+
+    /**
+     * 缓存过期不超过maxStale时直接使用，否则访问网络
+     */
+    public static CachePolicy maxStale(long maxStale, TimeUnit unit) {
+        return new CachePolicy("maxStale=" + unit.toSeconds(maxStale) + "s",
+                new CacheControl.Builder().maxStale(seconds(maxStale, unit), TimeUnit.SECONDS).build(), false);
+    }
+
+    /**
+     * 缓存至少还会新鲜minFresh时才使用，否则访问网络
+     */
+    public static CachePolicy minFresh(long minFresh, TimeUnit unit) {
+        return new CachePolicy("minFresh=" + unit.toSeconds(minFresh) + "s",
+                new CacheControl.Builder().minFresh(seconds(minFresh, unit), TimeUnit.SECONDS).build(), false);
+    }
+
+    private static int seconds(long duration, TimeUnit unit) {
+        if (duration < 0) throw new IllegalArgumentException("duration < 0");
+        long seconds = unit.toSeconds(duration);
+        return seconds > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) seconds;
+    }
+
+    /**
+     * 请求使用的Cache-Control，DEFAULT时返回null
+     */
+    public CacheControl cacheControl() {
+        return cacheControl;
+    }
+
+    public boolean isCacheThenNetwork() {
+        return cacheThenNetwork;
+    }
+
+    /**
+     * 给同步请求设置Cache-Control
+     *
+     * @throws IllegalArgumentException CACHE_THEN_NETWORK需要两次回调，不能用于同步接口
+     */
+    Request apply(Request request) {
+        if (cacheThenNetwork) {
+            throw new IllegalArgumentException(name + " requires a callback");
+        }
+        if (cacheControl == null) {
+            return request;
+        }
+        return request.newBuilder().cacheControl(cacheControl).build();
+    }
+
+    /**
+     * 按策略异步执行，CACHE_THEN_NETWORK时先执行缓存请求，完成后再执行网络请求
+     */
+    void enqueue(final Call.Factory factory, final Request request, final Callback callback) {
+        if (!cacheThenNetwork) {
+            factory.newCall(apply(request)).enqueue(callback);
+            return;
+        }
+        Request cacheRequest = request.newBuilder().cacheControl(cacheControl).build();
+        factory.newCall(cacheRequest).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                //缓存读取失败不通知调用方，等网络结果
+                enqueueNetwork();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    if (response.code() == 504 && response.cacheResponse() == null && response.networkResponse() == null) {
+                        //没有缓存，only-if-cached返回的504
+                        response.close();
+                    } else {
+                        callback.onResponse(call, response);
+                    }
+                } finally {
+                    enqueueNetwork();
+                }
+            }
+
+            private void enqueueNetwork() {
+                factory.newCall(request.newBuilder().cacheControl(REVALIDATE).build()).enqueue(callback);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "CachePolicy{" + name + "}";
+    }
+}
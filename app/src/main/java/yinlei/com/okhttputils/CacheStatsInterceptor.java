@@ -0,0 +1,142 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 统计磁盘缓存的命中情况，需要作为应用拦截器添加，才能看到CacheInterceptor处理之后的结果
+ * <p>
+ * 命中：完全由缓存返回，没有网络请求
+ * 条件命中：带If-None-Match/If-Modified-Since访问网络，服务器返回304
+ * 网络：由网络返回完整的响应
+ * 条件请求另外按验证器分别统计：带If-None-Match(ETag)的和只带If-Modified-Since的，以及其中返回304的次数；
+ * 条件请求返回200说明内容已经变化，同时计入网络。
+ * 只读缓存(only-if-cached)但没有缓存时返回的504计入unsatisfiableCount
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: CacheStatsInterceptor.java
+ * @author: myName
+ * @date: 2026-10-18 10:12
+ */
+
+public class CacheStatsInterceptor implements Interceptor {
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong conditionalHitCount = new AtomicLong();
+    private final AtomicLong networkCount = new AtomicLong();
+    private final AtomicLong etagRevalidationCount = new AtomicLong();
+    private final AtomicLong etagNotModifiedCount = new AtomicLong();
+    private final AtomicLong lastModifiedRevalidationCount = new AtomicLong();
+    private final AtomicLong lastModifiedNotModifiedCount = new AtomicLong();
+    private final AtomicLong unsatisfiableCount = new AtomicLong();
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        requestCount.incrementAndGet();
+        Response cacheResponse = response.cacheResponse();
+        Response networkResponse = response.networkResponse();
+        if (networkResponse == null) {
+            if (cacheResponse != null) {
+                hitCount.incrementAndGet();
+            } else if (response.code() == 504) {
+                unsatisfiableCount.incrementAndGet();
+            }
+            return response;
+        }
+        //CacheInterceptor加上的条件头只出现在发往网络的请求上
+        Request networkRequest = networkResponse.request();
+        boolean notModified = networkResponse.code() == 304;
+        if (networkRequest.header("If-None-Match") != null) {
+            etagRevalidationCount.incrementAndGet();
+            if (notModified) {
+                etagNotModifiedCount.incrementAndGet();
+            }
+        } else if (networkRequest.header("If-Modified-Since") != null) {
+            lastModifiedRevalidationCount.incrementAndGet();
+            if (notModified) {
+                lastModifiedNotModifiedCount.incrementAndGet();
+            }
+        }
+        if (cacheResponse != null && notModified) {
+            conditionalHitCount.incrementAndGet();
+        } else {
+            networkCount.incrementAndGet();
+        }
+        return response;
+    }
+
+    public long requestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * 完全由缓存返回的次数
+     */
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * 服务器返回304，使用缓存body的次数
+     */
+    public long conditionalHitCount() {
+        return conditionalHitCount.get();
+    }
+
+    /**
+     * 由网络返回完整响应的次数
+     */
+    public long networkCount() {
+        return networkCount.get();
+    }
+
+    /**
+     * 带If-None-Match(ETag)访问网络的次数
+     */
+    public long etagRevalidationCount() {
+        return etagRevalidationCount.get();
+    }
+
+    /**
+     * 带If-None-Match并且服务器返回304的次数
+     */
+    public long etagNotModifiedCount() {
+        return etagNotModifiedCount.get();
+    }
+
+    /**
+     * 没有ETag、只带If-Modified-Since访问网络的次数
+     */
+    public long lastModifiedRevalidationCount() {
+        return lastModifiedRevalidationCount.get();
+    }
+
+    /**
+     * 只带If-Modified-Since并且服务器返回304的次数
+     */
+    public long lastModifiedNotModifiedCount() {
+        return lastModifiedNotModifiedCount.get();
+    }
+
+    /**
+     * 只读缓存(CachePolicy.CACHE_ONLY)但没有可用缓存的次数
+     */
+    public long unsatisfiableCount() {
+        return unsatisfiableCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{requests=" + requestCount + ", hits=" + hitCount
+                + ", conditionalHits=" + conditionalHitCount + ", network=" + networkCount
+                + ", etagRevalidations=" + etagNotModifiedCount + "/" + etagRevalidationCount
+                + ", lastModifiedRevalidations=" + lastModifiedNotModifiedCount + "/" + lastModifiedRevalidationCount
+                + ", unsatisfiable=" + unsatisfiableCount + "}";
+    }
+}
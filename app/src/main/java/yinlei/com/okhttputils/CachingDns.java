@@ -0,0 +1,441 @@
+package yinlei.com.okhttputils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Dns;
+
+/**
+ * 带缓存、可以预解析的Dns
+ * <p>
+ * 解析结果在ttl内直接使用；过期后重新解析，失败时在staleTtl内继续使用旧结果。
+ * 同一个host同时只有一次解析，其他线程等待它的结果。prefetch在后台线程中提前解析，之后的请求直接命中缓存。
+ * 上游是FamilyResolver时IPv4和IPv6并行解析，先返回的那一种再最多等待resolutionDelay，
+ * 另一种没有返回就不等了(RFC 8305)；结果中IPv6和IPv4交替排列，一种地址连不上时很快会尝试另一种。
+ * 并行解析整体最多等待lookupTimeout，上游卡住时不会一直阻塞调用方。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: CachingDns.java
+ * @author: myName
+ * @date: 2026-10-18 20:50
+ */
+
+public final class CachingDns implements Dns {
+
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OkHttpUtils Dns");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Dns upstream;
+    private final FamilyResolver familyResolver;
+    private final long ttlNanos;
+    private final long staleTtlNanos;
+    private final long resolutionDelayMillis;
+    private final long lookupTimeoutNanos;
+    private final int maxEntries;
+
+    private final Map<String, Record> cache;
+    private final ConcurrentHashMap<String, FutureTask<List<InetAddress>>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<List<InetAddress>>>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final LatencyHistogram lookupTime = new LatencyHistogram();
+
+    private CachingDns(Builder builder) {
+        this.upstream = builder.upstream;
+        this.familyResolver = builder.familyResolver;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(builder.ttlMillis);
+        this.staleTtlNanos = TimeUnit.MILLISECONDS.toNanos(builder.staleTtlMillis);
+        this.resolutionDelayMillis = builder.resolutionDelayMillis;
+        this.lookupTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(builder.lookupTimeoutMillis);
+        this.maxEntries = builder.maxEntries;
+        this.cache = new LinkedHashMap<String, Record>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        if (hostname == null) throw new UnknownHostException("hostname == null");
+        Record record = get(hostname);
+        long now = System.nanoTime();
+        if (record != null && now - record.resolvedNanos < ttlNanos) {
+            hitCount.incrementAndGet();
+            return record.addresses;
+        }
+        missCount.incrementAndGet();
+        try {
+            return resolve(hostname);
+        } catch (UnknownHostException e) {
+            if (record != null && now - record.resolvedNanos < ttlNanos + staleTtlNanos) {
+                //网络不好时旧的地址通常仍然可用
+                staleHitCount.incrementAndGet();
+                return record.addresses;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 在后台提前解析，已经在缓存中并且没有过期的host不会重新解析
+     *
+     * @param hostnames
+     */
+    public void prefetch(String... hostnames) {
+        for (final String hostname : hostnames) {
+            Record record = get(hostname);
+            if (record != null && System.nanoTime() - record.resolvedNanos < ttlNanos) {
+                continue;
+            }
+            EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        resolve(hostname);
+                    } catch (UnknownHostException ignored) {
+                        //已经计入failureCount，真正请求时再报错
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void evictAll() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * 解析失败时使用过期结果的次数
+     */
+    public long staleHitCount() {
+        return staleHitCount.get();
+    }
+
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 上游解析失败的次数
+     */
+    public long failureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * 上游解析的耗时，微秒
+     */
+    public LatencyHistogram.Snapshot lookupTime() {
+        return lookupTime.snapshot();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingDns{hits=" + hitCount + ", staleHits=" + staleHitCount + ", misses=" + missCount
+                + ", failures=" + failureCount + ", lookupTime=" + lookupTime.snapshot() + "}";
+    }
+
+    private Record get(String hostname) {
+        synchronized (cache) {
+            return cache.get(hostname);
+        }
+    }
+
+    /**
+     * 向上游解析并放入缓存，同一个host同时只解析一次
+     */
+    private List<InetAddress> resolve(final String hostname) throws UnknownHostException {
+        FutureTask<List<InetAddress>> task = inFlight.get(hostname);
+        if (task == null) {
+            FutureTask<List<InetAddress>> created = new FutureTask<List<InetAddress>>(new Callable<List<InetAddress>>() {
+                @Override
+                public List<InetAddress> call() throws UnknownHostException {
+                    try {
+                        return resolveUpstream(hostname);
+                    } finally {
+                        inFlight.remove(hostname);
+                    }
+                }
+            });
+            task = inFlight.putIfAbsent(hostname, created);
+            if (task == null) {
+                task = created;
+                created.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw unknownHost(hostname, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnknownHostException) {
+                throw (UnknownHostException) e.getCause();
+            }
+            throw unknownHost(hostname, e.getCause());
+        }
+    }
+
+    private List<InetAddress> resolveUpstream(String hostname) throws UnknownHostException {
+        long start = System.nanoTime();
+        List<InetAddress> addresses;
+        try {
+            addresses = familyResolver != null ? race(hostname) : upstream.lookup(hostname);
+            if (addresses == null || addresses.isEmpty()) {
+                throw new UnknownHostException("no addresses for " + hostname);
+            }
+        } catch (UnknownHostException e) {
+            failureCount.incrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            failureCount.incrementAndGet();
+            throw unknownHost(hostname, e);
+        } finally {
+            lookupTime.recordNanos(System.nanoTime() - start);
+        }
+        List<InetAddress> result = Collections.unmodifiableList(new ArrayList<InetAddress>(addresses));
+        synchronized (cache) {
+            cache.put(hostname, new Record(result, System.nanoTime()));
+        }
+        return result;
+    }
+
+    /**
+     * IPv4和IPv6并行解析
+     */
+    private List<InetAddress> race(final String hostname) throws UnknownHostException {
+        final Race race = new Race();
+        for (final boolean ipv6 : new boolean[]{true, false}) {
+            EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        race.finish(ipv6, familyResolver.lookup(hostname, ipv6), null);
+                    } catch (UnknownHostException e) {
+                        race.finish(ipv6, null, e);
+                    } catch (RuntimeException e) {
+                        race.finish(ipv6, null, unknownHost(hostname, e));
+                    }
+                }
+            });
+        }
+        long deadline = System.nanoTime() + lookupTimeoutNanos;
+        try {
+            if (!race.first.await(lookupTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new UnknownHostException("lookup timed out: " + hostname);
+            }
+            if (!race.done()) {
+                //第一个没有结果时等另一个，有结果时最多再等resolutionDelay；都不超过剩余的lookupTimeout
+                long remaining = deadline - System.nanoTime();
+                if (race.hasAddresses()) {
+                    remaining = Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(resolutionDelayMillis));
+                }
+                if (!race.all.await(remaining, TimeUnit.NANOSECONDS) && !race.hasAddresses()) {
+                    throw new UnknownHostException("lookup timed out: " + hostname);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw unknownHost(hostname, e);
+        }
+        return race.result(hostname);
+    }
+
+    private static UnknownHostException unknownHost(String hostname, Throwable cause) {
+        UnknownHostException e = new UnknownHostException("lookup failed: " + hostname);
+        e.initCause(cause);
+        return e;
+    }
+
+    /**
+     * 一次并行解析的两个结果
+     */
+    private static final class Race {
+        final CountDownLatch first = new CountDownLatch(1);
+        final CountDownLatch all = new CountDownLatch(2);
+        private List<InetAddress> ipv6;
+        private List<InetAddress> ipv4;
+        private UnknownHostException failure;
+
+        synchronized void finish(boolean isIpv6, List<InetAddress> addresses, UnknownHostException e) {
+            if (isIpv6) {
+                ipv6 = addresses;
+            } else {
+                ipv4 = addresses;
+            }
+            if (e != null) {
+                failure = e;
+            }
+            first.countDown();
+            all.countDown();
+        }
+
+        boolean done() {
+            return all.getCount() == 0;
+        }
+
+        synchronized boolean hasAddresses() {
+            return (ipv6 != null && !ipv6.isEmpty()) || (ipv4 != null && !ipv4.isEmpty());
+        }
+
+        /**
+         * IPv6和IPv4交替排列，IPv6在前
+         */
+        synchronized List<InetAddress> result(String hostname) throws UnknownHostException {
+            List<InetAddress> v6 = ipv6 != null ? ipv6 : Collections.<InetAddress>emptyList();
+            List<InetAddress> v4 = ipv4 != null ? ipv4 : Collections.<InetAddress>emptyList();
+            if (v6.isEmpty() && v4.isEmpty()) {
+                throw failure != null ? failure : new UnknownHostException("no addresses for " + hostname);
+            }
+            List<InetAddress> result = new ArrayList<InetAddress>(v6.size() + v4.size());
+            for (int i = 0; i < Math.max(v6.size(), v4.size()); i++) {
+                if (i < v6.size()) {
+                    result.add(v6.get(i));
+                }
+                if (i < v4.size()) {
+                    result.add(v4.get(i));
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Record {
+        final List<InetAddress> addresses;
+        final long resolvedNanos;
+
+        Record(List<InetAddress> addresses, long resolvedNanos) {
+            this.addresses = addresses;
+            this.resolvedNanos = resolvedNanos;
+        }
+    }
+
+    /**
+     * 可以分别解析IPv4和IPv6的上游，例如基于DNS over HTTPS的实现或者测试用的假解析器
+     */
+    public interface FamilyResolver {
+
+        /**
+         * @param hostname
+         * @param ipv6     true时只返回AAAA记录，false时只返回A记录
+         * @return 没有这一类地址时返回空列表
+         * @throws UnknownHostException
+         */
+        List<InetAddress> lookup(String hostname, boolean ipv6) throws UnknownHostException;
+    }
+
+    public static final class Builder {
+        private Dns upstream = Dns.SYSTEM;
+        private FamilyResolver familyResolver;
+        private long ttlMillis = 60 * 1000;
+        private long staleTtlMillis = 10 * 60 * 1000;
+        private long resolutionDelayMillis = 50;
+        private long lookupTimeoutMillis = 10 * 1000;
+        private int maxEntries = 256;
+
+        /**
+         * 上游解析器，默认使用系统解析器
+         */
+        public Builder upstream(Dns upstream) {
+            if (upstream == null) throw new NullPointerException("upstream == null");
+            this.upstream = upstream;
+            this.familyResolver = null;
+            return this;
+        }
+
+        /**
+         * 可以分别解析IPv4和IPv6的上游，两种地址并行解析
+         */
+        public Builder upstream(FamilyResolver familyResolver) {
+            if (familyResolver == null) throw new NullPointerException("familyResolver == null");
+            this.familyResolver = familyResolver;
+            return this;
+        }
+
+        /**
+         * 解析结果的有效期，默认60秒
+         */
+        public Builder ttl(long ttl, TimeUnit unit) {
+            if (ttl < 0) throw new IllegalArgumentException("ttl < 0");
+            this.ttlMillis = unit.toMillis(ttl);
+            return this;
+        }
+
+        /**
+         * 过期之后解析失败时还可以继续使用旧结果的时间，默认10分钟
+         */
+        public Builder staleTtl(long staleTtl, TimeUnit unit) {
+            if (staleTtl < 0) throw new IllegalArgumentException("staleTtl < 0");
+            this.staleTtlMillis = unit.toMillis(staleTtl);
+            return this;
+        }
+
+        /**
+         * 并行解析时一种地址返回后最多等待另一种的时间，默认50毫秒
+         */
+        public Builder resolutionDelay(long delay, TimeUnit unit) {
+            if (delay < 0) throw new IllegalArgumentException("resolutionDelay < 0");
+            this.resolutionDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * 并行解析时最多等待的总时间，超时后抛出UnknownHostException，默认10秒
+         */
+        public Builder lookupTimeout(long timeout, TimeUnit unit) {
+            if (timeout <= 0) throw new IllegalArgumentException("lookupTimeout <= 0");
+            this.lookupTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * 最多缓存的host数，默认256
+         */
+        public Builder maxEntries(int maxEntries) {
+            if (maxEntries < 1) throw new IllegalArgumentException("maxEntries < 1");
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public CachingDns build() {
+            return new CachingDns(this);
+        }
+    }
+}
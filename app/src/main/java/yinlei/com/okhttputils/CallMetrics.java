@@ -0,0 +1,373 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * 按host统计每个请求各阶段的耗时
+ * <p>
+ * 记录Dispatcher中的排队时间、DNS、建立连接、TLS握手、首字节时间(发出请求头到收到响应头)、读取响应体的时间和总耗时，
+ * 以及收发的body字节数、连接复用次数。耗时记录在每个host各自的LatencyHistogram中，通过snapshot()读取。
+ * <p>
+ * 需要同时设置为client的eventListenerFactory和第一个应用拦截器：拦截器在请求真正开始执行的线程上记下时间，
+ * 和callStart之间的差就是排队时间。每个请求创建一个很小的EventListener，记录本身不分配对象。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: CallMetrics.java
+ * @author: myName
+ * @date: 2026-10-18 17:30
+ */
+
+public class CallMetrics implements EventListener.Factory, Interceptor {
+
+    //拦截器开始执行的时间，同一个线程上紧接着的事件读取；每个线程只分配一次
+    private static final ThreadLocal<long[]> DISPATCH_NANOS = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final ConcurrentHashMap<String, HostMetrics> hosts = new ConcurrentHashMap<String, HostMetrics>();
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallTimer(hostMetricsOf(call.request().url().host()));
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        DISPATCH_NANOS.get()[0] = System.nanoTime();
+        return chain.proceed(chain.request());
+    }
+
+    /**
+     * 所有host当前的统计，key是host
+     *
+     * @return
+     */
+    public Map<String, HostSnapshot> snapshot() {
+        Map<String, HostSnapshot> result = new HashMap<String, HostSnapshot>();
+        for (Map.Entry<String, HostMetrics> entry : hosts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return result;
+    }
+
+    /**
+     * 某个host当前的统计，没有请求过时返回null
+     *
+     * @param host
+     * @return
+     */
+    public HostSnapshot snapshot(String host) {
+        HostMetrics metrics = hosts.get(host);
+        return metrics != null ? metrics.snapshot(host) : null;
+    }
+
+    private HostMetrics hostMetricsOf(String host) {
+        HostMetrics metrics = hosts.get(host);
+        if (metrics == null) {
+            HostMetrics created = new HostMetrics();
+            metrics = hosts.putIfAbsent(host, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    private static final class HostMetrics {
+        final LatencyHistogram queueWait = new LatencyHistogram();
+        final LatencyHistogram dns = new LatencyHistogram();
+        final LatencyHistogram connect = new LatencyHistogram();
+        final LatencyHistogram tls = new LatencyHistogram();
+        final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+        final LatencyHistogram bodyRead = new LatencyHistogram();
+        final LatencyHistogram total = new LatencyHistogram();
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong canceled = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+        final AtomicLong reusedConnections = new AtomicLong();
+        final AtomicLong newConnections = new AtomicLong();
+
+        HostSnapshot snapshot(String host) {
+            return new HostSnapshot(this, host);
+        }
+    }
+
+    /**
+     * 一个请求的计时，OkHttp保证同一个请求的事件依次发生
+     */
+    private static final class CallTimer extends EventListener {
+        private final HostMetrics metrics;
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+        private long requestStart;
+        private long bodyStart;
+        private boolean queueRecorded;
+        //这一次获取连接之前是否新建了连接
+        private boolean connected;
+
+        CallTimer(HostMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+            metrics.calls.incrementAndGet();
+        }
+
+        /**
+         * 在执行线程上第一个事件发生时计算排队时间
+         */
+        private void recordQueueWait() {
+            if (queueRecorded) {
+                return;
+            }
+            queueRecorded = true;
+            long dispatched = DISPATCH_NANOS.get()[0];
+            //小于callStart说明是这个线程上一个请求留下的值，没有经过拦截器
+            if (dispatched >= callStart) {
+                metrics.queueWait.recordNanos(dispatched - callStart);
+            }
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            recordQueueWait();
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            metrics.dns.recordNanos(System.nanoTime() - dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            recordQueueWait();
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            metrics.tls.recordNanos(System.nanoTime() - secureConnectStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            metrics.connect.recordNanos(System.nanoTime() - connectStart);
+            connected = true;
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            recordQueueWait();
+            if (connected) {
+                metrics.newConnections.incrementAndGet();
+            } else {
+                metrics.reusedConnections.incrementAndGet();
+            }
+            connected = false;
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            metrics.bytesOut.addAndGet(byteCount);
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            metrics.timeToFirstByte.recordNanos(System.nanoTime() - requestStart);
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            bodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            metrics.bodyRead.recordNanos(System.nanoTime() - bodyStart);
+            metrics.bytesIn.addAndGet(byteCount);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            //命中缓存时没有网络事件
+            recordQueueWait();
+            metrics.total.recordNanos(System.nanoTime() - callStart);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            recordQueueWait();
+            metrics.total.recordNanos(System.nanoTime() - callStart);
+            if (call.isCanceled()) {
+                metrics.canceled.incrementAndGet();
+            } else {
+                metrics.failures.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 某个host在某一时刻的统计，耗时单位是微秒
+     */
+    public static final class HostSnapshot {
+        private final String host;
+        private final LatencyHistogram.Snapshot queueWait;
+        private final LatencyHistogram.Snapshot dns;
+        private final LatencyHistogram.Snapshot connect;
+        private final LatencyHistogram.Snapshot tls;
+        private final LatencyHistogram.Snapshot timeToFirstByte;
+        private final LatencyHistogram.Snapshot bodyRead;
+        private final LatencyHistogram.Snapshot total;
+        private final long calls;
+        private final long failures;
+        private final long canceled;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long reusedConnections;
+        private final long newConnections;
+
+        HostSnapshot(HostMetrics metrics, String host) {
+            this.host = host;
+            this.queueWait = metrics.queueWait.snapshot();
+            this.dns = metrics.dns.snapshot();
+            this.connect = metrics.connect.snapshot();
+            this.tls = metrics.tls.snapshot();
+            this.timeToFirstByte = metrics.timeToFirstByte.snapshot();
+            this.bodyRead = metrics.bodyRead.snapshot();
+            this.total = metrics.total.snapshot();
+            this.calls = metrics.calls.get();
+            this.failures = metrics.failures.get();
+            this.canceled = metrics.canceled.get();
+            this.bytesIn = metrics.bytesIn.get();
+            this.bytesOut = metrics.bytesOut.get();
+            this.reusedConnections = metrics.reusedConnections.get();
+            this.newConnections = metrics.newConnections.get();
+        }
+
+        public String host() {
+            return host;
+        }
+
+        /**
+         * 从enqueue到开始执行的时间，同步请求接近0
+         */
+        public LatencyHistogram.Snapshot queueWait() {
+            return queueWait;
+        }
+
+        public LatencyHistogram.Snapshot dns() {
+            return dns;
+        }
+
+        /**
+         * 建立TCP连接的时间，包括TLS握手
+         */
+        public LatencyHistogram.Snapshot connect() {
+            return connect;
+        }
+
+        public LatencyHistogram.Snapshot tls() {
+            return tls;
+        }
+
+        /**
+         * 开始发送请求头到开始收到响应头的时间
+         */
+        public LatencyHistogram.Snapshot timeToFirstByte() {
+            return timeToFirstByte;
+        }
+
+        /**
+         * 读取响应体的时间，包括调用方处理数据的时间
+         */
+        public LatencyHistogram.Snapshot bodyRead() {
+            return bodyRead;
+        }
+
+        /**
+         * 从callStart到callEnd/callFailed的时间
+         */
+        public LatencyHistogram.Snapshot total() {
+            return total;
+        }
+
+        public long calls() {
+            return calls;
+        }
+
+        public long failures() {
+            return failures;
+        }
+
+        public long canceled() {
+            return canceled;
+        }
+
+        /**
+         * 收到的响应体字节数(解压之前)
+         */
+        public long bytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * 发送的请求体字节数
+         */
+        public long bytesOut() {
+            return bytesOut;
+        }
+
+        public long reusedConnections() {
+            return reusedConnections;
+        }
+
+        public long newConnections() {
+            return newConnections;
+        }
+
+        @Override
+        public String toString() {
+            return host + "{calls=" + calls + ", failures=" + failures + ", canceled=" + canceled
+                    + ", bytesIn=" + bytesIn + ", bytesOut=" + bytesOut
+                    + ", reused=" + reusedConnections + ", new=" + newConnections
+                    + ", queueWait=" + queueWait + ", dns=" + dns + ", connect=" + connect + ", tls=" + tls
+                    + ", ttfb=" + timeToFirstByte + ", bodyRead=" + bodyRead + ", total=" + total + "}";
+        }
+    }
+}
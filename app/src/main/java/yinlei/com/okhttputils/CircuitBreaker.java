@@ -0,0 +1,443 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.CacheControl;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 按host熔断的应用拦截器，后端不可用时快速失败，不再等待连接和读取超时、占用Dispatcher的名额
+ * <p>
+ * 每个host(包括端口)单独统计最近windowSize次请求的结果：网络异常和502、503、504算失败，收到响应头超过slowCallDuration算慢。
+ * 500等其他状态码通常只是某个接口的错误，host本身可用，不算失败，否则一个出错的接口会让整个host快速失败。
+ * 至少有minimumCalls次结果并且失败率或者慢调用率达到阈值时打开，打开期间直接抛出CircuitOpenException；
+ * 经过openDuration之后半开，最多同时放行halfOpenCalls个探测请求，全部成功则关闭，任何一个失败重新打开。
+ * 取消的请求、磁盘缓存直接命中(没有networkResponse)的请求和AdaptiveLimiter在本地拒绝的请求(LimitExceededException)不计入统计；
+ * 只读缓存(only-if-cached)的请求不经过熔断器。收到响应时按网络响应的发送和接收时间判断慢调用，不包括在AdaptiveLimiter中排队的时间。
+ * <p>
+ * 熔断器是应用拦截器，在OkHttp的磁盘缓存之前执行。打开时GET请求改为only-if-cached再执行一次，
+ * 保留原来的max-stale、min-fresh，缓存能满足时返回缓存(例如CachePolicy.CACHE_ELSE_NETWORK)，不能满足才抛出CircuitOpenException。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: CircuitBreaker.java
+ * @author: myName
+ * @date: 2026-10-19 00:20
+ */
+
+public class CircuitBreaker implements Interceptor {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 状态变化的通知，在执行请求的线程中调用，不要做耗时的操作
+     */
+    public interface Listener {
+        void onStateChange(String host, State from, State to);
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final float failureRateThreshold;
+    private final float slowCallRateThreshold;
+    private final long slowCallDurationNanos;
+    private final long openDurationNanos;
+    private final int halfOpenCalls;
+    private final Listener listener;
+
+    private final ConcurrentMap<String, HostCircuit> circuits = new ConcurrentHashMap<String, HostCircuit>();
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong halfOpenedCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong cacheFallbackCount = new AtomicLong();
+
+    private CircuitBreaker(Builder builder) {
+        this.windowSize = builder.windowSize;
+        this.minimumCalls = Math.min(builder.minimumCalls, builder.windowSize);
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallDurationNanos = builder.slowCallDurationNanos;
+        this.openDurationNanos = builder.openDurationNanos;
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.listener = builder.listener;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.cacheControl().onlyIfCached()) {
+            return chain.proceed(request);
+        }
+        String host = hostOf(request.url());
+        HostCircuit circuit = circuits.get(host);
+        if (circuit == null) {
+            HostCircuit created = new HostCircuit(host);
+            circuit = circuits.putIfAbsent(host, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        int probe;
+        try {
+            probe = circuit.acquire();
+        } catch (CircuitOpenException e) {
+            return proceedFromCache(chain, e);
+        }
+
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            //limiter在本地拒绝或排队超时，请求没有到达host
+            if (chain.call().isCanceled() || e instanceof LimitExceededException) {
+                circuit.release(probe);
+            } else {
+                circuit.record(probe, true, System.nanoTime() - start >= slowCallDurationNanos);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            circuit.release(probe);
+            throw e;
+        }
+        if (response.networkResponse() == null) {
+            //磁盘缓存命中，和host是否可用无关
+            circuit.release(probe);
+        } else {
+            circuit.record(probe, isFailureCode(response.code()), isSlow(response));
+        }
+        return response;
+    }
+
+    /**
+     * 网关错误、服务不可用和网关超时说明host(或者它后面的服务)不可用
+     */
+    static boolean isFailureCode(int code) {
+        return code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * 从发出请求到收到响应头的时间，不包括之前在拦截器中等待的时间
+     */
+    private boolean isSlow(Response response) {
+        long millis = response.receivedResponseAtMillis() - response.sentRequestAtMillis();
+        return TimeUnit.MILLISECONDS.toNanos(millis) >= slowCallDurationNanos;
+    }
+
+    /**
+     * 打开时只从缓存读取，缓存不能满足这个请求时抛出open
+     */
+    private Response proceedFromCache(Chain chain, CircuitOpenException open) throws IOException {
+        Request request = chain.request();
+        CacheControl cacheControl = request.cacheControl();
+        if (!"GET".equals(request.method()) || cacheControl.noCache() || cacheControl.noStore()) {
+            rejectedCount.incrementAndGet();
+            throw open;
+        }
+        CacheControl.Builder onlyIfCached = new CacheControl.Builder().onlyIfCached();
+        if (cacheControl.maxAgeSeconds() != -1) {
+            onlyIfCached.maxAge(cacheControl.maxAgeSeconds(), TimeUnit.SECONDS);
+        }
+        if (cacheControl.maxStaleSeconds() != -1) {
+            onlyIfCached.maxStale(cacheControl.maxStaleSeconds(), TimeUnit.SECONDS);
+        }
+        if (cacheControl.minFreshSeconds() != -1) {
+            onlyIfCached.minFresh(cacheControl.minFreshSeconds(), TimeUnit.SECONDS);
+        }
+        Response response = chain.proceed(request.newBuilder().cacheControl(onlyIfCached.build()).build());
+        //缓存不能满足时OkHttp返回没有缓存和网络响应的504
+        if (response.cacheResponse() == null) {
+            response.close();
+            rejectedCount.incrementAndGet();
+            throw open;
+        }
+        cacheFallbackCount.incrementAndGet();
+        return response;
+    }
+
+    static String hostOf(HttpUrl url) {
+        return url.host() + ":" + url.port();
+    }
+
+    /**
+     * host当前的状态，host格式为"主机:端口"，没有请求过时为CLOSED
+     */
+    public State state(String host) {
+        HostCircuit circuit = circuits.get(host);
+        return circuit != null ? circuit.state() : State.CLOSED;
+    }
+
+    /**
+     * 打开的次数(包括半开之后重新打开)
+     */
+    public long openedCount() {
+        return openedCount.get();
+    }
+
+    public long halfOpenedCount() {
+        return halfOpenedCount.get();
+    }
+
+    /**
+     * 半开之后探测成功关闭的次数
+     */
+    public long closedCount() {
+        return closedCount.get();
+    }
+
+    /**
+     * 快速失败、没有访问网络的请求数，不包括打开时从缓存返回的请求
+     */
+    public long rejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 打开时由磁盘缓存返回的请求数
+     */
+    public long cacheFallbackCount() {
+        return cacheFallbackCount.get();
+    }
+
+    /**
+     * 把所有host恢复到关闭状态并清空统计
+     */
+    public void reset() {
+        circuits.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{opened=" + openedCount + ", halfOpened=" + halfOpenedCount
+                + ", closed=" + closedCount + ", rejected=" + rejectedCount + ", cacheFallback=" + cacheFallbackCount + "}";
+    }
+
+    private final class HostCircuit {
+        private final String host;
+        //环形窗口，记录最近windowSize次的结果
+        private final boolean[] failed = new boolean[windowSize];
+        private final boolean[] slow = new boolean[windowSize];
+        private int next;
+        private int count;
+        private int failureCount;
+        private int slowCount;
+
+        private State state = State.CLOSED;
+        private long openedAtNanos;
+        //第几次半开，区分不同轮次的探测请求
+        private int round;
+        //半开状态已经放行和已经成功的探测请求数
+        private int probesInFlight;
+        private int probeSuccesses;
+
+        HostCircuit(String host) {
+            this.host = host;
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        /**
+         * 打开时抛出CircuitOpenException，到时间后转为半开并占用一个探测名额
+         *
+         * @return 探测请求所在的轮次，不是探测请求时为0
+         */
+        int acquire() throws CircuitOpenException {
+            State from = null;
+            int probe = 0;
+            synchronized (this) {
+                if (state == State.OPEN) {
+                    long elapsed = System.nanoTime() - openedAtNanos;
+                    if (elapsed < openDurationNanos) {
+                        throw new CircuitOpenException(host, TimeUnit.NANOSECONDS.toMillis(openDurationNanos - elapsed));
+                    }
+                    from = State.OPEN;
+                    state = State.HALF_OPEN;
+                    round++;
+                    probesInFlight = 0;
+                    probeSuccesses = 0;
+                    halfOpenedCount.incrementAndGet();
+                }
+                if (state == State.HALF_OPEN) {
+                    if (probesInFlight + probeSuccesses >= halfOpenCalls) {
+                        throw new CircuitOpenException(host, 0);
+                    }
+                    probesInFlight++;
+                    probe = round;
+                }
+            }
+            if (from != null) {
+                notifyStateChange(from, State.HALF_OPEN);
+            }
+            return probe;
+        }
+
+        /**
+         * 请求被取消，归还探测名额，不计入统计
+         */
+        synchronized void release(int probe) {
+            if (probe != 0 && probe == round && state == State.HALF_OPEN) {
+                probesInFlight--;
+            }
+        }
+
+        void record(int probe, boolean isFailure, boolean isSlow) {
+            State from;
+            State to;
+            synchronized (this) {
+                from = state;
+                if (probe != 0) {
+                    if (probe != round || state != State.HALF_OPEN) {
+                        //同一轮的其他探测已经决定了状态
+                        return;
+                    }
+                    probesInFlight--;
+                    if (isFailure || isSlow) {
+                        open();
+                    } else if (++probeSuccesses >= halfOpenCalls) {
+                        close();
+                    }
+                } else if (state == State.CLOSED) {
+                    add(isFailure, isSlow);
+                    if (count >= minimumCalls && (failureCount >= failureRateThreshold * count
+                            || slowCount >= slowCallRateThreshold * count)) {
+                        open();
+                    }
+                }
+                //打开之前发出的请求，打开或半开之后结果不再计入
+                to = state;
+            }
+            if (from != to) {
+                notifyStateChange(from, to);
+            }
+        }
+
+        private void add(boolean isFailure, boolean isSlow) {
+            if (count == windowSize) {
+                if (failed[next]) failureCount--;
+                if (slow[next]) slowCount--;
+            } else {
+                count++;
+            }
+            failed[next] = isFailure;
+            slow[next] = isSlow;
+            if (isFailure) failureCount++;
+            if (isSlow) slowCount++;
+            next = (next + 1) % windowSize;
+        }
+
+        private void open() {
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+            openedCount.incrementAndGet();
+        }
+
+        private void close() {
+            state = State.CLOSED;
+            count = 0;
+            next = 0;
+            failureCount = 0;
+            slowCount = 0;
+            closedCount.incrementAndGet();
+        }
+
+        private void notifyStateChange(State from, State to) {
+            if (listener != null) {
+                listener.onStateChange(host, from, to);
+            }
+        }
+    }
+
+    public static final class Builder {
+        private int windowSize = 20;
+        private int minimumCalls = 10;
+        private float failureRateThreshold = 0.5f;
+        private float slowCallRateThreshold = 0.8f;
+        private long slowCallDurationNanos = TimeUnit.SECONDS.toNanos(5);
+        private long openDurationNanos = TimeUnit.SECONDS.toNanos(15);
+        private int halfOpenCalls = 3;
+        private Listener listener;
+
+        /**
+         * 每个host统计最近多少次请求，默认20
+         */
+        public Builder windowSize(int windowSize) {
+            if (windowSize <= 0) throw new IllegalArgumentException("windowSize <= 0");
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * 窗口内至少有多少次结果才计算比例，默认10
+         */
+        public Builder minimumCalls(int minimumCalls) {
+            if (minimumCalls <= 0) throw new IllegalArgumentException("minimumCalls <= 0");
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * 失败率达到多少时打开，(0, 1]，默认0.5
+         */
+        public Builder failureRateThreshold(float threshold) {
+            if (threshold <= 0 || threshold > 1) throw new IllegalArgumentException("threshold not in (0, 1]");
+            this.failureRateThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * 慢调用率达到多少时打开，(0, 1]，默认0.8
+         */
+        public Builder slowCallRateThreshold(float threshold) {
+            if (threshold <= 0 || threshold > 1) throw new IllegalArgumentException("threshold not in (0, 1]");
+            this.slowCallRateThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * 收到响应头超过这个时间算慢调用，默认5秒
+         */
+        public Builder slowCallDuration(long duration, TimeUnit unit) {
+            if (duration <= 0) throw new IllegalArgumentException("duration <= 0");
+            this.slowCallDurationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 打开之后多久进入半开，默认15秒
+         */
+        public Builder openDuration(long duration, TimeUnit unit) {
+            if (duration <= 0) throw new IllegalArgumentException("duration <= 0");
+            this.openDurationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 半开时放行的探测请求数，全部成功才关闭，默认3
+         */
+        public Builder halfOpenCalls(int halfOpenCalls) {
+            if (halfOpenCalls <= 0) throw new IllegalArgumentException("halfOpenCalls <= 0");
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+
+/**
+ * host的熔断器处于打开状态，请求没有访问网络就失败了
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: CircuitOpenException.java
+ * @author: myName
+ * @date: 2026-10-19 00:20
+ */
+
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(String host, long retryAfterMillis) {
+        super("circuit open for " + host + ", retry after " + retryAfterMillis + "ms");
+        this.host = host;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    /**
+     * 距离允许探测请求还有多久，半开状态探测名额用完时为0
+     */
+    public long retryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,203 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 把事件依次转发给多个EventListener，OkHttpClient只能设置一个eventListenerFactory
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: CompositeEventListener.java
+ * @author: myName
+ * @date: 2026-10-19 10:40
+ */
+
+final class CompositeEventListener extends EventListener {
+
+    private final EventListener[] listeners;
+
+    private CompositeEventListener(EventListener[] listeners) {
+        this.listeners = listeners;
+    }
+
+    /**
+     * 合并多个factory，忽略null；只有一个时直接返回它，都为null时返回null
+     */
+    static EventListener.Factory factory(EventListener.Factory... factories) {
+        final List<EventListener.Factory> present = new ArrayList<EventListener.Factory>(factories.length);
+        for (EventListener.Factory factory : factories) {
+            if (factory != null) {
+                present.add(factory);
+            }
+        }
+        if (present.isEmpty()) {
+            return null;
+        }
+        if (present.size() == 1) {
+            return present.get(0);
+        }
+        return new EventListener.Factory() {
+            @Override
+            public EventListener create(Call call) {
+                EventListener[] listeners = new EventListener[present.size()];
+                for (int i = 0; i < listeners.length; i++) {
+                    listeners[i] = present.get(i).create(call);
+                }
+                return new CompositeEventListener(listeners);
+            }
+        };
+    }
+
+    @Override
+    public void callStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.callStart(call);
+        }
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        for (EventListener listener : listeners) {
+            listener.dnsStart(call, domainName);
+        }
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        for (EventListener listener : listeners) {
+            listener.dnsEnd(call, domainName, inetAddressList);
+        }
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        for (EventListener listener : listeners) {
+            listener.connectStart(call, inetSocketAddress, proxy);
+        }
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.secureConnectStart(call);
+        }
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        for (EventListener listener : listeners) {
+            listener.secureConnectEnd(call, handshake);
+        }
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        for (EventListener listener : listeners) {
+            listener.connectEnd(call, inetSocketAddress, proxy, protocol);
+        }
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol,
+                              IOException ioe) {
+        for (EventListener listener : listeners) {
+            listener.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+        }
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        for (EventListener listener : listeners) {
+            listener.connectionAcquired(call, connection);
+        }
+    }
+
+    @Override
+    public void connectionReleased(Call call, Connection connection) {
+        for (EventListener listener : listeners) {
+            listener.connectionReleased(call, connection);
+        }
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.requestHeadersStart(call);
+        }
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+        for (EventListener listener : listeners) {
+            listener.requestHeadersEnd(call, request);
+        }
+    }
+
+    @Override
+    public void requestBodyStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.requestBodyStart(call);
+        }
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        for (EventListener listener : listeners) {
+            listener.requestBodyEnd(call, byteCount);
+        }
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.responseHeadersStart(call);
+        }
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        for (EventListener listener : listeners) {
+            listener.responseHeadersEnd(call, response);
+        }
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.responseBodyStart(call);
+        }
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        for (EventListener listener : listeners) {
+            listener.responseBodyEnd(call, byteCount);
+        }
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        for (EventListener listener : listeners) {
+            listener.callEnd(call);
+        }
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        for (EventListener listener : listeners) {
+            listener.callFailed(call, ioe);
+        }
+    }
+}
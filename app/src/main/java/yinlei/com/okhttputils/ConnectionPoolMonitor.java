@@ -0,0 +1,528 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.internal.Internal;
+import okhttp3.internal.connection.RealConnection;
+
+/**
+ * 按host统计连接池：空闲和正在使用的连接数、连接复用的比例、被回收和被关闭的连接数，
+ * 并且可以按host限制空闲连接数和保活时间，按需清理空闲连接
+ * <p>
+ * ConnectionPool只有全局的maxIdleConnections，超过时按最久没有使用的顺序关闭，
+ * 一个请求很多的host会把其他host预热好的连接挤出去；给这个host设置maxIdleConnections后，
+ * 它多出的空闲连接在归还时就被关闭，不再占用全局的名额。每个host的保活时间只能比连接池的短，更长时仍以连接池为准。
+ * <p>
+ * 需要设置为client的eventListenerFactory，通过connectionAcquired/connectionReleased跟踪每个连接，
+ * 并用attach关联client的ConnectionPool后才能回收连接，否则只统计。
+ * 回收连接时在连接池的锁内确认没有请求在使用，再从连接池中移除，依赖OkHttp 3.12的内部类，升级OkHttp时需要检查；
+ * 内部类不兼容(LinkageError)时不再回收，只统计。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: ConnectionPoolMonitor.java
+ * @author: myName
+ * @date: 2026-10-19 11:00
+ */
+
+public final class ConnectionPoolMonitor implements EventListener.Factory {
+
+    private static final ScheduledThreadPoolExecutor SWEEPER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OkHttpUtils Pool");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Comparator<Tracked> OLDEST_IDLE_FIRST = new Comparator<Tracked>() {
+        @Override
+        public int compare(Tracked a, Tracked b) {
+            long diff = a.idleSinceNanos - b.idleSinceNanos;
+            return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+        }
+    };
+
+    private final int maxIdleConnectionsPerHost;
+    private final long keepAliveNanosPerHost;
+    private final Map<String, Integer> maxIdleByHost;
+    private final Map<String, Long> keepAliveByHost;
+    private final ConcurrentHashMap<String, HostPool> hosts = new ConcurrentHashMap<String, HostPool>();
+    private volatile ConnectionPool pool;
+    //OkHttp的内部类和这个版本不兼容时为true，之后只统计
+    private volatile boolean evictionUnsupported;
+
+    //只根据连接对象记录，不需要每个请求单独的状态，所有请求共用一个
+    private final EventListener listener = new EventListener() {
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            hostPoolOf(connection).acquired(connection);
+        }
+
+        @Override
+        public void connectionReleased(Call call, Connection connection) {
+            hostPoolOf(connection).released(connection);
+        }
+    };
+
+    private ConnectionPoolMonitor(Builder builder) {
+        this.maxIdleConnectionsPerHost = builder.maxIdleConnectionsPerHost;
+        this.keepAliveNanosPerHost = builder.keepAliveNanosPerHost;
+        this.maxIdleByHost = new HashMap<String, Integer>(builder.maxIdleConnections);
+        this.keepAliveByHost = new HashMap<String, Long>(builder.keepAliveNanos);
+    }
+
+    @Override
+    public EventListener create(Call call) {
+        return listener;
+    }
+
+    /**
+     * 关联client使用的连接池，之后才会按host回收连接；通过Config设置时由OkHttpClientUtils调用
+     *
+     * @param pool 必须是设置了这个monitor的client的连接池
+     */
+    public void attach(ConnectionPool pool) {
+        if (pool == null) throw new NullPointerException("pool == null");
+        synchronized (this) {
+            if (this.pool != null && this.pool != pool) {
+                throw new IllegalStateException("already attached to another pool");
+            }
+            this.pool = pool;
+        }
+    }
+
+    /**
+     * 所有host当前的统计，key是host
+     *
+     * @return
+     */
+    public Map<String, HostSnapshot> snapshot() {
+        Map<String, HostSnapshot> result = new HashMap<String, HostSnapshot>();
+        for (HostPool hostPool : hosts.values()) {
+            result.put(hostPool.host, hostPool.snapshot());
+        }
+        return result;
+    }
+
+    /**
+     * 某个host当前的统计，没有请求过时返回null
+     *
+     * @param host
+     * @return
+     */
+    public HostSnapshot snapshot(String host) {
+        HostPool hostPool = hosts.get(host);
+        return hostPool != null ? hostPool.snapshot() : null;
+    }
+
+    /**
+     * 关闭所有空闲连接，正在使用的不受影响，例如切换网络或者进入后台时调用
+     *
+     * @return 关闭的连接数
+     */
+    public int prune() {
+        int evicted = 0;
+        for (HostPool hostPool : hosts.values()) {
+            evicted += hostPool.prune();
+        }
+        ConnectionPool pool = this.pool;
+        if (pool != null) {
+            //没有经过事件跟踪的空闲连接，例如设置monitor之前建立的
+            pool.evictAll();
+        }
+        return evicted;
+    }
+
+    /**
+     * 关闭某个host的所有空闲连接
+     *
+     * @param host
+     * @return 关闭的连接数
+     */
+    public int prune(String host) {
+        HostPool hostPool = hosts.get(host);
+        return hostPool != null ? hostPool.prune() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolMonitor" + snapshot().values();
+    }
+
+    private HostPool hostPoolOf(Connection connection) {
+        String host = connection.route().address().url().host();
+        HostPool hostPool = hosts.get(host);
+        if (hostPool == null) {
+            Integer maxIdle = maxIdleByHost.get(host);
+            Long keepAlive = keepAliveByHost.get(host);
+            HostPool created = new HostPool(host,
+                    maxIdle != null ? maxIdle : maxIdleConnectionsPerHost,
+                    keepAlive != null ? keepAlive : keepAliveNanosPerHost);
+            hostPool = hosts.putIfAbsent(host, created);
+            if (hostPool == null) {
+                hostPool = created;
+            }
+        }
+        return hostPool;
+    }
+
+    /**
+     * 从连接池中移除一个空闲连接，返回需要关闭的socket；有请求正在使用(事件还没有到达)或者没有关联连接池时返回null
+     */
+    private Socket evict(Connection connection) {
+        ConnectionPool pool = this.pool;
+        if (pool == null || evictionUnsupported) {
+            return null;
+        }
+        try {
+            return evict(pool, connection);
+        } catch (LinkageError e) {
+            //升级OkHttp后内部类的字段或方法变了
+            evictionUnsupported = true;
+            return null;
+        }
+    }
+
+    private static Socket evict(ConnectionPool pool, Connection connection) {
+        if (!(connection instanceof RealConnection)) {
+            return null;
+        }
+        RealConnection realConnection = (RealConnection) connection;
+        //和StreamAllocation从连接池取连接用同一把锁，确认空闲后不会再被取走
+        synchronized (pool) {
+            if (!realConnection.allocations.isEmpty()) {
+                return null;
+            }
+            realConnection.noNewStreams = true;
+            Internal.instance.connectionBecameIdle(pool, realConnection);
+        }
+        return realConnection.socket();
+    }
+
+    private static void closeQuietly(List<Socket> sockets) {
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static final class Tracked {
+        final Connection connection;
+        //HTTP/2的一个连接可以同时有多个请求
+        int inUse;
+        long idleSinceNanos;
+
+        Tracked(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private final class HostPool {
+        final String host;
+        final int maxIdle;
+        final long keepAliveNanos;
+        final Map<Connection, Tracked> connections = new LinkedHashMap<Connection, Tracked>();
+        long acquiredCount;
+        long reusedCount;
+        long evictedCount;
+        long closedCount;
+        boolean sweepScheduled;
+
+        HostPool(String host, int maxIdle, long keepAliveNanos) {
+            this.host = host;
+            this.maxIdle = maxIdle;
+            this.keepAliveNanos = keepAliveNanos;
+        }
+
+        synchronized void acquired(Connection connection) {
+            acquiredCount++;
+            Tracked tracked = connections.get(connection);
+            if (tracked == null) {
+                tracked = new Tracked(connection);
+                connections.put(connection, tracked);
+            } else {
+                reusedCount++;
+            }
+            tracked.inUse++;
+        }
+
+        void released(Connection connection) {
+            List<Socket> toClose;
+            synchronized (this) {
+                Tracked tracked = connections.get(connection);
+                if (tracked == null || --tracked.inUse > 0) {
+                    return;
+                }
+                tracked.idleSinceNanos = System.nanoTime();
+                toClose = trim(false);
+                scheduleSweep();
+            }
+            closeQuietly(toClose);
+        }
+
+        int prune() {
+            List<Socket> toClose;
+            synchronized (this) {
+                toClose = trim(true);
+            }
+            closeQuietly(toClose);
+            return toClose.size();
+        }
+
+        void sweep() {
+            List<Socket> toClose;
+            synchronized (this) {
+                sweepScheduled = false;
+                toClose = trim(false);
+                scheduleSweep();
+            }
+            closeQuietly(toClose);
+        }
+
+        synchronized HostSnapshot snapshot() {
+            removeClosed();
+            int idle = 0;
+            for (Tracked tracked : connections.values()) {
+                if (tracked.inUse == 0) {
+                    idle++;
+                }
+            }
+            return new HostSnapshot(host, idle, connections.size() - idle,
+                    acquiredCount, reusedCount, evictedCount, closedCount);
+        }
+
+        /**
+         * 去掉已经被连接池(保活超时、超过全局空闲数)或者因为出错关闭的空闲连接，需要在锁内调用
+         */
+        private void removeClosed() {
+            Iterator<Tracked> iterator = connections.values().iterator();
+            while (iterator.hasNext()) {
+                Tracked tracked = iterator.next();
+                //正在使用的等归还之后再去掉
+                if (tracked.inUse == 0 && tracked.connection.socket().isClosed()) {
+                    iterator.remove();
+                    closedCount++;
+                }
+            }
+        }
+
+        /**
+         * 按最久没有使用的顺序回收超过保活时间和超过maxIdle的空闲连接，all为true时回收所有空闲连接；
+         * 返回需要在锁外关闭的socket
+         */
+        private List<Socket> trim(boolean all) {
+            removeClosed();
+            List<Tracked> idle = new ArrayList<Tracked>();
+            for (Tracked tracked : connections.values()) {
+                if (tracked.inUse == 0) {
+                    idle.add(tracked);
+                }
+            }
+            Collections.sort(idle, OLDEST_IDLE_FIRST);
+            long now = System.nanoTime();
+            int idleCount = idle.size();
+            List<Socket> toClose = new ArrayList<Socket>();
+            for (Tracked tracked : idle) {
+                boolean expired = keepAliveNanos > 0 && now - tracked.idleSinceNanos >= keepAliveNanos;
+                //后面的空闲时间更短，也不会过期
+                if (!all && !expired && idleCount <= maxIdle) {
+                    break;
+                }
+                Socket socket = evict(tracked.connection);
+                if (socket != null) {
+                    connections.remove(tracked.connection);
+                    evictedCount++;
+                    idleCount--;
+                    toClose.add(socket);
+                }
+            }
+            return toClose;
+        }
+
+        /**
+         * 设置了保活时间时，在最早的空闲连接过期时再检查一次，需要在锁内调用
+         */
+        private void scheduleSweep() {
+            if (keepAliveNanos <= 0 || sweepScheduled) {
+                return;
+            }
+            long oldestIdle = 0;
+            boolean hasIdle = false;
+            for (Tracked tracked : connections.values()) {
+                if (tracked.inUse == 0 && (!hasIdle || tracked.idleSinceNanos < oldestIdle)) {
+                    oldestIdle = tracked.idleSinceNanos;
+                    hasIdle = true;
+                }
+            }
+            if (!hasIdle) {
+                return;
+            }
+            sweepScheduled = true;
+            long delay = oldestIdle + keepAliveNanos - System.nanoTime();
+            SWEEPER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sweep();
+                }
+            }, Math.max(0, delay), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 某个host在某一时刻的连接统计
+     */
+    public static final class HostSnapshot {
+        private final String host;
+        private final int idle;
+        private final int active;
+        private final long acquired;
+        private final long reused;
+        private final long evicted;
+        private final long closed;
+
+        HostSnapshot(String host, int idle, int active, long acquired, long reused, long evicted, long closed) {
+            this.host = host;
+            this.idle = idle;
+            this.active = active;
+            this.acquired = acquired;
+            this.reused = reused;
+            this.evicted = evicted;
+            this.closed = closed;
+        }
+
+        public String host() {
+            return host;
+        }
+
+        /**
+         * 在连接池中空闲的连接数
+         */
+        public int idle() {
+            return idle;
+        }
+
+        /**
+         * 正在被请求使用的连接数
+         */
+        public int active() {
+            return active;
+        }
+
+        /**
+         * 请求获取连接的次数
+         */
+        public long acquired() {
+            return acquired;
+        }
+
+        /**
+         * 获取到已有连接的次数，HTTP/2多个请求共用一个连接也算复用
+         */
+        public long reused() {
+            return reused;
+        }
+
+        /**
+         * 新建的连接数
+         */
+        public long created() {
+            return acquired - reused;
+        }
+
+        /**
+         * 复用连接的比例，没有请求时为0
+         */
+        public double reuseRatio() {
+            return acquired > 0 ? (double) reused / acquired : 0;
+        }
+
+        /**
+         * 因为超过这个host的maxIdleConnections、保活时间或者prune被关闭的连接数
+         */
+        public long evicted() {
+            return evicted;
+        }
+
+        /**
+         * 被连接池(全局的保活时间和空闲数)关闭或者因为出错、服务器断开而关闭的连接数
+         */
+        public long closed() {
+            return closed;
+        }
+
+        @Override
+        public String toString() {
+            return host + "{idle=" + idle + ", active=" + active + ", acquired=" + acquired
+                    + ", reused=" + reused + ", evicted=" + evicted + ", closed=" + closed + "}";
+        }
+    }
+
+    public static final class Builder {
+        private int maxIdleConnectionsPerHost = Integer.MAX_VALUE;
+        private long keepAliveNanosPerHost;
+        private final Map<String, Integer> maxIdleConnections = new HashMap<String, Integer>();
+        private final Map<String, Long> keepAliveNanos = new HashMap<String, Long>();
+
+        /**
+         * 每个host最多保留的空闲连接数，默认不限制(只受连接池全局的maxIdleConnections限制)
+         */
+        public Builder maxIdleConnectionsPerHost(int maxIdleConnections) {
+            if (maxIdleConnections < 0) throw new IllegalArgumentException("maxIdleConnections < 0");
+            this.maxIdleConnectionsPerHost = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * 单独设置某个host最多保留的空闲连接数，优先于maxIdleConnectionsPerHost
+         */
+        public Builder maxIdleConnections(String host, int maxIdleConnections) {
+            if (host == null) throw new NullPointerException("host == null");
+            if (maxIdleConnections < 0) throw new IllegalArgumentException("maxIdleConnections < 0");
+            this.maxIdleConnections.put(host, maxIdleConnections);
+            return this;
+        }
+
+        /**
+         * 每个host空闲连接的保活时间，默认和连接池相同
+         */
+        public Builder keepAliveDurationPerHost(long duration, TimeUnit unit) {
+            if (duration <= 0) throw new IllegalArgumentException("keepAliveDuration <= 0");
+            this.keepAliveNanosPerHost = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 单独设置某个host空闲连接的保活时间，优先于keepAliveDurationPerHost
+         */
+        public Builder keepAliveDuration(String host, long duration, TimeUnit unit) {
+            if (host == null) throw new NullPointerException("host == null");
+            if (duration <= 0) throw new IllegalArgumentException("keepAliveDuration <= 0");
+            this.keepAliveNanos.put(host, unit.toNanos(duration));
+            return this;
+        }
+
+        public ConnectionPoolMonitor build() {
+            return new ConnectionPoolMonitor(this);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+/**
+ * 统计已发送的字节数并回调进度，可以限制发送速度
+ * <p>
+ * 计数发生在delegate写出的Sink上，回调的是请求体原始的字节数，和contentLength一致。
+ * 请求再经过GzipRequestInterceptor压缩时，真正发送的字节比这里统计的少，进度仍然按压缩前计算；
+ * 限速也按压缩前的字节数，实际占用的带宽更小。请求被重试时会从头再写一次，进度也会从头开始。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: CountingRequestBody.java
+ * @author: myName
+ * @date: 2026-10-18 18:05
+ */
+
+final class CountingRequestBody extends RequestBody {
+
+    //每次最多写入的字节数，限速时按这个粒度等待
+    private static final long WRITE_SIZE = 8192;
+
+    private final RequestBody delegate;
+    private final long baseOffset;
+    private final long total;
+    private final ProgressListener listener;
+    private final BandwidthLimiter limiter;
+
+    /**
+     * @param delegate
+     * @param baseOffset 之前已经发送的字节数，分块上传时是这一块在文件中的偏移
+     * @param total      总字节数，-1表示使用delegate的长度
+     * @param listener   可以为null
+     * @param limiter    可以为null
+     */
+    CountingRequestBody(RequestBody delegate, long baseOffset, long total, ProgressListener listener,
+                        BandwidthLimiter limiter) {
+        this.delegate = delegate;
+        this.baseOffset = baseOffset;
+        this.total = total;
+        this.listener = listener;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        final long contentLength = total != -1 ? total : contentLength();
+        final long start = System.nanoTime();
+        BufferedSink counting = Okio.buffer(new ForwardingSink(sink) {
+            private long written;
+
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                while (byteCount > 0) {
+                    long size = Math.min(byteCount, WRITE_SIZE);
+                    if (limiter != null) {
+                        limiter.acquire(size);
+                    }
+                    super.write(source, size);
+                    byteCount -= size;
+                    written += size;
+                    if (listener != null) {
+                        listener.onProgress(baseOffset + written, contentLength,
+                                FileDownloader.bytesPerSecond(written, start));
+                    }
+                }
+            }
+        });
+        delegate.writeTo(counting);
+        //只flush不close，sink由OkHttp关闭
+        counting.flush();
+    }
+}
@@ -0,0 +1,28 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import okio.BufferedSource;
+
+/**
+ * 把响应体直接从流中解析成对象，不经过中间的String
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: Decoder.java
+ * @author: myName
+ * @date: 2026-10-18 13:05
+ */
+
+public interface Decoder<T> {
+
+    /**
+     * 从source中解析对象，source由调用方关闭。数据格式不对时应抛出IOException
+     *
+     * @param source  响应体的流
+     * @param charset 响应头Content-Type中的编码，没有时为UTF-8
+     * @return
+     * @throws IOException
+     */
+    T decode(BufferedSource source, Charset charset) throws IOException;
+}
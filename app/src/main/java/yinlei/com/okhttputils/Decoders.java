@@ -0,0 +1,124 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * 常用的Decoder
+ * <p>
+ * 解析JSON时继承ReaderDecoder，把Reader交给android.util.JsonReader或者Gson的JsonReader边读边解析，
+ * 响应体不会先整体变成String
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: Decoders.java
+ * @author: myName
+ * @date: 2026-10-18 13:10
+ */
+
+public final class Decoders {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Decoder<String> STRING = new Decoder<String>() {
+        @Override
+        public String decode(BufferedSource source, Charset charset) throws IOException {
+            return source.readString(charset);
+        }
+    };
+
+    private Decoders() {
+    }
+
+    /**
+     * 整体读成字符串，和loadStringFromUrl的结果相同
+     *
+     * @return
+     */
+    public static Decoder<String> string() {
+        return STRING;
+    }
+
+    /**
+     * 基于字符流的Decoder，按响应的编码把字节流转换成Reader
+     */
+    public abstract static class ReaderDecoder<T> implements Decoder<T> {
+
+        @Override
+        public final T decode(BufferedSource source, Charset charset) throws IOException {
+            return decode(new InputStreamReader(source.inputStream(), charset));
+        }
+
+        /**
+         * 从reader中解析对象，reader由调用方关闭
+         *
+         * @param reader
+         * @return
+         * @throws IOException
+         */
+        protected abstract T decode(Reader reader) throws IOException;
+    }
+
+    /**
+     * 用decoder解析响应体并关闭它
+     *
+     * @param body
+     * @param decoder
+     * @param <T>
+     * @return
+     * @throws IOException
+     */
+    static <T> T decode(ResponseBody body, Decoder<T> decoder) throws IOException {
+        try {
+            MediaType contentType = body.contentType();
+            Charset charset = contentType != null ? contentType.charset(UTF_8) : UTF_8;
+            return decoder.decode(body.source(), charset);
+        } catch (RuntimeException e) {
+            //第三方解析库通常抛出运行时异常
+            throw new IOException("decode failed", e);
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * 把ResultCallback包装成OkHttp的Callback，在Dispatcher的线程中解析
+     *
+     * @param decoder
+     * @param callback
+     * @param <T>
+     * @return
+     */
+    static <T> Callback callback(final Decoder<T> decoder, final ResultCallback<T> callback) {
+        return new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                callback.onFailure(call, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                T result;
+                try {
+                    if (!response.isSuccessful()) {
+                        response.close();
+                        throw new IOException("Unexpected code " + response);
+                    }
+                    result = decode(response.body(), decoder);
+                } catch (IOException e) {
+                    callback.onFailure(call, e);
+                    return;
+                }
+                callback.onSuccess(call, result);
+            }
+        };
+    }
+}
@@ -0,0 +1,224 @@
+package yinlei.com.okhttputils;
+
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * 把响应体以流的方式直接写入文件，支持断点续传
+ * <p>
+ * 数据在Okio的Buffer之间以Segment为单位移动，Segment来自Okio的对象池，整个传输过程不会按块分配byte[]。
+ * 续传时使用同目录下的 文件名.etag 记录ETag或Last-Modified，通过Range + If-Range请求剩余部分，
+ * 服务器上的文件已经变化时会返回200，此时从头下载。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: FileDownloader.java
+ * @author: myName
+ * @date: 2026-10-18 10:42
+ */
+
+final class FileDownloader {
+
+    //每次从网络读取的最大字节数，等于Okio Segment的大小
+    private static final long READ_SIZE = 8192;
+
+    //大文件不写入磁盘缓存
+    private static final CacheControl NO_STORE = new CacheControl.Builder().noStore().build();
+
+    private FileDownloader() {
+    }
+
+    /**
+     * 下载到文件，返回文件的总长度
+     *
+     * @param callFactory 根client或者按tag记录请求的包装
+     * @param request
+     * @param file
+     * @param listener 可以为null
+     * @return
+     * @throws IOException
+     */
+    static long download(Call.Factory callFactory, Request request, File file, ProgressListener listener) throws IOException {
+        File validatorFile = new File(file.getPath() + ".etag");
+        long existing = 0;
+        String validator = null;
+        if (file.exists() && file.length() > 0 && validatorFile.exists()) {
+            validator = readValidator(validatorFile);
+            if (validator != null) {
+                existing = file.length();
+            }
+        }
+
+        Request.Builder builder = request.newBuilder().cacheControl(NO_STORE);
+        if (existing > 0) {
+            builder.header("Range", "bytes=" + existing + "-");
+            builder.header("If-Range", validator);
+        }
+        Response response = callFactory.newCall(builder.build()).execute();
+        try {
+            boolean append = false;
+            if (response.code() == 206 && existing > 0) {
+                if (rangeStart(response) != existing) {
+                    //服务器返回的区间和本地文件对不上，删除后从头下载
+                    response.close();
+                    file.delete();
+                    validatorFile.delete();
+                    return download(callFactory, request, file, listener);
+                }
+                append = true;
+            } else if (response.code() == 416 && existing > 0) {
+                if (rangeTotal(response) == existing) {
+                    //本地文件已经完整
+                    validatorFile.delete();
+                    return existing;
+                }
+                //远程文件变短了，继续发送同样的Range永远不会成功，删除后从头下载
+                response.close();
+                file.delete();
+                validatorFile.delete();
+                return download(callFactory, request, file, listener);
+            } else if (!response.isSuccessful()) {
+                throw new IOException("Unexpected code " + response);
+            } else {
+                existing = 0;
+            }
+
+            String newValidator = validatorOf(response);
+            if (newValidator != null) {
+                writeValidator(validatorFile, newValidator);
+            } else {
+                validatorFile.delete();
+            }
+
+            ResponseBody body = response.body();
+            long contentLength = body.contentLength();
+            long total = contentLength == -1 ? -1 : existing + contentLength;
+            long transferred = writeTo(body.source(), file, append, existing, total, listener);
+
+            validatorFile.delete();
+            return existing + transferred;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 把source写入文件，返回本次写入的字节数
+     */
+    static long writeTo(BufferedSource source, File file, boolean append, long existing, long total,
+                        ProgressListener listener) throws IOException {
+        Sink sink = append ? Okio.appendingSink(file) : Okio.sink(file);
+        Buffer buffer = new Buffer();
+        long transferred = 0;
+        long start = System.nanoTime();
+        try {
+            long read;
+            while ((read = source.read(buffer, READ_SIZE)) != -1) {
+                sink.write(buffer, read);
+                transferred += read;
+                if (listener != null) {
+                    listener.onProgress(existing + transferred, total, bytesPerSecond(transferred, start));
+                }
+            }
+            sink.flush();
+        } finally {
+            sink.close();
+        }
+        return transferred;
+    }
+
+    static long bytesPerSecond(long bytes, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? bytes * 1000000000L / elapsed : 0;
+    }
+
+    /**
+     * If-Range只能使用强ETag，否则使用Last-Modified
+     */
+    private static String validatorOf(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    /**
+     * Content-Range: bytes 100-199/200 中的100
+     */
+    private static long rangeStart(Response response) {
+        String contentRange = response.header("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Content-Range中/后面的总长度，例如 bytes 100-199/200 中的200
+     */
+    static long rangeTotal(Response response) {
+        String contentRange = response.header("Content-Range");
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String readValidator(File file) {
+        BufferedSource source = null;
+        try {
+            source = Okio.buffer(Okio.source(file));
+            String validator = source.readUtf8().trim();
+            return validator.length() > 0 ? validator : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(source);
+        }
+    }
+
+    private static void writeValidator(File file, String validator) throws IOException {
+        BufferedSink sink = Okio.buffer(Okio.sink(file));
+        try {
+            sink.writeUtf8(validator);
+        } finally {
+            sink.close();
+        }
+    }
+
+    private static void closeQuietly(BufferedSource source) {
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
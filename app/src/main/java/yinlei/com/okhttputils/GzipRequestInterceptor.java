@@ -0,0 +1,275 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * 压缩请求体的应用拦截器
+ * <p>
+ * 请求体超过minSize字节时用gzip压缩并设置Content-Encoding: gzip，压缩在写往网络的过程中进行，
+ * 不会先把整个请求体压缩到内存里。压缩后长度未知，使用chunked发送。
+ * 图片、音视频、zip等已经压缩过的类型不再压缩；multipart只统计可压缩部分的大小。
+ * 按host+path记录原始字节数、压缩后字节数和压缩耗时，用来判断每个接口是否值得压缩。
+ * 服务器必须支持解压请求体才能开启。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: GzipRequestInterceptor.java
+ * @author: myName
+ * @date: 2026-10-18 18:40
+ */
+
+public class GzipRequestInterceptor implements Interceptor {
+
+    private final long minSize;
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    /**
+     * @param minSize 请求体(可压缩部分)至少有这么多字节才压缩，长度未知时总是压缩
+     */
+    public GzipRequestInterceptor(long minSize) {
+        if (minSize < 0) throw new IllegalArgumentException("minSize < 0");
+        this.minSize = minSize;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+        if (body == null || request.header("Content-Encoding") != null) {
+            return chain.proceed(request);
+        }
+        long compressible = compressibleLength(body);
+        if (compressible == 0 || (compressible != -1 && compressible < minSize)) {
+            skippedCount.incrementAndGet();
+            return chain.proceed(request);
+        }
+        String key = request.url().host() + request.url().encodedPath();
+        Request compressed = request.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(request.method(), new GzipBody(body, endpointOf(key)))
+                .build();
+        return chain.proceed(compressed);
+    }
+
+    /**
+     * 可以压缩的字节数，未知时返回-1，全部都是已压缩的类型时返回0
+     */
+    private static long compressibleLength(RequestBody body) throws IOException {
+        if (body instanceof MultipartBody) {
+            long total = 0;
+            for (MultipartBody.Part part : ((MultipartBody) body).parts()) {
+                RequestBody partBody = part.body();
+                if (isCompressed(partBody.contentType())) {
+                    continue;
+                }
+                long length = partBody.contentLength();
+                if (length == -1) {
+                    return -1;
+                }
+                total += length;
+            }
+            return total;
+        }
+        if (isCompressed(body.contentType())) {
+            return 0;
+        }
+        return body.contentLength();
+    }
+
+    /**
+     * 已经压缩过、再压缩没有收益或者不能改变字节内容的类型
+     */
+    static boolean isCompressed(MediaType contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.type();
+        String subtype = contentType.subtype();
+        if ("image".equals(type) && !"svg+xml".equals(subtype) && !"bmp".equals(subtype)) {
+            return true;
+        }
+        if ("audio".equals(type) || "video".equals(type)) {
+            return true;
+        }
+        if ("application".equals(type)) {
+            //offset+octet-stream是分块上传的数据，服务器按字节偏移处理，不能压缩
+            return "zip".equals(subtype) || "gzip".equals(subtype) || "x-gzip".equals(subtype)
+                    || "x-7z-compressed".equals(subtype) || "x-rar-compressed".equals(subtype)
+                    || "octet-stream".equals(subtype) || "offset+octet-stream".equals(subtype)
+                    || "vnd.android.package-archive".equals(subtype) || "pdf".equals(subtype);
+        }
+        return false;
+    }
+
+    private Endpoint endpointOf(String key) {
+        Endpoint endpoint = endpoints.get(key);
+        if (endpoint == null) {
+            Endpoint created = new Endpoint();
+            endpoint = endpoints.putIfAbsent(key, created);
+            if (endpoint == null) {
+                endpoint = created;
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * 因为太小或者已经压缩过而没有压缩的请求数
+     */
+    public long skippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * 每个接口的压缩统计，key是host+path
+     *
+     * @return
+     */
+    public Map<String, EndpointStats> snapshot() {
+        Map<String, EndpointStats> result = new HashMap<String, EndpointStats>();
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint endpoint = entry.getValue();
+            result.put(entry.getKey(), new EndpointStats(endpoint.requests.get(), endpoint.rawBytes.get(),
+                    endpoint.compressedBytes.get(), endpoint.compressNanos.get()));
+        }
+        return result;
+    }
+
+    private static final class Endpoint {
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong rawBytes = new AtomicLong();
+        final AtomicLong compressedBytes = new AtomicLong();
+        final AtomicLong compressNanos = new AtomicLong();
+    }
+
+    /**
+     * 边写边压缩的请求体，重试时会重新压缩一次
+     */
+    private static final class GzipBody extends RequestBody {
+        private final RequestBody delegate;
+        private final Endpoint endpoint;
+
+        GzipBody(RequestBody delegate, Endpoint endpoint) {
+            this.delegate = delegate;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            //写往网络的时间单独统计，总耗时减去它就是压缩(以及生成原始请求体)的时间
+            final long[] networkNanos = new long[1];
+            final long[] compressed = new long[1];
+            final long[] raw = new long[1];
+            ForwardingSink network = new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    long start = System.nanoTime();
+                    super.write(source, byteCount);
+                    networkNanos[0] += System.nanoTime() - start;
+                    compressed[0] += byteCount;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    //sink由OkHttp关闭，这里只flush
+                    flush();
+                }
+            };
+            ForwardingSink counting = new ForwardingSink(new GzipSink(network)) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    raw[0] += byteCount;
+                    super.write(source, byteCount);
+                }
+            };
+            long start = System.nanoTime();
+            BufferedSink gzipSink = Okio.buffer(counting);
+            delegate.writeTo(gzipSink);
+            //写入gzip的结尾
+            gzipSink.close();
+            long elapsed = System.nanoTime() - start - networkNanos[0];
+
+            endpoint.requests.incrementAndGet();
+            endpoint.rawBytes.addAndGet(raw[0]);
+            endpoint.compressedBytes.addAndGet(compressed[0]);
+            endpoint.compressNanos.addAndGet(Math.max(0, elapsed));
+        }
+    }
+
+    /**
+     * 某个接口的压缩统计
+     */
+    public static final class EndpointStats {
+        private final long requests;
+        private final long rawBytes;
+        private final long compressedBytes;
+        private final long compressNanos;
+
+        EndpointStats(long requests, long rawBytes, long compressedBytes, long compressNanos) {
+            this.requests = requests;
+            this.rawBytes = rawBytes;
+            this.compressedBytes = compressedBytes;
+            this.compressNanos = compressNanos;
+        }
+
+        public long requests() {
+            return requests;
+        }
+
+        public long rawBytes() {
+            return rawBytes;
+        }
+
+        public long compressedBytes() {
+            return compressedBytes;
+        }
+
+        /**
+         * 压缩后大小 / 原始大小，越小越好；没有数据时为1
+         */
+        public double ratio() {
+            return rawBytes == 0 ? 1 : (double) compressedBytes / rawBytes;
+        }
+
+        /**
+         * 压缩花费的总时间，不包括写往网络的时间
+         */
+        public long compressMillis() {
+            return compressNanos / 1000000L;
+        }
+
+        @Override
+        public String toString() {
+            return "{requests=" + requests + ", raw=" + rawBytes + ", compressed=" + compressedBytes
+                    + ", ratio=" + String.format(Locale.US, "%.3f", ratio())
+                    + ", compressMillis=" + compressMillis() + "}";
+        }
+    }
+}
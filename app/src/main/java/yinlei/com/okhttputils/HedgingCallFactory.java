@@ -0,0 +1,365 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Timeout;
+
+/**
+ * 对冲请求(hedged request)
+ * <p>
+ * GET请求超过这个host最近响应时间的p95还没有返回时，再发送一个相同的请求，使用先返回的结果并取消另一个。
+ * 大约只有5%的请求会多发一次，却可以去掉大部分的长尾延迟。样本不足时不发送对冲请求。
+ * 调用方取消时两个请求都会被取消。
+ * 同步执行时第一个请求在调用方线程中执行，只有对冲请求交给Dispatcher；对冲请求先返回时取消第一个请求，调用方线程随之返回。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: HedgingCallFactory.java
+ * @author: myName
+ * @date: 2026-10-18 16:40
+ */
+
+final class HedgingCallFactory implements Call.Factory {
+
+    //少于这个样本数时不对冲
+    private static final int MIN_SAMPLES = 20;
+
+    private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OkHttpUtils Hedging");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Call.Factory delegate;
+    private final long minDelayMillis;
+    private final ConcurrentHashMap<String, LatencyWindow> windows = new ConcurrentHashMap<String, LatencyWindow>();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    /**
+     * @param delegate
+     * @param minDelayMillis p95再小也至少等待这么久才对冲
+     */
+    HedgingCallFactory(Call.Factory delegate, long minDelayMillis) {
+        this.delegate = delegate;
+        this.minDelayMillis = minDelayMillis;
+    }
+
+    @Override
+    public Call newCall(Request request) {
+        if (!"GET".equals(request.method())) {
+            return delegate.newCall(request);
+        }
+        return new HedgedCall(request);
+    }
+
+    /**
+     * 发出的对冲请求数
+     */
+    long hedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * 对冲请求先返回的次数
+     */
+    long hedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    private LatencyWindow windowOf(String host) {
+        LatencyWindow window = windows.get(host);
+        if (window == null) {
+            LatencyWindow created = new LatencyWindow();
+            window = windows.putIfAbsent(host, created);
+            if (window == null) {
+                window = created;
+            }
+        }
+        return window;
+    }
+
+    /**
+     * 最近100次响应时间，每10个新样本重新计算一次p95
+     */
+    private static final class LatencyWindow {
+        private final long[] samples = new long[100];
+        private int count;
+        private int next;
+        private long p95 = -1;
+
+        synchronized void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                count++;
+            }
+            if (count >= MIN_SAMPLES && next % 10 == 0) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                p95 = sorted[(int) Math.ceil(count * 0.95) - 1];
+            }
+        }
+
+        synchronized long p95() {
+            return p95;
+        }
+    }
+
+    private final class HedgedCall implements Call, Callback {
+        private final Request request;
+        private final LatencyWindow window;
+        private Call primary;
+        private Call hedge;
+        private long primaryStart;
+        private long hedgeStart;
+        private ScheduledFuture<?> hedgeTimer;
+        private Callback callback;
+        //第一个失败的结果，另一个请求还在进行时先保存起来
+        private Response pendingResponse;
+        private IOException pendingFailure;
+        private int finishedCount;
+        private boolean delivered;
+        private boolean executed;
+        private volatile boolean canceled;
+        //同步执行时的结果
+        private Response response;
+        private IOException failure;
+
+        HedgedCall(Request request) {
+            this.request = request;
+            this.window = windowOf(request.url().host());
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Response execute() throws IOException {
+            Call first = start(null);
+            if (canceled) {
+                first.cancel();
+            }
+            Response result = null;
+            IOException error = null;
+            try {
+                result = first.execute();
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                cancel();
+                throw e;
+            }
+            finished(first, result, error);
+            return awaitResult();
+        }
+
+        /**
+         * 第一个请求失败时对冲请求可能还在进行，等待它的结果
+         */
+        private Response awaitResult() throws IOException {
+            synchronized (this) {
+                try {
+                    while (!delivered) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    cancel();
+                    throw new InterruptedIOException("interrupted while waiting for " + request.url());
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+        }
+
+        @Override
+        public void enqueue(Callback responseCallback) {
+            Call first = start(responseCallback);
+            first.enqueue(this);
+            if (canceled) {
+                first.cancel();
+            }
+        }
+
+        /**
+         * 创建第一个请求并设置对冲的定时器，返回的请求由调用方执行
+         */
+        private Call start(Callback responseCallback) {
+            Call first;
+            synchronized (this) {
+                if (executed) throw new IllegalStateException("Already Executed");
+                executed = true;
+                callback = responseCallback;
+                primary = delegate.newCall(request);
+                primaryStart = System.nanoTime();
+                first = primary;
+                long p95 = window.p95();
+                if (p95 >= 0) {
+                    hedgeTimer = TIMER.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            startHedge();
+                        }
+                    }, Math.max(p95, minDelayMillis), TimeUnit.MILLISECONDS);
+                }
+            }
+            return first;
+        }
+
+        private void startHedge() {
+            Call second;
+            synchronized (this) {
+                if (delivered || canceled || finishedCount > 0) {
+                    return;
+                }
+                hedge = delegate.newCall(request);
+                hedgeStart = System.nanoTime();
+                second = hedge;
+            }
+            hedgeCount.incrementAndGet();
+            second.enqueue(this);
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            finished(call, null, e);
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            finished(call, response, null);
+        }
+
+        private void finished(Call call, Response result, IOException error) {
+            boolean good = result != null && result.code() < 500;
+            Response deliverResponse;
+            IOException deliverFailure;
+            Callback target;
+            Response discarded;
+            Call loser = null;
+            synchronized (this) {
+                finishedCount++;
+                if (delivered) {
+                    discarded = result;
+                    target = null;
+                    deliverResponse = null;
+                    deliverFailure = null;
+                } else if (!good && hedge != null && finishedCount < 2) {
+                    //另一个请求还在进行，等它的结果
+                    pendingResponse = result;
+                    pendingFailure = error;
+                    return;
+                } else {
+                    if (good || (pendingResponse == null && pendingFailure == null)) {
+                        deliverResponse = result;
+                        deliverFailure = error;
+                        discarded = pendingResponse;
+                    } else {
+                        //两个都失败时使用先返回的那个
+                        deliverResponse = pendingResponse;
+                        deliverFailure = pendingFailure;
+                        discarded = result;
+                    }
+                    pendingResponse = null;
+                    pendingFailure = null;
+                    if (hedgeTimer != null) {
+                        hedgeTimer.cancel(false);
+                    }
+                    if (good) {
+                        boolean hedgeWon = call == hedge;
+                        if (hedgeWon) {
+                            hedgeWinCount.incrementAndGet();
+                        }
+                        long start = hedgeWon ? hedgeStart : primaryStart;
+                        window.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        loser = hedgeWon ? primary : hedge;
+                    }
+                    delivered = true;
+                    response = deliverResponse;
+                    failure = deliverFailure;
+                    notifyAll();
+                    target = callback;
+                }
+            }
+            if (discarded != null) {
+                discarded.close();
+            }
+            if (loser != null) {
+                loser.cancel();
+            }
+            if (target != null) {
+                try {
+                    if (deliverResponse != null) {
+                        target.onResponse(this, deliverResponse);
+                    } else {
+                        target.onFailure(this, deliverFailure);
+                    }
+                } catch (IOException e) {
+                    target.onFailure(this, e);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            Call first;
+            Call second;
+            synchronized (this) {
+                canceled = true;
+                first = primary;
+                second = hedge;
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel(false);
+                }
+            }
+            if (first != null) {
+                first.cancel();
+            }
+            if (second != null) {
+                second.cancel();
+            }
+        }
+
+        @Override
+        public synchronized boolean isExecuted() {
+            return executed;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        /**
+         * 每一次尝试各自受client的callTimeout控制
+         */
+        @Override
+        public Timeout timeout() {
+            return Timeout.NONE;
+        }
+
+        @Override
+        public Call clone() {
+            return new HedgedCall(request);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * 异步请求的结果，可以组合
+ * <p>
+ * thenApply、thenCompose以及监听器默认在完成它的线程中执行(通常是Dispatcher的线程)，不会额外切换线程；
+ * 需要在其他线程执行时通过on(executor)指定，只在那一步切换一次。
+ * cancel()会一直传到底层的Call：取消组合出来的future时，它依赖的请求也会被取消。
+ * 不使用CompletableFuture，它在Android 7.0以下不可用。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: HttpFuture.java
+ * @author: myName
+ * @date: 2026-10-18 19:50
+ */
+
+public class HttpFuture<T> {
+
+    private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OkHttpUtils HttpFuture");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private boolean done;
+    private boolean canceled;
+    private T value;
+    private IOException failure;
+    private List<Listener<? super T>> listeners = new ArrayList<Listener<? super T>>(2);
+    //取消时需要一起取消的请求和上游future
+    private final List<Object> upstream = new ArrayList<Object>(1);
+
+    HttpFuture() {
+    }
+
+    /**
+     * 已经成功的future
+     */
+    public static <T> HttpFuture<T> completed(T value) {
+        HttpFuture<T> future = new HttpFuture<T>();
+        future.succeed(value);
+        return future;
+    }
+
+    /**
+     * 已经失败的future
+     */
+    public static <T> HttpFuture<T> failed(IOException e) {
+        HttpFuture<T> future = new HttpFuture<T>();
+        future.fail(e);
+        return future;
+    }
+
+    /**
+     * 异步执行call，2xx响应用decoder在Dispatcher的线程中解析，非2xx响应作为失败
+     *
+     * @param call
+     * @param decoder
+     * @param <T>
+     * @return
+     */
+    public static <T> HttpFuture<T> enqueue(Call call, final Decoder<T> decoder) {
+        final HttpFuture<T> future = new HttpFuture<T>();
+        future.addUpstream(call);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.fail(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (!response.isSuccessful()) {
+                        response.close();
+                        throw new IOException("Unexpected code " + response);
+                    }
+                    future.succeed(Decoders.decode(response.body(), decoder));
+                } catch (IOException e) {
+                    future.fail(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 所有future都成功时成功，结果的顺序和参数一致；任何一个失败时立即失败并取消其他的
+     *
+     * @param futures
+     * @param <T>
+     * @return
+     */
+    public static <T> HttpFuture<List<T>> allOf(final List<HttpFuture<T>> futures) {
+        final HttpFuture<List<T>> all = new HttpFuture<List<T>>();
+        if (futures.isEmpty()) {
+            all.succeed(new ArrayList<T>());
+            return all;
+        }
+        final Object[] results = new Object[futures.size()];
+        final int[] remaining = {futures.size()};
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+            HttpFuture<T> future = futures.get(i);
+            all.addUpstream(future);
+            future.addListener(new Listener<T>() {
+                @Override
+                public void onSuccess(T result) {
+                    boolean last;
+                    synchronized (results) {
+                        results[index] = result;
+                        last = --remaining[0] == 0;
+                    }
+                    if (last) {
+                        @SuppressWarnings("unchecked")
+                        List<T> list = (List<T>) Arrays.asList(results);
+                        all.succeed(list);
+                    }
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    if (all.fail(e)) {
+                        all.cancelUpstream();
+                    }
+                }
+            });
+        }
+        return all;
+    }
+
+    /**
+     * 成功时用function转换结果，function抛出的异常作为失败
+     *
+     * @param function
+     * @param <R>
+     * @return
+     */
+    public <R> HttpFuture<R> thenApply(final Function<? super T, ? extends R> function) {
+        final HttpFuture<R> next = new HttpFuture<R>();
+        next.addUpstream(this);
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T result) {
+                R mapped;
+                try {
+                    mapped = function.apply(result);
+                } catch (IOException e) {
+                    next.fail(e);
+                    return;
+                } catch (RuntimeException e) {
+                    next.fail(new IOException("thenApply failed", e));
+                    return;
+                }
+                next.succeed(mapped);
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                next.fail(e);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * 成功时用结果发起下一个异步操作，例如依赖上一个请求结果的请求
+     *
+     * @param function
+     * @param <R>
+     * @return
+     */
+    public <R> HttpFuture<R> thenCompose(final Function<? super T, HttpFuture<R>> function) {
+        final HttpFuture<R> next = new HttpFuture<R>();
+        next.addUpstream(this);
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T result) {
+                HttpFuture<R> inner;
+                try {
+                    inner = function.apply(result);
+                } catch (IOException e) {
+                    next.fail(e);
+                    return;
+                } catch (RuntimeException e) {
+                    next.fail(new IOException("thenCompose failed", e));
+                    return;
+                }
+                //next已经被取消时addUpstream会直接取消inner
+                next.addUpstream(inner);
+                inner.addListener(new Listener<R>() {
+                    @Override
+                    public void onSuccess(R result) {
+                        next.succeed(result);
+                    }
+
+                    @Override
+                    public void onFailure(IOException e) {
+                        next.fail(e);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                next.fail(e);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * 超过timeout还没有完成时以InterruptedIOException失败，并取消底层的请求
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public HttpFuture<T> withTimeout(final long timeout, TimeUnit unit) {
+        final HttpFuture<T> next = new HttpFuture<T>();
+        next.addUpstream(this);
+        final ScheduledFuture<?> timer = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (next.fail(new InterruptedIOException("timeout"))) {
+                    next.cancelUpstream();
+                }
+            }
+        }, timeout, unit);
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T result) {
+                timer.cancel(false);
+                next.succeed(result);
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                timer.cancel(false);
+                next.fail(e);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * 返回一个在executor中完成的future，之后的thenApply和监听器都在executor中执行，例如切换到主线程
+     *
+     * @param executor
+     * @return
+     */
+    public HttpFuture<T> on(final Executor executor) {
+        final HttpFuture<T> next = new HttpFuture<T>();
+        next.addUpstream(this);
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(final T result) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        next.succeed(result);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final IOException e) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        next.fail(e);
+                    }
+                });
+            }
+        });
+        return next;
+    }
+
+    /**
+     * 添加监听器，已经完成时立即在当前线程中回调
+     *
+     * @param listener
+     */
+    public void addListener(Listener<? super T> listener) {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        notify(listener);
+    }
+
+    /**
+     * 取消，底层还在进行的请求也会被取消；已经完成时返回false
+     *
+     * @return
+     */
+    public boolean cancel() {
+        if (!fail(new IOException("Canceled"))) {
+            return false;
+        }
+        synchronized (this) {
+            canceled = true;
+        }
+        cancelUpstream();
+        return true;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * 阻塞等待结果，不要在主线程调用
+     *
+     * @return
+     * @throws IOException 请求失败、被取消或者等待时被中断
+     */
+    public synchronized T get() throws IOException {
+        try {
+            while (!done) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for result");
+        }
+        return result();
+    }
+
+    /**
+     * 最多等待timeout，超时时抛出InterruptedIOException，请求不会被取消
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws IOException
+     */
+    public synchronized T get(long timeout, TimeUnit unit) throws IOException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            while (!done) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new InterruptedIOException("timeout");
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for result");
+        }
+        return result();
+    }
+
+    private T result() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        return value;
+    }
+
+    boolean succeed(T result) {
+        List<Listener<? super T>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            value = result;
+            toNotify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        deliver(toNotify);
+        return true;
+    }
+
+    boolean fail(IOException e) {
+        List<Listener<? super T>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            failure = e;
+            toNotify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        deliver(toNotify);
+        return true;
+    }
+
+    /**
+     * 依次回调所有监听器；某个监听器抛出RuntimeException时其余的仍然回调，
+     * 否则依赖它们的future(thenApply、allOf、withTimeout)永远不会完成，全部回调之后再抛出第一个异常
+     */
+    private void deliver(List<Listener<? super T>> toNotify) {
+        RuntimeException first = null;
+        for (Listener<? super T> listener : toNotify) {
+            try {
+                notify(listener);
+            } catch (RuntimeException e) {
+                if (first == null) {
+                    first = e;
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    private void notify(Listener<? super T> listener) {
+        if (failure != null) {
+            listener.onFailure(failure);
+        } else {
+            listener.onSuccess(value);
+        }
+    }
+
+    /**
+     * upstream是Call或者HttpFuture
+     */
+    private void addUpstream(Object call) {
+        boolean cancelNow;
+        synchronized (this) {
+            cancelNow = canceled;
+            if (!cancelNow) {
+                upstream.add(call);
+            }
+        }
+        if (cancelNow) {
+            cancel(call);
+        }
+    }
+
+    private void cancelUpstream() {
+        List<Object> toCancel;
+        synchronized (this) {
+            toCancel = new ArrayList<Object>(upstream);
+            upstream.clear();
+        }
+        for (Object call : toCancel) {
+            cancel(call);
+        }
+    }
+
+    private static void cancel(Object upstream) {
+        if (upstream instanceof Call) {
+            ((Call) upstream).cancel();
+        } else {
+            ((HttpFuture<?>) upstream).cancel();
+        }
+    }
+
+    /**
+     * 转换函数，可以抛出IOException表示失败
+     */
+    public interface Function<T, R> {
+        R apply(T value) throws IOException;
+    }
+
+    /**
+     * 完成时的回调，在完成future的线程中调用
+     */
+    public interface Listener<T> {
+        void onSuccess(T result);
+
+        void onFailure(IOException e);
+    }
+}
@@ -0,0 +1,169 @@
+package yinlei.com.okhttputils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 记录耗时分布的直方图，单位微秒
+ * <p>
+ * 类似HdrHistogram的对数线性分桶：小于32微秒每个值一个桶，之后每个2的幂区间再平均分成16个桶，
+ * 相对误差不超过1/16，最大约25天，总共608个桶。记录只做几次原子加法，不分配对象，可以一直开着。
+ * 读取时通过snapshot()复制一份，复制期间仍在记录的数据可能只有一部分进入快照。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: LatencyHistogram.java
+ * @author: myName
+ * @date: 2026-10-18 17:10
+ */
+
+public final class LatencyHistogram {
+
+    //小于这个值时每个值一个桶
+    private static final int LINEAR_LIMIT = 32;
+    //32 = 2^5
+    private static final int LINEAR_BITS = 5;
+    //每个2的幂区间的桶数 = 2^4
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    //大于等于2^41微秒的值记到最后一个桶
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_EXPONENT - LINEAR_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个值，小于0时按0记录
+     *
+     * @param micros
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts.incrementAndGet(indexOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get())) {
+            if (max.compareAndSet(current, micros)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 记录纳秒，内部换算成微秒
+     *
+     * @param nanos
+     */
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.get(), max.get());
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return LINEAR_LIMIT + (exponent - LINEAR_BITS) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * 桶内的最大值
+     */
+    static long upperBoundOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + LINEAR_BITS;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKET_COUNT + subBucket) * width + width - 1;
+    }
+
+    /**
+     * 某一时刻的直方图，不可修改
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        /**
+         * 平均值，微秒；没有数据时为0
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 最大值，微秒
+         */
+        public long max() {
+            return max;
+        }
+
+        /**
+         * 百分位数，微秒，返回所在桶的上限(不超过max)；没有数据时为0
+         *
+         * @param percentile 0到100之间，例如99.9
+         * @return
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be in [0, 100]: " + percentile);
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", mean=" + (long) mean() + "us, p50=" + percentile(50)
+                    + "us, p90=" + percentile(90) + "us, p99=" + percentile(99) + "us, max=" + max + "us}";
+        }
+    }
+}
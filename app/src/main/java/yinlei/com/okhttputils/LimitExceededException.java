@@ -0,0 +1,34 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+
+/**
+ * host正在执行的请求数达到了AdaptiveLimiter当前的上限，请求没有发出
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: LimitExceededException.java
+ * @author: myName
+ * @date: 2026-10-19 01:10
+ */
+
+public class LimitExceededException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+    private final int limit;
+
+    public LimitExceededException(String host, int limit) {
+        super("concurrency limit " + limit + " reached for " + host);
+        this.host = host;
+        this.limit = limit;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int limit() {
+        return limit;
+    }
+}
@@ -0,0 +1,434 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * 磁盘缓存前面的内存缓存，按字节数限制大小，LRU淘汰
+ * <p>
+ * 只缓存200的GET响应，并且响应头带有max-age、没有no-store/no-cache。
+ * key中包含Accept、Accept-Encoding、Accept-Language和Authorization，Vary列出其他请求头(包括*)的响应不缓存。
+ * 新鲜期限和OkHttp的CacheStrategy一样从响应的年龄算起(Date、Age和收到响应的时间)，
+ * 磁盘缓存返回的旧响应放入内存时不会重新获得完整的max-age。
+ * 过期后在stale-while-revalidate的时间内先返回旧数据，同时在后台重新请求一次。
+ * 请求上的max-age、min-fresh、max-stale和no-cache(见CachePolicy)和磁盘缓存一样生效。
+ * 缓存分成若干段，每一段有自己的锁和容量，不同url的读写不会互相等待；单个响应不能超过一段的容量。
+ * 需要作为第一个应用拦截器添加，命中时不会经过磁盘缓存。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: MemoryCacheInterceptor.java
+ * @author: myName
+ * @date: 2026-10-18 15:20
+ */
+
+public class MemoryCacheInterceptor implements Interceptor {
+
+    private static final int STRIPE_COUNT = 16;
+
+    //后台重新验证的请求带这个tag，直接访问网络
+    private static final Object REVALIDATE = new Object();
+
+    //keyOf中已经包含的请求头，小写；Cookie由CookieJar在之后加上，这里看不到，不能算在内
+    private static final Set<String> KEYED_HEADERS = new HashSet<String>(Arrays.asList(
+            "accept", "accept-encoding", "accept-language", "authorization"));
+
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+    private final long maxSize;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxSize 缓存的最大字节数
+     */
+    public MemoryCacheInterceptor(long maxSize) {
+        if (maxSize < STRIPE_COUNT) throw new IllegalArgumentException("maxSize < " + STRIPE_COUNT);
+        this.maxSize = maxSize;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe(maxSize / STRIPE_COUNT);
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!"GET".equals(request.method())) {
+            //修改了资源的请求让对应的GET缓存失效
+            if (!"HEAD".equals(request.method())) {
+                remove(keyOf(request.newBuilder().get().build()));
+            }
+            return chain.proceed(request);
+        }
+        CacheControl requestCacheControl = request.cacheControl();
+        if (requestCacheControl.noStore() || request.header("Range") != null) {
+            return chain.proceed(request);
+        }
+
+        String key = keyOf(request);
+        if (request.tag() != REVALIDATE && !requestCacheControl.noCache()) {
+            Entry entry = stripeOf(key).get(key);
+            if (entry != null) {
+                long now = System.currentTimeMillis();
+                if (now < freshUntil(entry, requestCacheControl)) {
+                    hitCount.incrementAndGet();
+                    return entry.response(request);
+                }
+                if (requestCacheControl.maxStaleSeconds() != -1
+                        && now < entry.freshUntil + requestCacheControl.maxStaleSeconds() * 1000L) {
+                    //调用方接受的过期数据，不需要重新验证
+                    hitCount.incrementAndGet();
+                    return entry.response(request);
+                }
+                if (now < entry.staleUntil && requestCacheControl.maxAgeSeconds() == -1
+                        && requestCacheControl.minFreshSeconds() == -1) {
+                    staleHitCount.incrementAndGet();
+                    revalidate(request, entry);
+                    return entry.response(request);
+                }
+                if (now >= entry.staleUntil) {
+                    stripeOf(key).remove(key);
+                }
+            }
+            missCount.incrementAndGet();
+        }
+
+        Response response = chain.proceed(request);
+        return store(key, response);
+    }
+
+    /**
+     * 缓存的key，缓存策略不影响缓存的内容，同一个url不同Cache-Control的请求共用一条
+     */
+    private static String keyOf(Request request) {
+        if (request.header("Cache-Control") != null) {
+            request = request.newBuilder().removeHeader("Cache-Control").build();
+        }
+        return RequestCoalescer.keyOf(request);
+    }
+
+    /**
+     * 按请求的max-age和min-fresh收紧之后的新鲜期限
+     */
+    private static long freshUntil(Entry entry, CacheControl requestCacheControl) {
+        long freshUntil = entry.freshUntil;
+        if (requestCacheControl.maxAgeSeconds() != -1) {
+            freshUntil = Math.min(freshUntil, entry.storedAt + requestCacheControl.maxAgeSeconds() * 1000L);
+        }
+        if (requestCacheControl.minFreshSeconds() != -1) {
+            freshUntil -= requestCacheControl.minFreshSeconds() * 1000L;
+        }
+        return freshUntil;
+    }
+
+    /**
+     * 满足条件时把响应体读入内存并缓存，返回一个可以正常读取的Response
+     */
+    private Response store(String key, Response response) throws IOException {
+        if (response.code() != 200) {
+            return response;
+        }
+        CacheControl cacheControl = response.cacheControl();
+        if (cacheControl.noStore() || cacheControl.noCache() || cacheControl.maxAgeSeconds() <= 0) {
+            return response;
+        }
+        if (!varyCoveredByKey(response)) {
+            return response;
+        }
+        long now = System.currentTimeMillis();
+        //响应在服务器生成的时间，请求上的max-age也从这里算起
+        long bornAt = now - ageMillis(response, now);
+        long freshUntil = bornAt + cacheControl.maxAgeSeconds() * 1000L;
+        long staleUntil = freshUntil + staleWhileRevalidateSeconds(response) * 1000L;
+        if (staleUntil <= now) {
+            return response;
+        }
+        Stripe stripe = stripeOf(key);
+        ResponseBody body = response.body();
+        long contentLength = body.contentLength();
+        if (contentLength > stripe.maxSize) {
+            return response;
+        }
+        BufferedSource source = body.source();
+        //request(n)只把数据读入source自己的缓冲区，超出上限时调用方仍然可以完整读取
+        if (source.request(stripe.maxSize + 1)) {
+            return response;
+        }
+        Buffer data = source.buffer().clone();
+
+        //命中时作为cacheResponse返回，和磁盘缓存命中一样没有networkResponse
+        Response template = response.newBuilder()
+                .body(null)
+                .networkResponse(null)
+                .cacheResponse(null)
+                .priorResponse(null)
+                .build();
+        stripe.put(key, new Entry(template, body.contentType(), data, bornAt, freshUntil, staleUntil));
+        return response;
+    }
+
+    /**
+     * 响应现在的年龄，和OkHttp的CacheStrategy相同(RFC 7234 4.2.3)：
+     * 收到时的年龄(Date和Age中较大的) + 请求耗时 + 收到之后经过的时间
+     */
+    private static long ageMillis(Response response, long now) {
+        long sentMillis = response.sentRequestAtMillis();
+        long receivedMillis = response.receivedResponseAtMillis();
+        if (receivedMillis == 0) {
+            //不是从网络或磁盘缓存得到的响应
+            receivedMillis = now;
+            sentMillis = now;
+        }
+        long receivedAge = 0;
+        Date servedDate = response.headers().getDate("Date");
+        if (servedDate != null) {
+            receivedAge = Math.max(0, receivedMillis - servedDate.getTime());
+        }
+        String age = response.header("Age");
+        if (age != null) {
+            try {
+                receivedAge = Math.max(receivedAge, Long.parseLong(age.trim()) * 1000L);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        long responseDuration = Math.max(0, receivedMillis - sentMillis);
+        long residentDuration = Math.max(0, now - receivedMillis);
+        return receivedAge + responseDuration + residentDuration;
+    }
+
+    /**
+     * Vary列出的请求头都已经在key中时返回true，没有Vary时也返回true
+     */
+    private static boolean varyCoveredByKey(Response response) {
+        for (String value : response.headers("Vary")) {
+            for (String name : value.split(",")) {
+                name = name.trim().toLowerCase(Locale.US);
+                //包括Vary: *
+                if (name.length() > 0 && !KEYED_HEADERS.contains(name)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void revalidate(Request request, final Entry entry) {
+        if (!entry.revalidating.compareAndSet(false, true)) {
+            return;
+        }
+        //按响应头的规则重新验证，不带调用方的缓存策略
+        Request revalidation = request.newBuilder()
+                .removeHeader("Cache-Control")
+                .tag(REVALIDATE)
+                .build();
+        OkHttpClientUtils.getOkHttpClientSingleInstance().newCall(revalidation).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                //失败时保留旧数据，下次过期访问再试
+                entry.revalidating.set(false);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                //intercept中已经把新数据放入缓存，这里只需要读完响应体
+                try {
+                    BufferedSource source = response.body().source();
+                    Buffer discard = new Buffer();
+                    while (source.read(discard, 8192) != -1) {
+                        discard.clear();
+                    }
+                } finally {
+                    response.close();
+                    entry.revalidating.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cache-Control中的stale-while-revalidate=秒数，CacheControl类不解析这个扩展
+     */
+    static long staleWhileRevalidateSeconds(Response response) {
+        for (String value : response.headers("Cache-Control")) {
+            int index = value.indexOf("stale-while-revalidate=");
+            if (index == -1) {
+                continue;
+            }
+            int start = index + "stale-while-revalidate=".length();
+            int end = start;
+            while (end < value.length() && Character.isDigit(value.charAt(end))) {
+                end++;
+            }
+            try {
+                return Long.parseLong(value.substring(start, end));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private Stripe stripeOf(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[(hash & 0x7fffffff) % STRIPE_COUNT];
+    }
+
+    private void remove(String key) {
+        stripeOf(key).remove(key);
+    }
+
+    /**
+     * 清空内存缓存
+     */
+    public void evictAll() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * 在stale-while-revalidate时间内返回旧数据的次数
+     */
+    public long staleHitCount() {
+        return staleHitCount.get();
+    }
+
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 因为容量不够被淘汰的条目数
+     */
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 当前缓存的字节数
+     */
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long maxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryCache{size=" + size() + "/" + maxSize + ", hits=" + hitCount + ", staleHits=" + staleHitCount
+                + ", misses=" + missCount + ", evictions=" + evictionCount + "}";
+    }
+
+    private static final class Entry {
+        final Response template;
+        final MediaType contentType;
+        final Buffer data;
+        //响应在服务器生成的时间
+        final long storedAt;
+        final long freshUntil;
+        final long staleUntil;
+        final AtomicBoolean revalidating = new AtomicBoolean();
+
+        Entry(Response template, MediaType contentType, Buffer data, long storedAt, long freshUntil, long staleUntil) {
+            this.template = template;
+            this.contentType = contentType;
+            this.data = data;
+            this.storedAt = storedAt;
+            this.freshUntil = freshUntil;
+            this.staleUntil = staleUntil;
+        }
+
+        Response response(Request request) {
+            Buffer copy;
+            //clone会修改data内部Segment的shared标记，需要和其他线程的clone互斥
+            synchronized (data) {
+                copy = data.clone();
+            }
+            return template.newBuilder()
+                    .request(request)
+                    .cacheResponse(template)
+                    .body(ResponseBody.create(contentType, copy.size(), copy))
+                    .build();
+        }
+    }
+
+    /**
+     * 一段LRU，访问顺序的LinkedHashMap加上自己的锁
+     */
+    private final class Stripe {
+        final long maxSize;
+        private final LinkedHashMap<String, Entry> map = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        private long size;
+
+        Stripe(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized Entry get(String key) {
+            return map.get(key);
+        }
+
+        synchronized void put(String key, Entry entry) {
+            Entry previous = map.put(key, entry);
+            if (previous != null) {
+                size -= previous.data.size();
+            }
+            size += entry.data.size();
+            Iterator<Map.Entry<String, Entry>> iterator = map.entrySet().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                Map.Entry<String, Entry> eldest = iterator.next();
+                size -= eldest.getValue().data.size();
+                iterator.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+
+        synchronized void remove(String key) {
+            Entry previous = map.remove(key);
+            if (previous != null) {
+                size -= previous.data.size();
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            size = 0;
+        }
+
+        synchronized long size() {
+            return size;
+        }
+    }
+}
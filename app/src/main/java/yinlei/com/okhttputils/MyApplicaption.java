@@ -2,8 +2,6 @@ package yinlei.com.okhttputils;
 
 import android.app.Application;
 
-import okhttp3.OkHttpClient;
-
 /**
  * 在此写用途
  *
@@ -28,7 +26,10 @@ public class MyApplicaption extends Application{
 
     private void initOkHttpUtils() {
 
-        OkHttpClient okHttpClient = OkHttpClientUtils.getOkHttpClientSingleInstance();
+        //使用带磁盘缓存和超时配置的client，在后台线程中创建，不占用启动时间
+        OkHttpClientUtils.initAsync(new OkHttpClientUtils.Config.Builder()
+                .cacheDir(this)
+                .build());
 
     }
 }
@@ -1,25 +1,32 @@
 package yinlei.com.okhttputils;
 
 import android.content.Context;
-import android.content.DialogInterface;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.CookieHandler;
 import java.net.FileNameMap;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.SSLSession;
 
 import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.ConnectionPool;
 import okhttp3.CookieJar;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
+import okhttp3.EventListener;
 import okhttp3.FormBody;
 import okhttp3.Headers;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
@@ -27,6 +34,8 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
 
 /**
  * 在此写用途
@@ -39,54 +48,834 @@ import okhttp3.ResponseBody;
 
 public class OkHttpClientUtils {
 
-    private static OkHttpClient sOkHttpClient = null;
-    private static OkHttpClientUtils mHttpClientUtils = null;
+    //进程内唯一的根client，持有连接池、Dispatcher和缓存，OkHttpUtils也使用它
+    private static volatile OkHttpClient sOkHttpClient = null;
+    private static volatile OkHttpClientUtils mHttpClientUtils = null;
+    private static CacheStatsInterceptor sCacheStats = null;
+    private static MemoryCacheInterceptor sMemoryCache = null;
+    private static CallMetrics sCallMetrics = null;
+    private static GzipRequestInterceptor sGzipRequestInterceptor = null;
+    private static volatile RequestCoalescer sRequestCoalescer = null;
+    private static volatile HedgingCallFactory sHedgingCallFactory = null;
+    private static volatile Call.Factory sBufferedCallFactory = null;
+    //根client，开启优先级调度时是调度器的包装
+    private static volatile Call.Factory sRootCallFactory = null;
+    private static PriorityScheduler sScheduler = null;
+    private static CachingDns sCachingDns = null;
+    private static Outbox sOutbox = null;
+    //没有单独设置ResponseSizeLimit的缓冲请求使用的上限
+    private static volatile long sMaxResponseSize = Long.MAX_VALUE;
+    private static volatile StreamReleaser sStreamReleaser = null;
+    private static CircuitBreaker sCircuitBreaker = null;
+    private static AdaptiveLimiter sAdaptiveLimiter = null;
+    private static ConnectionPoolMonitor sConnectionPoolMonitor = null;
+    //initAsync传入的配置，后台初始化完成之前其他线程用它同步初始化
+    private static volatile Config sPendingConfig = null;
+    private static final TagCallTracker sTagCallTracker = new TagCallTracker();
+    //批量提交默认的并发数
+    private static final int DEFAULT_BATCH_CONCURRENCY = 8;
 
-    private OkHttpClientUtils(Context context) {
-        sOkHttpClient = getOkHttpClientSingleInstance();
+    //设置了tag的请求都经过这里创建，用于按tag取消和限制并发
+    private static final Call.Factory CALL_FACTORY = new Call.Factory() {
+        @Override
+        public Call newCall(Request request) {
+            getOkHttpClientSingleInstance();
+            return sTagCallTracker.newCall(sRootCallFactory, request);
+        }
+    };
 
-        CookieJar cookieJar= CookieJar.NO_COOKIES;
-        sOkHttpClient = new OkHttpClient.Builder().cookieJar(cookieJar).build();
+    //获取字符串、字节数组和对象的GET请求，响应体会整体读入内存，可以合并相同请求和对冲
+    private static final Call.Factory BUFFERED_CALL_FACTORY = new Call.Factory() {
+        @Override
+        public Call newCall(Request request) {
+            getOkHttpClientSingleInstance();
+            return sTagCallTracker.newCall(sBufferedCallFactory, withDefaultSizeLimit(request));
+        }
+    };
 
-        //开启响应缓存
-        int cacheSize = 10 << 20;   //10MB
-        Cache cache = new Cache(context.getCacheDir(), cacheSize);
-        sOkHttpClient.newBuilder().cache(cache);
+    private OkHttpClientUtils(Config config) {
+        //Builder上的设置必须在同一个Builder上链式调用并build，newBuilder()返回的是新对象
+        OkHttpClient.Builder builder = config.newClientBuilder();
+        if (config.collectCallMetrics) {
+            //第一个拦截器，记录请求开始执行的时间
+            sCallMetrics = new CallMetrics();
+            builder.addInterceptor(sCallMetrics);
+        }
+        sConnectionPoolMonitor = config.connectionPoolMonitor;
+        EventListener.Factory eventListenerFactory = CompositeEventListener.factory(sCallMetrics, sConnectionPoolMonitor);
+        if (eventListenerFactory != null) {
+            builder.eventListenerFactory(eventListenerFactory);
+        }
+        //在内存缓存和磁盘缓存之外，限制的是最终交给调用方的(解压后的)字节数
+        builder.addInterceptor(new ResponseSizeInterceptor());
+        sMaxResponseSize = config.maxResponseSize;
+        sStreamReleaser = new StreamReleaser(config.streamIdleTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (config.memoryCacheSize > 0) {
+            //内存缓存必须在其他拦截器之前，命中时不经过磁盘缓存
+            sMemoryCache = new MemoryCacheInterceptor(config.memoryCacheSize);
+            builder.addInterceptor(sMemoryCache);
+        }
+        sCacheStats = new CacheStatsInterceptor();
+        builder.addInterceptor(sCacheStats);
+        if (config.circuitBreaker != null) {
+            //在内存缓存之后、磁盘缓存之前，打开时改为只读磁盘缓存；在重试之前，打开时不会重试
+            sCircuitBreaker = config.circuitBreaker;
+            builder.addInterceptor(sCircuitBreaker);
+        }
+        if (config.retryInterceptor != null) {
+            builder.addInterceptor(config.retryInterceptor);
+        }
+        if (config.gzipRequestMinSize >= 0) {
+            //在重试之后，每次重试重新压缩
+            sGzipRequestInterceptor = new GzipRequestInterceptor(config.gzipRequestMinSize);
+            builder.addInterceptor(sGzipRequestInterceptor);
+        }
+        if (config.adaptiveLimiter != null) {
+            //最后一个应用拦截器，每次重试单独占用名额、单独测量RTT
+            sAdaptiveLimiter = config.adaptiveLimiter;
+            builder.addInterceptor(sAdaptiveLimiter);
+        }
+        sOutbox = config.outbox;
+        if (config.dns instanceof CachingDns) {
+            sCachingDns = (CachingDns) config.dns;
+        }
+        final OkHttpClient client = builder.build();
 
-        //设置合理的超时
-        sOkHttpClient.newBuilder().connectTimeout(15, TimeUnit.SECONDS);
-        sOkHttpClient.newBuilder().readTimeout(20, TimeUnit.SECONDS);
-        sOkHttpClient.newBuilder().writeTimeout(20, TimeUnit.SECONDS);
+        Call.Factory rootCallFactory = client;
+        if (config.scheduler != null) {
+            sScheduler = config.scheduler;
+            sScheduler.adaptiveLimiter(config.adaptiveLimiter);
+            rootCallFactory = new Call.Factory() {
+                @Override
+                public Call newCall(Request request) {
+                    return sScheduler.newCall(client, request);
+                }
+            };
+        }
+        sRootCallFactory = rootCallFactory;
 
-        sOkHttpClient.newBuilder().hostnameVerifier(new HostnameVerifier() {
-            @Override
-            public boolean verify(String s, SSLSession sslSession) {
-                return true;
-            }
-        });
+        Call.Factory bufferedCallFactory = rootCallFactory;
+        if (config.hedgeGetRequests) {
+            sHedgingCallFactory = new HedgingCallFactory(bufferedCallFactory, config.hedgeMinDelayMillis);
+            bufferedCallFactory = sHedgingCallFactory;
+        }
+        if (config.coalesceGetRequests) {
+            sRequestCoalescer = new RequestCoalescer(bufferedCallFactory, client.dispatcher().executorService());
+            bufferedCallFactory = sRequestCoalescer;
+        }
+        sBufferedCallFactory = bufferedCallFactory;
+        sOkHttpClient = client;
 
+        if (!config.warmUpUrls.isEmpty()) {
+            warmUp(client, config.warmUpUrls);
+        }
     }
 
     public static OkHttpClientUtils getOkkHttpClientUtils(Context context) {
+        if (mHttpClientUtils == null) {
+            Config pending = sPendingConfig;
+            //开启响应缓存 10MB，设置合理的超时
+            init(pending != null ? pending : new Config.Builder()
+                    .cacheDir(context)
+                    .build());
+        }
+        return mHttpClientUtils;
+    }
+
+    /**
+     * 在后台线程中初始化根client，适合在Application.onCreate中调用，不占用启动时间；
+     * 创建client、缓存目录和加载SSL证书都在后台线程中进行。
+     * 初始化完成之前发出的请求会等待它完成(或者在当前线程用同一个配置初始化)，不会使用默认配置
+     *
+     * @param config
+     */
+    public static void initAsync(final Config config) {
+        if (config == null) throw new NullPointerException("config == null");
+        if (mHttpClientUtils != null) {
+            return;
+        }
+        sPendingConfig = config;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                init(config);
+            }
+        }, "OkHttpUtils Init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 使用自定义配置初始化根client，只有第一次调用生效，应在Application.onCreate中最先调用
+     *
+     * @param config
+     * @return
+     */
+    public static OkHttpClientUtils init(Config config) {
         if (mHttpClientUtils == null) {
             synchronized (OkHttpClientUtils.class) {
                 if (mHttpClientUtils == null) {
-                    mHttpClientUtils = new OkHttpClientUtils(context);
+                    mHttpClientUtils = new OkHttpClientUtils(config);
                 }
             }
         }
         return mHttpClientUtils;
     }
 
+    /**
+     * 获取根client，没有初始化时使用默认配置(不带磁盘缓存)初始化
+     *
+     * @return
+     */
     public static OkHttpClient getOkHttpClientSingleInstance() {
         if (sOkHttpClient == null) {
-            synchronized (OkHttpClient.Builder.class) {
-                if (sOkHttpClient == null) {
-                    sOkHttpClient = new OkHttpClient();
+            init(defaultConfig());
+        }
+        return sOkHttpClient;
+    }
+
+    /**
+     * 没有显式初始化时使用的配置：initAsync传入的配置，或者默认配置(不带磁盘缓存)
+     */
+    private static Config defaultConfig() {
+        Config pending = sPendingConfig;
+        return pending != null ? pending : new Config.Builder().build();
+    }
+
+    /**
+     * 预热连接：对每个url发送一个HEAD请求，完成DNS解析、TCP连接和TLS握手，连接留在连接池中，
+     * 之后同一个host的请求直接复用，保活时间内(keepAliveDuration，默认5分钟)有效。
+     * 异步执行，不关心响应的状态码；服务器会收到这些HEAD请求
+     *
+     * @param urls
+     */
+    public static void warmUp(String... urls) {
+        List<HttpUrl> parsed = new ArrayList<HttpUrl>(urls.length);
+        for (String url : urls) {
+            parsed.add(parseWarmUpUrl(url));
+        }
+        warmUp(getOkHttpClientSingleInstance(), parsed);
+    }
+
+    private static void warmUp(OkHttpClient client, List<HttpUrl> urls) {
+        //同一个host只需要一个连接
+        List<String> hosts = new ArrayList<String>();
+        for (HttpUrl url : urls) {
+            String key = url.scheme() + "://" + url.host() + ":" + url.port();
+            if (hosts.contains(key)) {
+                continue;
+            }
+            hosts.add(key);
+            Request request = new Request.Builder()
+                    .url(url)
+                    .head()
+                    .cacheControl(CacheControl.FORCE_NETWORK)
+                    .build();
+            client.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    //预热失败不影响之后的请求
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
                 }
+            });
+        }
+    }
+
+    private static HttpUrl parseWarmUpUrl(String url) {
+        HttpUrl parsed = HttpUrl.parse(url);
+        if (parsed == null) throw new IllegalArgumentException("invalid warm-up url: " + url);
+        return parsed;
+    }
+
+    /**
+     * 从根client派生新的Builder，用于单独设置超时等参数，派生的client和根client共用连接池、Dispatcher和缓存
+     *
+     * @return
+     */
+    public static OkHttpClient.Builder newBuilder() {
+        return getOkHttpClientSingleInstance().newBuilder();
+    }
+
+    static Call.Factory callFactory() {
+        return CALL_FACTORY;
+    }
+
+    static Call.Factory bufferedCallFactory() {
+        return BUFFERED_CALL_FACTORY;
+    }
+
+    /**
+     * 请求上没有ResponseSizeLimit时加上全局默认的上限
+     */
+    static Request withDefaultSizeLimit(Request request) {
+        if (request.tag(ResponseSizeLimit.class) != null || sMaxResponseSize == Long.MAX_VALUE) {
+            return request;
+        }
+        return request.newBuilder()
+                .tag(ResponseSizeLimit.class, ResponseSizeLimit.of(sMaxResponseSize))
+                .build();
+    }
+
+    /**
+     * 批量提交使用的client，有自己的Dispatcher限制并发数，不占用根client的名额；
+     * 共用连接池和线程池，HTTP/2时所有请求在同一个连接上多路复用
+     *
+     * @param maxConcurrency
+     * @return
+     */
+    static Call.Factory batchCallFactory(int maxConcurrency) {
+        if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency < 1");
+        OkHttpClient root = getOkHttpClientSingleInstance();
+        Dispatcher dispatcher = new Dispatcher(root.dispatcher().executorService());
+        dispatcher.setMaxRequests(maxConcurrency);
+        dispatcher.setMaxRequestsPerHost(maxConcurrency);
+        final OkHttpClient client = root.newBuilder().dispatcher(dispatcher).build();
+        return new Call.Factory() {
+            @Override
+            public Call newCall(Request request) {
+                return sTagCallTracker.newCall(client, request);
+            }
+        };
+    }
+
+    private static OkHttpClientUtils instance() {
+        OkHttpClientUtils utils = mHttpClientUtils;
+        return utils != null ? utils : init(defaultConfig());
+    }
+
+    /**
+     * 取消tag下等待中和执行中的请求，例如页面销毁时取消它发出的请求
+     *
+     * @param tag
+     */
+    public static void cancelByTag(Object tag) {
+        if (tag != null) {
+            sTagCallTracker.cancel(tag);
+        }
+    }
+
+    /**
+     * 限制同一个tag同时执行的请求数，超出的异步请求排队等待，不占用Dispatcher的名额；
+     * 小于等于0表示取消限制
+     *
+     * @param tag
+     * @param maxConcurrentCalls
+     */
+    public static void setMaxConcurrentCallsPerTag(Object tag, int maxConcurrentCalls) {
+        if (tag == null) throw new NullPointerException("tag == null");
+        sTagCallTracker.setMaxConcurrency(tag, maxConcurrentCalls);
+    }
+
+    /**
+     * 因为和进行中的相同请求合并而没有单独发出的请求数，没有开启合并时为0
+     *
+     * @return
+     */
+    public static long getCoalescedRequestCount() {
+        RequestCoalescer coalescer = sRequestCoalescer;
+        return coalescer != null ? coalescer.coalescedCount() : 0;
+    }
+
+    /**
+     * 发出的对冲请求数，没有开启对冲时为0
+     *
+     * @return
+     */
+    public static long getHedgedRequestCount() {
+        HedgingCallFactory hedging = sHedgingCallFactory;
+        return hedging != null ? hedging.hedgeCount() : 0;
+    }
+
+    /**
+     * 获取内存缓存及其命中统计，没有开启时返回null
+     *
+     * @return
+     */
+    public static MemoryCacheInterceptor getMemoryCache() {
+        return sMemoryCache;
+    }
+
+    /**
+     * 获取优先级调度器，可以查看每个优先级的排队统计、调整并发上限；没有开启时返回null
+     *
+     * @return
+     */
+    public static PriorityScheduler getScheduler() {
+        return sScheduler;
+    }
+
+    /**
+     * 获取每个host的耗时分布、流量和连接复用统计，没有开启时返回null
+     *
+     * @return
+     */
+    public static CallMetrics getCallMetrics() {
+        return sCallMetrics;
+    }
+
+    /**
+     * 获取loadInputStreamFromUrl返回的流的释放统计，reclaimedCount是调用方没有关闭、超时回收的个数
+     *
+     * @return
+     */
+    public static StreamReleaser getStreamReleaser() {
+        getOkHttpClientSingleInstance();
+        return sStreamReleaser;
+    }
+
+    /**
+     * 获取按host熔断的状态和计数，没有开启时返回null
+     *
+     * @return
+     */
+    public static CircuitBreaker getCircuitBreaker() {
+        return sCircuitBreaker;
+    }
+
+    /**
+     * 获取每个host自适应的并发上限，没有开启时返回null
+     *
+     * @return
+     */
+    public static AdaptiveLimiter getAdaptiveLimiter() {
+        return sAdaptiveLimiter;
+    }
+
+    /**
+     * 获取每个host的空闲和使用中的连接数、复用比例和回收次数，也可以用它清理空闲连接；没有开启时返回null
+     *
+     * @return
+     */
+    public static ConnectionPoolMonitor getConnectionPoolMonitor() {
+        return sConnectionPoolMonitor;
+    }
+
+    /**
+     * 获取每个接口请求体压缩的比例和耗时，没有开启时返回null
+     *
+     * @return
+     */
+    public static GzipRequestInterceptor getGzipRequestInterceptor() {
+        return sGzipRequestInterceptor;
+    }
+
+    /**
+     * 获取带缓存的域名解析，可以预解析host、查看命中率；配置了其他Dns时返回null
+     *
+     * @return
+     */
+    public static CachingDns getCachingDns() {
+        return sCachingDns;
+    }
+
+    /**
+     * 在后台提前解析即将访问的host，例如应用启动时；没有使用CachingDns时不做任何事
+     *
+     * @param hostnames
+     */
+    public static void prefetchDns(String... hostnames) {
+        getOkHttpClientSingleInstance();
+        if (sCachingDns != null) {
+            sCachingDns.prefetch(hostnames);
+        }
+    }
+
+    /**
+     * 获取持久化的发件箱，没有配置时返回null
+     *
+     * @return
+     */
+    public static Outbox getOutbox() {
+        getOkHttpClientSingleInstance();
+        return sOutbox;
+    }
+
+    /**
+     * 获取缓存命中统计，未初始化时返回null
+     *
+     * @return
+     */
+    public static CacheStatsInterceptor getCacheStats() {
+        return sCacheStats;
+    }
+
+    /**
+     * OkHttpClient的配置，build之后不可修改
+     */
+    public static final class Config {
+
+        final File cacheDir;
+        final Context cacheDirContext;
+        final long cacheSize;
+        final long connectTimeoutMillis;
+        final long readTimeoutMillis;
+        final long writeTimeoutMillis;
+        final int maxIdleConnections;
+        final long keepAliveDurationMillis;
+        final int maxRequests;
+        final int maxRequestsPerHost;
+        final CookieJar cookieJar;
+        final HostnameVerifier hostnameVerifier;
+        final boolean coalesceGetRequests;
+        final long memoryCacheSize;
+        final RetryInterceptor retryInterceptor;
+        final boolean hedgeGetRequests;
+        final long hedgeMinDelayMillis;
+        final boolean collectCallMetrics;
+        final long gzipRequestMinSize;
+        final PriorityScheduler scheduler;
+        final Dns dns;
+        final List<HttpUrl> warmUpUrls;
+        final Outbox outbox;
+        final long maxResponseSize;
+        final long streamIdleTimeoutMillis;
+        final CircuitBreaker circuitBreaker;
+        final AdaptiveLimiter adaptiveLimiter;
+        final ConnectionPoolMonitor connectionPoolMonitor;
+
+        private Config(Builder builder) {
+            this.cacheDir = builder.cacheDir;
+            this.cacheDirContext = builder.cacheDirContext;
+            this.cacheSize = builder.cacheSize;
+            this.connectTimeoutMillis = builder.connectTimeoutMillis;
+            this.readTimeoutMillis = builder.readTimeoutMillis;
+            this.writeTimeoutMillis = builder.writeTimeoutMillis;
+            this.maxIdleConnections = builder.maxIdleConnections;
+            this.keepAliveDurationMillis = builder.keepAliveDurationMillis;
+            this.maxRequests = builder.maxRequests;
+            this.maxRequestsPerHost = builder.maxRequestsPerHost;
+            this.cookieJar = builder.cookieJar;
+            this.hostnameVerifier = builder.hostnameVerifier;
+            this.coalesceGetRequests = builder.coalesceGetRequests;
+            this.memoryCacheSize = builder.memoryCacheSize;
+            this.retryInterceptor = builder.retryInterceptor;
+            this.hedgeGetRequests = builder.hedgeGetRequests;
+            this.hedgeMinDelayMillis = builder.hedgeMinDelayMillis;
+            this.collectCallMetrics = builder.collectCallMetrics;
+            this.gzipRequestMinSize = builder.gzipRequestMinSize;
+            this.scheduler = builder.scheduler;
+            this.dns = builder.dns != null ? builder.dns : new CachingDns.Builder().build();
+            this.warmUpUrls = new ArrayList<HttpUrl>(builder.warmUpUrls);
+            this.outbox = builder.outbox;
+            this.maxResponseSize = builder.maxResponseSize;
+            this.streamIdleTimeoutMillis = builder.streamIdleTimeoutMillis;
+            this.circuitBreaker = builder.circuitBreaker;
+            this.adaptiveLimiter = builder.adaptiveLimiter;
+            this.connectionPoolMonitor = builder.connectionPoolMonitorSet
+                    ? builder.connectionPoolMonitor : new ConnectionPoolMonitor.Builder().build();
+        }
+
+        /**
+         * 按配置生成OkHttpClient.Builder，所有设置都作用在同一个Builder上
+         *
+         * @return
+         */
+        OkHttpClient.Builder newClientBuilder() {
+            Dispatcher dispatcher = new Dispatcher();
+            int dispatcherMaxRequests = maxRequests;
+            int dispatcherMaxRequestsPerHost = maxRequestsPerHost;
+            if (scheduler != null) {
+                //由调度器按优先级排队，Dispatcher的上限不能比调度器小，否则又会在Dispatcher里先进先出
+                dispatcherMaxRequests = Math.max(maxRequests, scheduler.maxRequests());
+                dispatcherMaxRequestsPerHost = Math.max(maxRequestsPerHost, scheduler.maxRequestsPerHost());
+            }
+            if (adaptiveLimiter != null) {
+                //单个host的上限由limiter决定，Dispatcher不能先把请求挡在队列里
+                dispatcherMaxRequestsPerHost = Math.max(dispatcherMaxRequestsPerHost, adaptiveLimiter.maxLimit());
+            }
+            dispatcher.setMaxRequests(dispatcherMaxRequests);
+            dispatcher.setMaxRequestsPerHost(dispatcherMaxRequestsPerHost);
+
+            ConnectionPool connectionPool = new ConnectionPool(maxIdleConnections, keepAliveDurationMillis, TimeUnit.MILLISECONDS);
+            if (connectionPoolMonitor != null) {
+                connectionPoolMonitor.attach(connectionPool);
+            }
+            OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                    .cookieJar(cookieJar)
+                    .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .writeTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .connectionPool(connectionPool)
+                    .dispatcher(dispatcher)
+                    .dns(dns);
+            //getCacheDir()会读写磁盘，在创建client的线程中调用
+            File dir = cacheDir != null ? cacheDir : cacheDirContext != null ? cacheDirContext.getCacheDir() : null;
+            if (dir != null) {
+                builder.cache(new Cache(dir, cacheSize));
+            }
+            if (hostnameVerifier != null) {
+                builder.hostnameVerifier(hostnameVerifier);
+            }
+            return builder;
+        }
+
+        public static final class Builder {
+            private File cacheDir;
+            private Context cacheDirContext;
+            private long cacheSize = 10 << 20;  //10MB
+            private long connectTimeoutMillis = 15000;
+            private long readTimeoutMillis = 20000;
+            private long writeTimeoutMillis = 20000;
+            private int maxIdleConnections = 5;
+            private long keepAliveDurationMillis = 5 * 60 * 1000;
+            private int maxRequests = 64;
+            private int maxRequestsPerHost = 5;
+            private CookieJar cookieJar = CookieJar.NO_COOKIES;
+            private HostnameVerifier hostnameVerifier;
+            private boolean coalesceGetRequests;
+            private long memoryCacheSize;
+            private RetryInterceptor retryInterceptor;
+            private boolean hedgeGetRequests;
+            private long hedgeMinDelayMillis = 50;
+            private boolean collectCallMetrics = true;
+            private long gzipRequestMinSize = -1;
+            private PriorityScheduler scheduler;
+            private Dns dns;
+            private final List<HttpUrl> warmUpUrls = new ArrayList<HttpUrl>();
+            private Outbox outbox;
+            private long maxResponseSize = 32 << 20;  //32MB
+            private long streamIdleTimeoutMillis = 60 * 1000;
+            private CircuitBreaker circuitBreaker;
+            private AdaptiveLimiter adaptiveLimiter;
+            private ConnectionPoolMonitor connectionPoolMonitor;
+            private boolean connectionPoolMonitorSet;
+
+            /**
+             * 缓存目录，为null时不开启磁盘缓存
+             */
+            public Builder cacheDir(File cacheDir) {
+                this.cacheDir = cacheDir;
+                this.cacheDirContext = null;
+                return this;
+            }
+
+            /**
+             * 使用context.getCacheDir()作为缓存目录，在创建client时才读取，配合initAsync不会在主线程访问磁盘
+             */
+            public Builder cacheDir(Context context) {
+                this.cacheDir = null;
+                this.cacheDirContext = context.getApplicationContext();
+                return this;
+            }
+
+            public Builder cacheSize(long cacheSize) {
+                if (cacheSize <= 0) throw new IllegalArgumentException("cacheSize <= 0");
+                this.cacheSize = cacheSize;
+                return this;
+            }
+
+            public Builder connectTimeout(long timeout, TimeUnit unit) {
+                this.connectTimeoutMillis = unit.toMillis(timeout);
+                return this;
+            }
+
+            public Builder readTimeout(long timeout, TimeUnit unit) {
+                this.readTimeoutMillis = unit.toMillis(timeout);
+                return this;
+            }
+
+            public Builder writeTimeout(long timeout, TimeUnit unit) {
+                this.writeTimeoutMillis = unit.toMillis(timeout);
+                return this;
+            }
+
+            /**
+             * 连接池最大空闲连接数
+             */
+            public Builder maxIdleConnections(int maxIdleConnections) {
+                if (maxIdleConnections < 0) throw new IllegalArgumentException("maxIdleConnections < 0");
+                this.maxIdleConnections = maxIdleConnections;
+                return this;
+            }
+
+            /**
+             * 空闲连接的保活时间
+             */
+            public Builder keepAliveDuration(long duration, TimeUnit unit) {
+                if (duration <= 0) throw new IllegalArgumentException("keepAliveDuration <= 0");
+                this.keepAliveDurationMillis = unit.toMillis(duration);
+                return this;
+            }
+
+            /**
+             * Dispatcher同时执行的最大请求数
+             */
+            public Builder maxRequests(int maxRequests) {
+                if (maxRequests < 1) throw new IllegalArgumentException("maxRequests < 1");
+                this.maxRequests = maxRequests;
+                return this;
+            }
+
+            /**
+             * Dispatcher对同一个host同时执行的最大请求数
+             */
+            public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+                if (maxRequestsPerHost < 1) throw new IllegalArgumentException("maxRequestsPerHost < 1");
+                this.maxRequestsPerHost = maxRequestsPerHost;
+                return this;
+            }
+
+            public Builder cookieJar(CookieJar cookieJar) {
+                if (cookieJar == null) throw new NullPointerException("cookieJar == null");
+                this.cookieJar = cookieJar;
+                return this;
+            }
+
+            public Builder hostnameVerifier(HostnameVerifier hostnameVerifier) {
+                this.hostnameVerifier = hostnameVerifier;
+                return this;
+            }
+
+            /**
+             * 合并同时进行的相同GET请求(字符串、字节数组、对象接口以及getDataAsync)，默认关闭
+             */
+            public Builder coalesceGetRequests(boolean coalesceGetRequests) {
+                this.coalesceGetRequests = coalesceGetRequests;
+                return this;
+            }
+
+            /**
+             * 磁盘缓存前面的内存缓存的字节数，用于频繁访问的小响应，0表示不开启(默认)
+             */
+            public Builder memoryCacheSize(long memoryCacheSize) {
+                if (memoryCacheSize < 0) throw new IllegalArgumentException("memoryCacheSize < 0");
+                this.memoryCacheSize = memoryCacheSize;
+                return this;
+            }
+
+            /**
+             * 失败重试的策略，为null时不重试(默认)
+             */
+            public Builder retryInterceptor(RetryInterceptor retryInterceptor) {
+                this.retryInterceptor = retryInterceptor;
+                return this;
+            }
+
+            /**
+             * GET请求超过这个host响应时间的p95时再发送一个相同的请求，使用先返回的结果，默认关闭；
+             * 只用于字符串、字节数组、对象接口以及getDataAsync
+             */
+            public Builder hedgeGetRequests(boolean hedgeGetRequests) {
+                this.hedgeGetRequests = hedgeGetRequests;
+                return this;
+            }
+
+            /**
+             * 对冲请求最少等待的时间，默认50毫秒
+             */
+            public Builder hedgeMinDelay(long delay, TimeUnit unit) {
+                if (delay < 0) throw new IllegalArgumentException("hedgeMinDelay < 0");
+                this.hedgeMinDelayMillis = unit.toMillis(delay);
+                return this;
+            }
+
+            /**
+             * 按host统计每个请求各阶段的耗时，默认开启，通过getCallMetrics()读取
+             */
+            public Builder collectCallMetrics(boolean collectCallMetrics) {
+                this.collectCallMetrics = collectCallMetrics;
+                return this;
+            }
+
+            /**
+             * 请求体超过minSize字节时用gzip压缩，服务器需要支持Content-Encoding: gzip的请求；
+             * 小于0表示不压缩(默认)
+             */
+            public Builder gzipRequestBodies(long minSize) {
+                this.gzipRequestMinSize = minSize;
+                return this;
+            }
+
+            /**
+             * 按优先级调度异步请求，为null时使用Dispatcher的先进先出队列(默认)；
+             * 只作用于OkHttpClientUtils和OkHttpUtils发出的请求，直接使用根client的请求不经过调度器
+             */
+            public Builder scheduler(PriorityScheduler scheduler) {
+                this.scheduler = scheduler;
+                return this;
+            }
+
+            /**
+             * 域名解析，为null时使用带缓存的CachingDns(默认)；不需要缓存时可以传入Dns.SYSTEM
+             */
+            public Builder dns(Dns dns) {
+                this.dns = dns;
+                return this;
+            }
+
+            /**
+             * 初始化完成后预热这些url所在host的连接，见warmUp(String...)
+             */
+            public Builder warmUp(String... urls) {
+                for (String url : urls) {
+                    warmUpUrls.add(parseWarmUpUrl(url));
+                }
+                return this;
+            }
+
+            /**
+             * postKeyValuePairDurable使用的发件箱，为null时不能使用postKeyValuePairDurable(默认)
+             */
+            public Builder outbox(Outbox outbox) {
+                this.outbox = outbox;
+                return this;
+            }
+
+            /**
+             * 整体读入内存的响应(字符串、字节数组、对象和post的返回值)默认的大小上限，默认32MB，
+             * 超过时抛出ResponseTooLargeException；下载和输入流只受单个请求上的ResponseSizeLimit限制
+             */
+            public Builder maxResponseSize(long maxBytes) {
+                if (maxBytes < 0) throw new IllegalArgumentException("maxBytes < 0");
+                this.maxResponseSize = maxBytes;
+                return this;
+            }
+
+            /**
+             * loadInputStreamFromUrl返回的流空闲(没有在读取)超过这个时间时自动关闭，释放连接，默认60秒，为0时不回收
+             */
+            public Builder streamIdleTimeout(long timeout, TimeUnit unit) {
+                if (timeout < 0) throw new IllegalArgumentException("timeout < 0");
+                this.streamIdleTimeoutMillis = unit.toMillis(timeout);
+                return this;
+            }
+
+            /**
+             * 按host熔断，为null时关闭(默认)；
+             * 只有网络异常和502、503、504算失败，某个接口返回500等错误不会让整个host快速失败
+             */
+            public Builder circuitBreaker(CircuitBreaker circuitBreaker) {
+                this.circuitBreaker = circuitBreaker;
+                return this;
+            }
+
+            /**
+             * 按每个host的RTT和失败自动调整并发上限，代替固定的maxRequestsPerHost，默认关闭；
+             * Dispatcher的maxRequestsPerHost会放宽到limiter.maxLimit()，全局的maxRequests仍然生效
+             */
+            public Builder adaptiveLimiter(AdaptiveLimiter adaptiveLimiter) {
+                this.adaptiveLimiter = adaptiveLimiter;
+                return this;
+            }
+
+            /**
+             * 按host统计连接池并限制每个host的空闲连接数和保活时间，默认只统计不限制，为null时关闭；
+             * 一个monitor只能用于一个Config
+             */
+            public Builder connectionPoolMonitor(ConnectionPoolMonitor connectionPoolMonitor) {
+                this.connectionPoolMonitor = connectionPoolMonitor;
+                this.connectionPoolMonitorSet = true;
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
             }
         }
-        return sOkHttpClient;
     }
     ///////////////////////////////////////////////////////////////////////////////////
     //GET方式访问网络
@@ -117,7 +906,7 @@ public class OkHttpClientUtils {
      */
     private Response buildResponse(String url, Object tag) throws IOException {
         Request request = buildGetRequest(url, tag);
-        Response response = sOkHttpClient.newCall(request).execute();
+        Response response = BUFFERED_CALL_FACTORY.newCall(request).execute();
         return response;
     }
 
@@ -134,6 +923,45 @@ public class OkHttpClientUtils {
         if (response.isSuccessful()) {
             return response.body();
         }
+        response.close();
+        return null;
+    }
+
+    /**
+     * 获取ResponseBody对象，响应体的大小不超过maxBytes
+     *
+     * @param url
+     * @param maxBytes
+     * @param tag
+     * @return
+     * @throws IOException
+     */
+    private ResponseBody buildResponseBody(String url, long maxBytes, Object tag) throws IOException {
+        Request request = buildGetRequest(url, tag).newBuilder()
+                .tag(ResponseSizeLimit.class, ResponseSizeLimit.of(maxBytes))
+                .build();
+        return buildResponseBody(request);
+    }
+
+    /**
+     * 获取ResponseBody对象，按缓存策略读取缓存
+     *
+     * @param url
+     * @param policy
+     * @param tag
+     * @return
+     * @throws IOException
+     */
+    private ResponseBody buildResponseBody(String url, CachePolicy policy, Object tag) throws IOException {
+        return buildResponseBody(policy.apply(buildGetRequest(url, tag)));
+    }
+
+    private ResponseBody buildResponseBody(Request request) throws IOException {
+        Response response = BUFFERED_CALL_FACTORY.newCall(request).execute();
+        if (response.isSuccessful()) {
+            return response.body();
+        }
+        response.close();
         return null;
     }
 
@@ -146,7 +974,7 @@ public class OkHttpClientUtils {
      * @throws IOException
      */
     public static String loadStringFromUrl(String url, Object obj) throws IOException {
-        ResponseBody responseBody = mHttpClientUtils.buildResponseBody(url, obj);
+        ResponseBody responseBody = instance().buildResponseBody(url, obj);
         if (responseBody != null) {
             return responseBody.string();
         }
@@ -154,6 +982,40 @@ public class OkHttpClientUtils {
 
     }
 
+    /**
+     * 通过网路请求获取服务器端发过来的字符串，响应体超过maxBytes时抛出ResponseTooLargeException
+     *
+     * @param url
+     * @param maxBytes
+     * @param obj
+     * @return
+     * @throws IOException
+     */
+    public static String loadStringFromUrl(String url, long maxBytes, Object obj) throws IOException {
+        ResponseBody responseBody = instance().buildResponseBody(url, maxBytes, obj);
+        if (responseBody != null) {
+            return responseBody.string();
+        }
+        return null;
+    }
+
+    /**
+     * 按缓存策略获取字符串，CACHE_ONLY没有缓存时返回null
+     *
+     * @param url
+     * @param policy 不能是CACHE_THEN_NETWORK
+     * @param obj
+     * @return
+     * @throws IOException
+     */
+    public static String loadStringFromUrl(String url, CachePolicy policy, Object obj) throws IOException {
+        ResponseBody responseBody = instance().buildResponseBody(url, policy, obj);
+        if (responseBody != null) {
+            return responseBody.string();
+        }
+        return null;
+    }
+
     /**
      * 通过网络请求获取字节数组
      *
@@ -163,13 +1025,133 @@ public class OkHttpClientUtils {
      * @throws IOException
      */
     public static byte[] loadByteFromUrl(String url, Object obj) throws IOException {
-        ResponseBody responseBody = mHttpClientUtils.buildResponseBody(url, obj);
+        ResponseBody responseBody = instance().buildResponseBody(url, obj);
+        if (responseBody != null) {
+            return responseBody.bytes();
+        }
+        return null;
+    }
+
+    /**
+     * 按缓存策略获取字节数组，CACHE_ONLY没有缓存时返回null
+     *
+     * @param url
+     * @param policy 不能是CACHE_THEN_NETWORK
+     * @param obj
+     * @return
+     * @throws IOException
+     */
+    public static byte[] loadByteFromUrl(String url, CachePolicy policy, Object obj) throws IOException {
+        ResponseBody responseBody = instance().buildResponseBody(url, policy, obj);
         if (responseBody != null) {
             return responseBody.bytes();
         }
         return null;
     }
 
+    /**
+     * 通过网络请求获取字节数组，响应体超过maxBytes时抛出ResponseTooLargeException
+     *
+     * @param url
+     * @param maxBytes
+     * @param obj
+     * @return
+     * @throws IOException
+     */
+    public static byte[] loadByteFromUrl(String url, long maxBytes, Object obj) throws IOException {
+        ResponseBody responseBody = instance().buildResponseBody(url, maxBytes, obj);
+        if (responseBody != null) {
+            return responseBody.bytes();
+        }
+        return null;
+    }
+
+    /**
+     * 把响应体读入调用方提供的ByteBuffer，从position开始写，写完后position后移；不分配新的数组，
+     * 可以复用同一个(直接)缓冲区读取多个响应。不经过合并和对冲
+     *
+     * @param url
+     * @param dst 响应体超过dst.remaining()时抛出ResponseTooLargeException，dst中的内容不完整
+     * @param obj
+     * @return 读入的字节数，响应码不是2xx时返回-1
+     * @throws IOException
+     */
+    public static int loadByteFromUrl(String url, ByteBuffer dst, Object obj) throws IOException {
+        int limit = dst.remaining();
+        Request request = instance().buildGetRequest(url, obj).newBuilder()
+                .tag(ResponseSizeLimit.class, ResponseSizeLimit.of(limit))
+                .build();
+        Response response = CALL_FACTORY.newCall(request).execute();
+        try {
+            if (!response.isSuccessful()) {
+                return -1;
+            }
+            BufferedSource source = response.body().source();
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int read = source.read(dst);
+                if (read == -1) {
+                    return total;
+                }
+                total += read;
+            }
+            //dst已满，响应体还有剩余时由ResponseSizeInterceptor抛出异常
+            source.exhausted();
+            return total;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 把响应体追加到调用方提供的okio Buffer，数据保存在okio共享池中的segment里，
+     * 调用方读取或clear()之后segment回到池中复用。受全局maxResponseSize限制
+     *
+     * @param url
+     * @param sink
+     * @param obj
+     * @return 读入的字节数，响应码不是2xx时返回-1
+     * @throws IOException
+     */
+    public static long loadByteFromUrl(String url, Buffer sink, Object obj) throws IOException {
+        Request request = withDefaultSizeLimit(instance().buildGetRequest(url, obj));
+        Response response = CALL_FACTORY.newCall(request).execute();
+        try {
+            if (!response.isSuccessful()) {
+                return -1;
+            }
+            return response.body().source().readAll(sink);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 把响应体读入ResponseBuffer，不超过memoryThreshold时在内存中，否则写入临时文件；
+     * 不经过合并和对冲，使用完必须close()
+     *
+     * @param url
+     * @param memoryThreshold 内存中最多保存的字节数
+     * @param maxBytes        响应体的上限，超过时抛出ResponseTooLargeException
+     * @param obj
+     * @return 响应码不是2xx时返回null
+     * @throws IOException
+     */
+    public static ResponseBuffer loadToBuffer(String url, long memoryThreshold, long maxBytes, Object obj) throws IOException {
+        Request request = instance().buildGetRequest(url, obj).newBuilder()
+                .tag(ResponseSizeLimit.class, ResponseSizeLimit.of(maxBytes))
+                .build();
+        Response response = CALL_FACTORY.newCall(request).execute();
+        try {
+            if (!response.isSuccessful()) {
+                return null;
+            }
+            return ResponseBuffer.read(response.body(), memoryThreshold);
+        } finally {
+            response.close();
+        }
+    }
+
     /**
      * 通过网络请求获取输出流
      *
@@ -179,13 +1161,89 @@ public class OkHttpClientUtils {
      * @throws IOException
      */
     public static InputStream loadInputStreamFromUrl(String url, Object obj) throws IOException {
-        ResponseBody responseBody = mHttpClientUtils.buildResponseBody(url, obj);
-        if (responseBody != null) {
-            return responseBody.byteStream();
+        //输入流不参与合并，避免把响应体整体读入内存
+        Request request = instance().buildGetRequest(url, obj);
+        Response response = CALL_FACTORY.newCall(request).execute();
+        if (response.isSuccessful()) {
+            //读到末尾、关闭或出错时释放连接，忘记关闭时空闲超时后回收
+            return sStreamReleaser.wrap(response);
         }
+        response.close();
         return null;
     }
 
+    /**
+     * 通过网络请求获取对象，decoder直接从响应体的流中解析，不经过中间的String
+     *
+     * @param url
+     * @param decoder
+     * @param obj
+     * @param <T>
+     * @return 非2xx响应时返回null
+     * @throws IOException
+     */
+    public static <T> T loadObject(String url, Decoder<T> decoder, Object obj) throws IOException {
+        Response response = instance().buildResponse(url, obj);
+        if (!response.isSuccessful()) {
+            response.close();
+            return null;
+        }
+        return Decoders.decode(response.body(), decoder);
+    }
+
+    /**
+     * 按缓存策略获取对象
+     *
+     * @param url
+     * @param decoder
+     * @param policy  不能是CACHE_THEN_NETWORK
+     * @param obj
+     * @param <T>
+     * @return 非2xx响应或者CACHE_ONLY没有缓存时返回null
+     * @throws IOException
+     */
+    public static <T> T loadObject(String url, Decoder<T> decoder, CachePolicy policy, Object obj) throws IOException {
+        ResponseBody responseBody = instance().buildResponseBody(url, policy, obj);
+        if (responseBody == null) {
+            return null;
+        }
+        return Decoders.decode(responseBody, decoder);
+    }
+
+    /**
+     * 以流的方式下载到文件，不把整个响应体读入内存，文件已存在部分内容时断点续传
+     *
+     * @param url
+     * @param file
+     * @param listener 进度回调，可以为null
+     * @param obj
+     * @return 文件的总长度
+     * @throws IOException
+     */
+    public static long downloadToFile(String url, File file, ProgressListener listener, Object obj) throws IOException {
+        Request request = instance().buildGetRequest(url, obj);
+        return FileDownloader.download(CALL_FACTORY, request, file, listener);
+    }
+
+    /**
+     * 使用多个连接分段并发下载到文件，服务器不支持Range时退化为单连接下载
+     *
+     * @param url
+     * @param file
+     * @param segmentCount 最多分成几段
+     * @param listener     进度回调，在Dispatcher的线程中调用，可以为null
+     * @param obj
+     * @return 文件的总长度
+     * @throws IOException
+     */
+    public static long downloadToFile(String url, File file, int segmentCount, ProgressListener listener, Object obj) throws IOException {
+        SegmentedDownloader downloader = new SegmentedDownloader.Builder()
+                .client(CALL_FACTORY)
+                .segmentCount(segmentCount)
+                .build();
+        return downloader.download(instance().buildGetRequest(url, obj), file, listener);
+    }
+
     /**
      * 开启一个异步线程，通过实现异步方法实现数据的异步加载
      *
@@ -194,9 +1252,74 @@ public class OkHttpClientUtils {
      * @param obj
      */
     public static void getDataAsync(String url, Callback callback, Object obj) {
-        Request request = mHttpClientUtils.buildGetRequest(url, obj);
-        sOkHttpClient.newCall(request).enqueue(callback);
+        Request request = instance().buildGetRequest(url, obj);
+        BUFFERED_CALL_FACTORY.newCall(request).enqueue(callback);
+
+    }
+
+    /**
+     * 按缓存策略异步加载，CACHE_THEN_NETWORK时有缓存先回调一次缓存，网络返回后再回调一次
+     *
+     * @param url
+     * @param policy
+     * @param callback
+     * @param obj
+     */
+    public static void getDataAsync(String url, CachePolicy policy, Callback callback, Object obj) {
+        policy.enqueue(BUFFERED_CALL_FACTORY, instance().buildGetRequest(url, obj), callback);
+    }
 
+    /**
+     * 异步获取对象，在Dispatcher的线程中直接从响应体的流中解析
+     *
+     * @param url
+     * @param decoder
+     * @param callback
+     * @param obj
+     * @param <T>
+     */
+    public static <T> void getObjectAsync(String url, Decoder<T> decoder, ResultCallback<T> callback, Object obj) {
+        Request request = instance().buildGetRequest(url, obj);
+        BUFFERED_CALL_FACTORY.newCall(request).enqueue(Decoders.callback(decoder, callback));
+    }
+
+    /**
+     * 按缓存策略异步获取对象，CACHE_THEN_NETWORK时可能回调两次onSuccess
+     *
+     * @param url
+     * @param decoder
+     * @param policy
+     * @param callback
+     * @param obj
+     * @param <T>
+     */
+    public static <T> void getObjectAsync(String url, Decoder<T> decoder, CachePolicy policy, ResultCallback<T> callback, Object obj) {
+        policy.enqueue(BUFFERED_CALL_FACTORY, instance().buildGetRequest(url, obj), Decoders.callback(decoder, callback));
+    }
+
+    /**
+     * 异步获取字符串，返回可以组合的HttpFuture，取消future会取消请求
+     *
+     * @param url
+     * @param obj
+     * @return
+     */
+    public static HttpFuture<String> getStringFuture(String url, Object obj) {
+        return getObjectFuture(url, Decoders.string(), obj);
+    }
+
+    /**
+     * 异步获取对象，在Dispatcher的线程中解析，返回可以组合的HttpFuture
+     *
+     * @param url
+     * @param decoder
+     * @param obj
+     * @param <T>
+     * @return
+     */
+    public static <T> HttpFuture<T> getObjectFuture(String url, Decoder<T> decoder, Object obj) {
+        Request request = instance().buildGetRequest(url, obj);
+        return HttpFuture.enqueue(BUFFERED_CALL_FACTORY.newCall(request), decoder);
     }
 
     /**
@@ -225,10 +1348,11 @@ public class OkHttpClientUtils {
      */
     private String postRequestBody(String urlString, RequestBody requestBody, Object obj) throws IOException {
         Request request = buildPostRequest(urlString, requestBody, obj);
-        Response response = sOkHttpClient.newCall(request).execute();
+        Response response = CALL_FACTORY.newCall(withDefaultSizeLimit(request)).execute();
         if (response.isSuccessful()) {
             return response.body().string();
         }
+        response.close();
         return null;
     }
 
@@ -258,8 +1382,61 @@ public class OkHttpClientUtils {
      * @throws IOException
      */
     public static String postKeyValuePair(String uslString, Map<String, String> map, Object obj) throws IOException {
-        RequestBody requestBogy = mHttpClientUtils.buildRequestBody(map);
-        return mHttpClientUtils.postRequestBody(uslString, requestBogy, obj);
+        RequestBody requestBogy = instance().buildRequestBody(map);
+        return instance().postRequestBody(uslString, requestBogy, obj);
+    }
+
+    /**
+     * 批量提交键值对，每个表单一个请求，并发执行，不占用普通请求的并发名额
+     *
+     * @param urlString
+     * @param forms
+     * @param obj
+     * @return 每个表单的结果，顺序和forms一致
+     * @throws IOException 等待时被中断
+     */
+    public static List<BatchResult> postKeyValuePairBatch(String urlString, List<Map<String, String>> forms, Object obj) throws IOException {
+        return postKeyValuePairBatch(urlString, forms, DEFAULT_BATCH_CONCURRENCY, obj);
+    }
+
+    /**
+     * 批量提交键值对，每个表单一个请求，最多maxConcurrency个同时进行
+     *
+     * @param urlString
+     * @param forms
+     * @param maxConcurrency
+     * @param obj
+     * @return 每个表单的结果，顺序和forms一致
+     * @throws IOException 等待时被中断
+     */
+    public static List<BatchResult> postKeyValuePairBatch(String urlString, List<Map<String, String>> forms, int maxConcurrency,
+                                                          Object obj) throws IOException {
+        List<Request> requests = new ArrayList<Request>(forms.size());
+        for (Map<String, String> form : forms) {
+            requests.add(instance().buildPostRequest(urlString, instance().buildRequestBody(form), obj));
+        }
+        return Batches.executeAll(batchCallFactory(maxConcurrency), requests);
+    }
+
+    /**
+     * 批量提交键值对，每maxBatchSize个表单合并成一个JSON数组发给批量接口
+     *
+     * @param batchUrl     批量接口的地址
+     * @param forms
+     * @param maxBatchSize
+     * @param obj
+     * @return 每个表单的结果，同一批次的表单结果相同，顺序和forms一致
+     * @throws IOException 等待时被中断
+     */
+    public static List<BatchResult> postKeyValuePairBatchCoalesced(String batchUrl, List<Map<String, String>> forms, int maxBatchSize,
+                                                                   Object obj) throws IOException {
+        PostBatcher batcher = new PostBatcher.Builder()
+                .client(CALL_FACTORY)
+                .url(batchUrl)
+                .tag(obj)
+                .maxBatchSize(maxBatchSize)
+                .build();
+        return Batches.submitAll(batcher, forms);
     }
 
     /**
@@ -272,7 +1449,7 @@ public class OkHttpClientUtils {
      */
     private void postRequestBodyAsync(String urlString, RequestBody requestBody, Callback callback, Object obj) {
         Request request = buildPostRequest(urlString, requestBody, obj);
-        sOkHttpClient.newCall(request).enqueue(callback);
+        CALL_FACTORY.newCall(request).enqueue(callback);
     }
 
 
@@ -285,8 +1462,34 @@ public class OkHttpClientUtils {
      * @param obj
      */
     public static void postKeyValuePairAsync(String urlString, Map<String, String> map, Callback callback, Object obj) {
-        RequestBody requestBody = mHttpClientUtils.buildRequestBody(map);
-        mHttpClientUtils.postRequestBodyAsync(urlString, requestBody, callback, obj);
+        RequestBody requestBody = instance().buildRequestBody(map);
+        instance().postRequestBodyAsync(urlString, requestBody, callback, obj);
+    }
+
+    /**
+     * post提交键值对，先写入发件箱再在后台发送，没有网络时保存在磁盘上，网络恢复或者进程重启后继续发送；
+     * 需要通过Config.Builder.outbox配置发件箱
+     *
+     * @param urlString
+     * @param map
+     */
+    public static void postKeyValuePairDurable(String urlString, Map<String, String> map) {
+        Outbox outbox = getOutbox();
+        if (outbox == null) throw new IllegalStateException("outbox not configured");
+        outbox.post(urlString, map);
+    }
+
+    /**
+     * post异步请求提交键值对，返回可以组合的HttpFuture，非2xx响应作为失败
+     *
+     * @param urlString
+     * @param map
+     * @param obj
+     * @return
+     */
+    public static HttpFuture<String> postKeyValuePairFuture(String urlString, Map<String, String> map, Object obj) {
+        Request request = instance().buildPostRequest(urlString, instance().buildRequestBody(map), obj);
+        return HttpFuture.enqueue(CALL_FACTORY.newCall(request), Decoders.string());
     }
 
 
@@ -301,8 +1504,44 @@ public class OkHttpClientUtils {
      * @throws IOException
      */
     public static String postUploadFiles(String urlString, Map<String, String> map, File[] files, String[] fromFieldName, Object obj) throws IOException {
-        RequestBody requestBody = mHttpClientUtils.buildRequestBody(map, files, fromFieldName);
-        return mHttpClientUtils.postRequestBody(urlString, requestBody, obj);
+        RequestBody requestBody = instance().buildRequestBody(map, files, fromFieldName);
+        return instance().postRequestBody(urlString, requestBody, obj);
+    }
+
+    /**
+     * post同步上传文件以及其他表单控件，回调已发送到网络的字节数
+     *
+     * @param urlString
+     * @param map
+     * @param files
+     * @param fromFieldName
+     * @param listener      进度回调，在执行请求的线程中调用
+     * @param obj
+     * @return
+     * @throws IOException
+     */
+    public static String postUploadFiles(String urlString, Map<String, String> map, File[] files, String[] fromFieldName,
+                                         ProgressListener listener, Object obj) throws IOException {
+        RequestBody requestBody = new CountingRequestBody(instance().buildRequestBody(map, files, fromFieldName),
+                0, -1, listener, null);
+        return instance().postRequestBody(urlString, requestBody, obj);
+    }
+
+    /**
+     * 分块上传大文件，连接断开后从服务器已确认的位置继续，服务器需要支持tus 1.0协议
+     *
+     * @param urlString 创建上传的地址
+     * @param file
+     * @param listener  进度回调，可以为null
+     * @param obj
+     * @return 服务器分配的上传地址
+     * @throws IOException
+     */
+    public static String uploadResumable(String urlString, File file, ProgressListener listener, Object obj) throws IOException {
+        ResumableUploader uploader = new ResumableUploader.Builder()
+                .client(CALL_FACTORY)
+                .build();
+        return uploader.upload(instance().buildGetRequest(urlString, obj), file, listener);
     }
 
     /**
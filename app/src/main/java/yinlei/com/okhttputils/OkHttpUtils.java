@@ -8,18 +8,22 @@ import java.io.InputStream;
 import java.net.FileNameMap;
 import java.net.URI;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
+import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.FormBody;
 import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
 
 /**
  * OkHttpUtils工具类
@@ -41,7 +45,23 @@ public class OkHttpUtils {
     //响应体对象中，通过响应体的不同方法以获取到字符串、字节流、或者流对象，也可以封装一下获取bean对象
     /////////////////////////////////////////////////////////////////////////
 
-    private static final OkHttpClient OK_HTTP_CLIENT = new OkHttpClient();
+    /**
+     * 和OkHttpClientUtils共用同一个根client，复用连接池和Dispatcher
+     *
+     * @return
+     */
+    private static Call.Factory client() {
+        return OkHttpClientUtils.callFactory();
+    }
+
+    /**
+     * 获取字符串、字节数组和对象的GET请求，响应体会整体读入内存，可以合并相同请求和对冲
+     *
+     * @return
+     */
+    private static Call.Factory bufferedClient() {
+        return OkHttpClientUtils.bufferedCallFactory();
+    }
 
     /**
      * 获取request请求对象
@@ -65,7 +85,7 @@ public class OkHttpUtils {
      */
     private static Response buildResponse(String urlString) throws IOException {
         Request request = buildGetRequest(urlString);
-        Response response = OK_HTTP_CLIENT.newCall(request).execute();
+        Response response = bufferedClient().newCall(request).execute();
         return response;
     }
 
@@ -82,6 +102,7 @@ public class OkHttpUtils {
             ResponseBody responseBody = response.body();
             return responseBody;
         }
+        response.close();
         return null;
     }
 
@@ -115,6 +136,91 @@ public class OkHttpUtils {
         return null;
     }
 
+    /**
+     * 按缓存策略获取字符串，CACHE_ONLY没有缓存时返回null
+     *
+     * @param urlString
+     * @param policy    不能是CACHE_THEN_NETWORK
+     * @return
+     * @throws IOException
+     */
+    public static String loadStringFromUrl(String urlString, CachePolicy policy) throws IOException {
+        return OkHttpClientUtils.loadStringFromUrl(urlString, policy, null);
+    }
+
+    /**
+     * 按缓存策略获取字节数组，CACHE_ONLY没有缓存时返回null
+     *
+     * @param urlString
+     * @param policy    不能是CACHE_THEN_NETWORK
+     * @return
+     * @throws IOException
+     */
+    public static byte[] loadByteFromUrl(String urlString, CachePolicy policy) throws IOException {
+        return OkHttpClientUtils.loadByteFromUrl(urlString, policy, null);
+    }
+
+    /**
+     * 通过网路请求获取字符串，响应体超过maxBytes时抛出ResponseTooLargeException
+     *
+     * @param urlString
+     * @param maxBytes
+     * @return
+     * @throws IOException
+     */
+    public static String loadStringFromUrl(String urlString, long maxBytes) throws IOException {
+        return OkHttpClientUtils.loadStringFromUrl(urlString, maxBytes, null);
+    }
+
+    /**
+     * 通过网络请求获取字节数组，响应体超过maxBytes时抛出ResponseTooLargeException
+     *
+     * @param urlString
+     * @param maxBytes
+     * @return
+     * @throws IOException
+     */
+    public static byte[] loadByteFromUrl(String urlString, long maxBytes) throws IOException {
+        return OkHttpClientUtils.loadByteFromUrl(urlString, maxBytes, null);
+    }
+
+    /**
+     * 把响应体读入调用方提供的ByteBuffer，不分配新的数组
+     *
+     * @param urlString
+     * @param dst       响应体超过dst.remaining()时抛出ResponseTooLargeException
+     * @return 读入的字节数，响应码不是2xx时返回-1
+     * @throws IOException
+     */
+    public static int loadByteFromUrl(String urlString, ByteBuffer dst) throws IOException {
+        return OkHttpClientUtils.loadByteFromUrl(urlString, dst, null);
+    }
+
+    /**
+     * 把响应体追加到调用方提供的okio Buffer，segment来自okio的共享池
+     *
+     * @param urlString
+     * @param sink
+     * @return 读入的字节数，响应码不是2xx时返回-1
+     * @throws IOException
+     */
+    public static long loadByteFromUrl(String urlString, Buffer sink) throws IOException {
+        return OkHttpClientUtils.loadByteFromUrl(urlString, sink, null);
+    }
+
+    /**
+     * 把响应体读入ResponseBuffer，小响应在内存中，超过memoryThreshold写入临时文件，使用完必须close()
+     *
+     * @param urlString
+     * @param memoryThreshold
+     * @param maxBytes
+     * @return 响应码不是2xx时返回null
+     * @throws IOException
+     */
+    public static ResponseBuffer loadToBuffer(String urlString, long memoryThreshold, long maxBytes) throws IOException {
+        return OkHttpClientUtils.loadToBuffer(urlString, memoryThreshold, maxBytes, null);
+    }
+
     /**
      * 通过网络请求获取输出流
      *
@@ -123,13 +229,79 @@ public class OkHttpUtils {
      * @throws IOException
      */
     public static InputStream loadInputStreamFromUrl(String urlString) throws IOException {
-        ResponseBody responseBody = buildResponseBody(urlString);
-        if (responseBody != null) {
-            return responseBody.byteStream();
+        //输入流不参与合并，避免把响应体整体读入内存
+        Response response = client().newCall(buildGetRequest(urlString)).execute();
+        if (response.isSuccessful()) {
+            //读到末尾、关闭或出错时释放连接，忘记关闭时空闲超时后回收
+            return OkHttpClientUtils.getStreamReleaser().wrap(response);
         }
+        response.close();
         return null;
     }
 
+    /**
+     * 通过网络请求获取对象，decoder直接从响应体的流中解析，不经过中间的String
+     *
+     * @param urlString
+     * @param decoder
+     * @param <T>
+     * @return 非2xx响应时返回null
+     * @throws IOException
+     */
+    public static <T> T loadObject(String urlString, Decoder<T> decoder) throws IOException {
+        Response response = buildResponse(urlString);
+        if (!response.isSuccessful()) {
+            response.close();
+            return null;
+        }
+        return Decoders.decode(response.body(), decoder);
+    }
+
+    /**
+     * 按缓存策略获取对象
+     *
+     * @param urlString
+     * @param decoder
+     * @param policy    不能是CACHE_THEN_NETWORK
+     * @param <T>
+     * @return 非2xx响应或者CACHE_ONLY没有缓存时返回null
+     * @throws IOException
+     */
+    public static <T> T loadObject(String urlString, Decoder<T> decoder, CachePolicy policy) throws IOException {
+        return OkHttpClientUtils.loadObject(urlString, decoder, policy, null);
+    }
+
+    /**
+     * 以流的方式下载到文件，不把整个响应体读入内存，文件已存在部分内容时断点续传
+     *
+     * @param urlString
+     * @param file
+     * @param listener  进度回调，可以为null
+     * @return 文件的总长度
+     * @throws IOException
+     */
+    public static long downloadToFile(String urlString, File file, ProgressListener listener) throws IOException {
+        return FileDownloader.download(client(), buildGetRequest(urlString), file, listener);
+    }
+
+    /**
+     * 使用多个连接分段并发下载到文件，服务器不支持Range时退化为单连接下载
+     *
+     * @param urlString
+     * @param file
+     * @param segmentCount 最多分成几段
+     * @param listener     进度回调，在Dispatcher的线程中调用，可以为null
+     * @return 文件的总长度
+     * @throws IOException
+     */
+    public static long downloadToFile(String urlString, File file, int segmentCount, ProgressListener listener) throws IOException {
+        SegmentedDownloader downloader = new SegmentedDownloader.Builder()
+                .client(client())
+                .segmentCount(segmentCount)
+                .build();
+        return downloader.download(buildGetRequest(urlString), file, listener);
+    }
+
     //////////////////////////////////////////////////////////////////////////
     //Http GET请求中的高级用法：3个步奏
     //1、获取Request对象     Request对象是OkHttp中访问的请求，Builder是辅助类
@@ -145,8 +317,68 @@ public class OkHttpUtils {
      */
     public static void getDataAsync(String urlString, Callback callback) {
         Request request = buildGetRequest(urlString);
-        OK_HTTP_CLIENT.newCall(request).enqueue(callback);
+        bufferedClient().newCall(request).enqueue(callback);
+
+    }
+
+    /**
+     * 按缓存策略异步加载，CACHE_THEN_NETWORK时有缓存先回调一次缓存，网络返回后再回调一次
+     *
+     * @param urlString
+     * @param policy
+     * @param callback
+     */
+    public static void getDataAsync(String urlString, CachePolicy policy, Callback callback) {
+        policy.enqueue(bufferedClient(), buildGetRequest(urlString), callback);
+    }
+
+    /**
+     * 异步获取对象，在Dispatcher的线程中直接从响应体的流中解析
+     *
+     * @param urlString
+     * @param decoder
+     * @param callback
+     * @param <T>
+     */
+    public static <T> void getObjectAsync(String urlString, Decoder<T> decoder, ResultCallback<T> callback) {
+        Request request = buildGetRequest(urlString);
+        bufferedClient().newCall(request).enqueue(Decoders.callback(decoder, callback));
+    }
 
+    /**
+     * 按缓存策略异步获取对象，CACHE_THEN_NETWORK时可能回调两次onSuccess
+     *
+     * @param urlString
+     * @param decoder
+     * @param policy
+     * @param callback
+     * @param <T>
+     */
+    public static <T> void getObjectAsync(String urlString, Decoder<T> decoder, CachePolicy policy, ResultCallback<T> callback) {
+        policy.enqueue(bufferedClient(), buildGetRequest(urlString), Decoders.callback(decoder, callback));
+    }
+
+    /**
+     * 异步获取字符串，返回可以组合的HttpFuture，取消future会取消请求
+     *
+     * @param urlString
+     * @return
+     */
+    public static HttpFuture<String> getStringFuture(String urlString) {
+        return getObjectFuture(urlString, Decoders.string());
+    }
+
+    /**
+     * 异步获取对象，在Dispatcher的线程中解析，返回可以组合的HttpFuture
+     *
+     * @param urlString
+     * @param decoder
+     * @param <T>
+     * @return
+     */
+    public static <T> HttpFuture<T> getObjectFuture(String urlString, Decoder<T> decoder) {
+        Request request = buildGetRequest(urlString);
+        return HttpFuture.enqueue(bufferedClient().newCall(request), decoder);
     }
 
     ///////////////////////////////////////////////////////////////////////////////
@@ -191,10 +423,11 @@ public class OkHttpUtils {
      */
     private static String postRequestBody(String urlString, RequestBody requestBody) throws IOException {
         Request request = buildPostRequest(urlString, requestBody);
-        Response response = OK_HTTP_CLIENT.newCall(request).execute();
+        Response response = client().newCall(OkHttpClientUtils.withDefaultSizeLimit(request)).execute();
         if (response.isSuccessful()) {
             return response.body().string();
         }
+        response.close();
         return null;
     }
 
@@ -231,6 +464,41 @@ public class OkHttpUtils {
     //POST异步网络请求
     //////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * 批量提交键值对，每个表单一个请求，最多maxConcurrency个同时进行，不占用普通请求的并发名额
+     *
+     * @param urlString
+     * @param forms
+     * @param maxConcurrency
+     * @return 每个表单的结果，顺序和forms一致
+     * @throws IOException 等待时被中断
+     */
+    public static List<BatchResult> postKeyValuePairBatch(String urlString, List<Map<String, String>> forms, int maxConcurrency) throws IOException {
+        List<Request> requests = new ArrayList<Request>(forms.size());
+        for (Map<String, String> form : forms) {
+            requests.add(buildPostRequest(urlString, buildRequestBody(form)));
+        }
+        return Batches.executeAll(OkHttpClientUtils.batchCallFactory(maxConcurrency), requests);
+    }
+
+    /**
+     * 批量提交键值对，每maxBatchSize个表单合并成一个JSON数组发给批量接口
+     *
+     * @param batchUrl
+     * @param forms
+     * @param maxBatchSize
+     * @return 每个表单的结果，同一批次的表单结果相同，顺序和forms一致
+     * @throws IOException 等待时被中断
+     */
+    public static List<BatchResult> postKeyValuePairBatchCoalesced(String batchUrl, List<Map<String, String>> forms, int maxBatchSize) throws IOException {
+        PostBatcher batcher = new PostBatcher.Builder()
+                .client(client())
+                .url(batchUrl)
+                .maxBatchSize(maxBatchSize)
+                .build();
+        return Batches.submitAll(batcher, forms);
+    }
+
     /**
      * post异步网络请求，提交requestBody对象
      *
@@ -240,7 +508,7 @@ public class OkHttpUtils {
      */
     private static void postRequestBodyAsync(String urlString, RequestBody requestBody, Callback callback) {
         Request request = buildPostRequest(urlString, requestBody);
-        OK_HTTP_CLIENT.newCall(request).enqueue(callback);
+        client().newCall(request).enqueue(callback);
     }
 
     /**
@@ -255,6 +523,29 @@ public class OkHttpUtils {
         postRequestBodyAsync(urlString, requestBody, callback);
     }
 
+    /**
+     * post提交键值对，先写入发件箱再在后台发送，没有网络时保存在磁盘上，网络恢复或者进程重启后继续发送；
+     * 需要通过OkHttpClientUtils.Config.Builder.outbox配置发件箱
+     *
+     * @param urlString
+     * @param map
+     */
+    public static void postKeyValuePairDurable(String urlString, Map<String, String> map) {
+        OkHttpClientUtils.postKeyValuePairDurable(urlString, map);
+    }
+
+    /**
+     * post异步请求提交键值对，返回可以组合的HttpFuture，非2xx响应作为失败
+     *
+     * @param urlString
+     * @param map
+     * @return
+     */
+    public static HttpFuture<String> postKeyValuePairFuture(String urlString, Map<String, String> map) {
+        Request request = buildPostRequest(urlString, buildRequestBody(map));
+        return HttpFuture.enqueue(client().newCall(request), Decoders.string());
+    }
+
     /**
      * post同步上传文件以及其他表单控件  (也就是提交分块请求)
      *
@@ -270,6 +561,39 @@ public class OkHttpUtils {
         return postRequestBody(urlString, requestBody);
     }
 
+    /**
+     * post同步上传文件以及其他表单控件，回调已发送到网络的字节数
+     *
+     * @param urlString
+     * @param map
+     * @param files
+     * @param fromFieldName
+     * @param listener      进度回调，在执行请求的线程中调用
+     * @return
+     * @throws IOException
+     */
+    public static String postUploadFiles(String urlString, Map<String, String> map, File[] files, String[] fromFieldName,
+                                         ProgressListener listener) throws IOException {
+        RequestBody requestBody = new CountingRequestBody(buildRequestBody(map, files, fromFieldName), 0, -1, listener, null);
+        return postRequestBody(urlString, requestBody);
+    }
+
+    /**
+     * 分块上传大文件，连接断开后从服务器已确认的位置继续，服务器需要支持tus 1.0协议
+     *
+     * @param urlString 创建上传的地址
+     * @param file
+     * @param listener  进度回调，可以为null
+     * @return 服务器分配的上传地址
+     * @throws IOException
+     */
+    public static String uploadResumable(String urlString, File file, ProgressListener listener) throws IOException {
+        ResumableUploader uploader = new ResumableUploader.Builder()
+                .client(client())
+                .build();
+        return uploader.upload(buildGetRequest(urlString), file, listener);
+    }
+
     /**
      * 文件上传的RequestBody
      *
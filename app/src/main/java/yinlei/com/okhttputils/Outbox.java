@@ -0,0 +1,657 @@
+package yinlei.com.okhttputils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.FormBody;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+/**
+ * 持久化的POST发件箱，没有网络时提交的键值对不会丢失
+ * <p>
+ * 每次post先顺序追加到目录下的日志文件，再尝试发送；日志每隔syncInterval统一fsync一次，
+ * 不会每条都等待磁盘。发送失败(网络错误、5xx、408、429)时停止发送，按退避时间重试，
+ * 也可以在网络恢复时调用retryNow()立即重试。按提交顺序发送，同时最多maxConcurrency个，
+ * maxConcurrency为1时服务器收到的顺序和提交顺序严格一致。
+ * 服务器确认(2xx)或拒绝(其他4xx)之后追加一条确认记录，确认记录多了以后重写日志只保留未确认的。
+ * 进程重启后用同一个目录创建Outbox会接着发送上次没有确认的内容。
+ * 服务器收到之后、确认记录写入之前进程退出时会重发一次，服务器需要能接受重复提交。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: Outbox.java
+ * @author: myName
+ * @date: 2026-10-18 21:20
+ */
+
+public final class Outbox {
+
+    //所有Outbox的磁盘读写和状态修改都在这个线程中，不需要加锁
+    private static final ScheduledExecutorService EXECUTOR = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OkHttpUtils Outbox");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final String LOG_NAME = "outbox.log";
+    private static final byte APPEND = 1;
+    private static final byte ACK = 2;
+    private static final int MAX_RECORD_SIZE = 8 << 20;
+    //确认记录超过这个数并且多于未确认的条目时重写日志
+    private static final int COMPACT_THRESHOLD = 256;
+
+    private final File dir;
+    private final File logFile;
+    private final Call.Factory client;
+    private final int maxConcurrency;
+    private final long retryDelayMillis;
+    private final long maxRetryDelayMillis;
+    private final Listener listener;
+    private final ScheduledFuture<?> syncTask;
+
+    //以下字段只在EXECUTOR中访问
+    private final LinkedHashMap<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+    private final Map<Long, Call> inFlight = new HashMap<Long, Call>();
+    private long nextSeq = 1;
+    private FileOutputStream logStream;
+    private BufferedSink log;
+    private boolean dirty;
+    private int ackRecords;
+    private boolean offline;
+    private int failures;
+    private ScheduledFuture<?> retryTask;
+    //每次retryNow()加一，之前发出的请求失败时不再进入退避
+    private int generation;
+
+    private volatile boolean closed;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private Outbox(Builder builder) {
+        this.dir = builder.dir;
+        this.logFile = new File(builder.dir, LOG_NAME);
+        this.client = builder.client;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.retryDelayMillis = builder.retryDelayMillis;
+        this.maxRetryDelayMillis = builder.maxRetryDelayMillis;
+        this.listener = builder.listener;
+        //读取日志在后台进行，不阻塞创建Outbox的线程
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+        this.syncTask = EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sync();
+                } catch (IOException ignored) {
+                    //下一次再试，flush()会把错误抛给调用者
+                }
+            }
+        }, builder.syncIntervalMillis, builder.syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 提交键值对，写入日志后在后台发送，立即返回
+     *
+     * @param url
+     * @param params
+     */
+    public void post(String url, Map<String, String> params) {
+        if (HttpUrl.parse(url) == null) throw new IllegalArgumentException("invalid url: " + url);
+        if (closed) throw new IllegalStateException("closed");
+        final String finalUrl = url;
+        final Map<String, String> copy = new LinkedHashMap<String, String>();
+        if (params != null) {
+            copy.putAll(params);
+        }
+        pendingCount.incrementAndGet();
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry = new Entry(nextSeq++, finalUrl, copy);
+                pending.put(entry.seq, entry);
+                write(entry.encode());
+                drain();
+            }
+        });
+    }
+
+    /**
+     * 网络恢复时调用，不再等待退避时间，立即重新发送
+     */
+    public void retryNow() {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (retryTask != null) {
+                    retryTask.cancel(false);
+                    retryTask = null;
+                }
+                generation++;
+                offline = false;
+                drain();
+            }
+        });
+    }
+
+    /**
+     * 等待之前post的内容写入磁盘(fsync)
+     *
+     * @throws IOException 写入失败或者等待时被中断
+     */
+    public void flush() throws IOException {
+        await(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                sync();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 停止发送并关闭日志，未确认的内容留在日志中，下次用同一个目录创建Outbox时继续发送
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        closed = true;
+        syncTask.cancel(false);
+        await(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                if (retryTask != null) {
+                    retryTask.cancel(false);
+                    retryTask = null;
+                }
+                //没有确认的请求下次重新发送
+                for (Call call : inFlight.values()) {
+                    call.cancel();
+                }
+                inFlight.clear();
+                try {
+                    sync();
+                } finally {
+                    closeLog();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 还没有被服务器确认的条目数
+     */
+    public int pendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * 服务器返回2xx的条目数
+     */
+    public long deliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * 服务器拒绝(4xx)而丢弃的条目数
+     */
+    public long rejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public File directory() {
+        return dir;
+    }
+
+    private void await(Callable<Void> task) throws IOException {
+        try {
+            EXECUTOR.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for outbox");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("outbox failed", e.getCause());
+        }
+    }
+
+    private void open() {
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("can't create " + dir);
+            }
+            load();
+            openLog(true);
+            maybeCompact();
+        } catch (IOException e) {
+            //日志不可用时只在内存中排队，进程退出后会丢失
+            closeLog();
+        }
+        //open()是EXECUTOR的第一个任务，这时pending中只有从日志恢复的条目，post的已经计入pendingCount
+        pendingCount.addAndGet(pending.size());
+        drain();
+    }
+
+    /**
+     * 读取日志，恢复未确认的条目；末尾写了一半的记录(进程在写入时退出)被截掉
+     */
+    private void load() throws IOException {
+        if (!logFile.exists()) {
+            return;
+        }
+        long valid = 0;
+        BufferedSource source = Okio.buffer(Okio.source(logFile));
+        try {
+            while (source.request(8)) {
+                int length = source.readInt();
+                int crc = source.readInt();
+                if (length < 9 || length > MAX_RECORD_SIZE || !source.request(length)) {
+                    break;
+                }
+                byte[] payload = source.readByteArray(length);
+                if (crc(payload) != crc) {
+                    break;
+                }
+                apply(new Buffer().write(payload));
+                valid += 8 + length;
+            }
+        } finally {
+            source.close();
+        }
+        if (valid < logFile.length()) {
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            try {
+                file.setLength(valid);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private void apply(Buffer record) throws IOException {
+        byte type = record.readByte();
+        long seq = record.readLong();
+        nextSeq = Math.max(nextSeq, seq + 1);
+        if (type == APPEND) {
+            String url = readString(record);
+            int count = record.readInt();
+            Map<String, String> params = new LinkedHashMap<String, String>();
+            for (int i = 0; i < count; i++) {
+                params.put(readString(record), readString(record));
+            }
+            pending.put(seq, new Entry(seq, url, params));
+        } else if (type == ACK) {
+            pending.remove(seq);
+            ackRecords++;
+        }
+    }
+
+    private void openLog(boolean append) throws IOException {
+        logStream = new FileOutputStream(logFile, append);
+        log = Okio.buffer(Okio.sink(logStream));
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException ignored) {
+            }
+            log = null;
+            logStream = null;
+        }
+    }
+
+    /**
+     * 追加一条记录：长度、CRC32、内容；只写入缓冲区，由sync()统一写入磁盘
+     */
+    private void write(Buffer payload) {
+        if (log == null) {
+            return;
+        }
+        try {
+            writeRecord(log, payload);
+            dirty = true;
+        } catch (IOException e) {
+            closeLog();
+        }
+    }
+
+    private static void writeRecord(BufferedSink sink, Buffer payload) throws IOException {
+        byte[] bytes = payload.readByteArray();
+        sink.writeInt(bytes.length);
+        sink.writeInt(crc(bytes));
+        sink.write(bytes);
+    }
+
+    private void sync() throws IOException {
+        if (!dirty || log == null) {
+            return;
+        }
+        log.flush();
+        logStream.getFD().sync();
+        dirty = false;
+    }
+
+    /**
+     * 全部确认后清空日志；确认记录太多时重写日志，只保留未确认的条目
+     */
+    private void maybeCompact() throws IOException {
+        if (log == null || ackRecords == 0) {
+            return;
+        }
+        if (pending.isEmpty()) {
+            closeLog();
+            openLog(false);
+            logStream.getFD().sync();
+            dirty = false;
+            ackRecords = 0;
+            return;
+        }
+        if (ackRecords < COMPACT_THRESHOLD || ackRecords < pending.size()) {
+            return;
+        }
+        File tmp = new File(dir, LOG_NAME + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            BufferedSink sink = Okio.buffer(Okio.sink(out));
+            for (Entry entry : pending.values()) {
+                writeRecord(sink, entry.encode());
+            }
+            sink.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        closeLog();
+        if (!tmp.renameTo(logFile)) {
+            tmp.delete();
+            throw new IOException("can't replace " + logFile);
+        }
+        openLog(true);
+        dirty = false;
+        ackRecords = 0;
+    }
+
+    /**
+     * 按顺序发送还没有在发送中的条目，直到达到并发上限
+     */
+    private void drain() {
+        if (closed || offline) {
+            return;
+        }
+        for (Entry entry : pending.values()) {
+            if (inFlight.size() >= maxConcurrency) {
+                break;
+            }
+            if (!inFlight.containsKey(entry.seq)) {
+                send(entry);
+            }
+        }
+    }
+
+    private void send(final Entry entry) {
+        FormBody.Builder form = new FormBody.Builder();
+        for (Map.Entry<String, String> param : entry.params.entrySet()) {
+            form.add(param.getKey(), param.getValue());
+        }
+        Request request = new Request.Builder()
+                .url(entry.url)
+                .post(form.build())
+                .build();
+        Call.Factory factory = client != null ? client : OkHttpClientUtils.callFactory();
+        Call call = factory.newCall(request);
+        final int sentGeneration = generation;
+        inFlight.put(entry.seq, call);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFailed(entry, sentGeneration);
+                    }
+                });
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                final int code = response.code();
+                response.close();
+                EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onResult(entry, code, sentGeneration);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onResult(Entry entry, int code, int sentGeneration) {
+        if (closed) {
+            return;
+        }
+        if (code >= 200 && code < 300) {
+            acknowledge(entry);
+            deliveredCount.incrementAndGet();
+        } else if (code >= 400 && code < 500 && code != 408 && code != 429) {
+            //请求本身有问题，重发也不会成功
+            acknowledge(entry);
+            rejectedCount.incrementAndGet();
+            if (listener != null) {
+                listener.onRejected(entry.url, entry.params, code);
+            }
+        } else {
+            onFailed(entry, sentGeneration);
+        }
+    }
+
+    private void acknowledge(Entry entry) {
+        inFlight.remove(entry.seq);
+        if (pending.remove(entry.seq) == null) {
+            return;
+        }
+        pendingCount.decrementAndGet();
+        Buffer ack = new Buffer();
+        ack.writeByte(ACK);
+        ack.writeLong(entry.seq);
+        write(ack);
+        ackRecords++;
+        failures = 0;
+        try {
+            maybeCompact();
+        } catch (IOException e) {
+            closeLog();
+        }
+        drain();
+    }
+
+    /**
+     * 发送失败，暂停发送直到退避时间结束或者retryNow()
+     */
+    private void onFailed(Entry entry, int sentGeneration) {
+        inFlight.remove(entry.seq);
+        if (closed) {
+            return;
+        }
+        if (sentGeneration != generation) {
+            //retryNow()之前发出的请求，失败不代表现在仍然离线
+            drain();
+            return;
+        }
+        offline = true;
+        if (retryTask != null) {
+            return;
+        }
+        failures++;
+        long delay = Math.min(maxRetryDelayMillis, retryDelayMillis << Math.min(failures - 1, 20));
+        retryTask = EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                retryTask = null;
+                offline = false;
+                drain();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeString(Buffer buffer, String value) {
+        ByteString bytes = ByteString.encodeUtf8(value);
+        buffer.writeInt(bytes.size());
+        buffer.write(bytes);
+    }
+
+    private static String readString(Buffer buffer) throws IOException {
+        int length = buffer.readInt();
+        return buffer.readUtf8(length);
+    }
+
+    /**
+     * 发件箱中的一条
+     */
+    private static final class Entry {
+        final long seq;
+        final String url;
+        final Map<String, String> params;
+
+        Entry(long seq, String url, Map<String, String> params) {
+            this.seq = seq;
+            this.url = url;
+            this.params = params;
+        }
+
+        Buffer encode() {
+            Buffer buffer = new Buffer();
+            buffer.writeByte(APPEND);
+            buffer.writeLong(seq);
+            writeString(buffer, url);
+            buffer.writeInt(params.size());
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                writeString(buffer, param.getKey());
+                writeString(buffer, param.getValue());
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * 服务器拒绝时的回调，在Outbox的线程中调用，不要做耗时操作
+     */
+    public interface Listener {
+        void onRejected(String url, Map<String, String> params, int code);
+    }
+
+    public static final class Builder {
+        private File dir;
+        private Call.Factory client;
+        private int maxConcurrency = 2;
+        private long syncIntervalMillis = 200;
+        private long retryDelayMillis = 1000;
+        private long maxRetryDelayMillis = 5 * 60 * 1000;
+        private Listener listener;
+
+        /**
+         * 保存日志的目录，同一个目录同时只能有一个Outbox，例如context.getFilesDir()下的子目录
+         */
+        public Builder directory(File dir) {
+            this.dir = dir;
+            return this;
+        }
+
+        /**
+         * 不设置时使用OkHttpClientUtils的根client
+         */
+        public Builder client(Call.Factory client) {
+            this.client = client;
+            return this;
+        }
+
+        /**
+         * 同时发送的最大条目数，默认2；为1时严格按提交顺序到达服务器
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency < 1");
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * 日志写入磁盘(fsync)的间隔，默认200毫秒；进程被杀时最多丢失这段时间内post的内容
+         */
+        public Builder syncInterval(long interval, TimeUnit unit) {
+            if (interval <= 0) throw new IllegalArgumentException("syncInterval <= 0");
+            this.syncIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * 第一次失败后的重试间隔，之后每次翻倍，默认1秒
+         */
+        public Builder retryDelay(long delay, TimeUnit unit) {
+            if (delay <= 0) throw new IllegalArgumentException("retryDelay <= 0");
+            this.retryDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * 重试间隔的上限，默认5分钟
+         */
+        public Builder maxRetryDelay(long delay, TimeUnit unit) {
+            if (delay <= 0) throw new IllegalArgumentException("maxRetryDelay <= 0");
+            this.maxRetryDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public Outbox build() {
+            if (dir == null) throw new IllegalStateException("directory == null");
+            return new Outbox(this);
+        }
+    }
+}
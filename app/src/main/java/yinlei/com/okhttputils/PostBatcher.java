@@ -0,0 +1,282 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+
+/**
+ * 把多个小表单合并成一个请求发给批量接口
+ * <p>
+ * submit的表单先放在队列中，攒够maxBatchSize个或者第一个表单等待超过maxDelay时一起发送，
+ * 请求体是JSON数组，每个元素是一个表单的键值对。批量接口整体成功或整体失败，
+ * 同一批次的每一项收到的是同一个响应。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: PostBatcher.java
+ * @author: myName
+ * @date: 2026-10-18 19:15
+ */
+
+public final class PostBatcher {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OkHttpUtils PostBatcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Call.Factory client;
+    private final String url;
+    private final Object tag;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+
+    private List<Item> pending = new ArrayList<Item>();
+    private ScheduledFuture<?> flushTimer;
+
+    private PostBatcher(Builder builder) {
+        if (builder.url == null) throw new IllegalStateException("url == null");
+        this.client = builder.client != null ? builder.client : OkHttpClientUtils.getOkHttpClientSingleInstance();
+        this.url = builder.url;
+        this.tag = builder.tag;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxDelayMillis = builder.maxDelayMillis;
+    }
+
+    /**
+     * 提交一个表单
+     *
+     * @param form     不能有null的key，value为null时发送JSON的null；提交时复制一份，之后修改不影响这次提交
+     * @param callback 收到批次的响应时回调onSuccess(包括非2xx，通过BatchResult.isSuccessful()判断)，
+     *                 网络失败时回调onFailure；在Dispatcher的线程中调用
+     */
+    public void submit(Map<String, String> form, ResultCallback<BatchResult> callback) {
+        if (form == null) throw new NullPointerException("form == null");
+        //在调用线程中检查，不要等到定时发送时在后台线程中失败
+        Map<String, String> copy = new LinkedHashMap<String, String>(form);
+        for (String key : copy.keySet()) {
+            if (key == null) throw new NullPointerException("form key == null");
+        }
+        List<Item> batch = null;
+        synchronized (this) {
+            pending.add(new Item(copy, callback));
+            if (pending.size() >= maxBatchSize) {
+                batch = drain();
+            } else if (flushTimer == null) {
+                flushTimer = TIMER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    /**
+     * 立即发送队列中的表单
+     */
+    public void flush() {
+        List<Item> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    private List<Item> drain() {
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+        List<Item> batch = pending;
+        pending = new ArrayList<Item>();
+        return batch;
+    }
+
+    private void send(final List<Item> batch) {
+        List<Map<String, String>> forms = new ArrayList<Map<String, String>>(batch.size());
+        for (Item item : batch) {
+            forms.add(item.form);
+        }
+        Request request = new Request.Builder()
+                .url(url)
+                .tag(tag)
+                .post(RequestBody.create(JSON, toJson(forms)))
+                .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                for (Item item : batch) {
+                    item.callback.onFailure(call, e);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                BatchResult result;
+                try {
+                    result = new BatchResult(response.code(), response.body().string(), null);
+                } catch (IOException e) {
+                    onFailure(call, e);
+                    return;
+                } finally {
+                    response.close();
+                }
+                for (Item item : batch) {
+                    item.callback.onSuccess(call, result);
+                }
+            }
+        });
+    }
+
+    /**
+     * [{"key":"value",...},...]
+     */
+    static String toJson(List<Map<String, String>> forms) {
+        Buffer buffer = new Buffer();
+        buffer.writeByte('[');
+        for (int i = 0; i < forms.size(); i++) {
+            if (i > 0) {
+                buffer.writeByte(',');
+            }
+            buffer.writeByte('{');
+            boolean first = true;
+            for (Map.Entry<String, String> entry : forms.get(i).entrySet()) {
+                if (!first) {
+                    buffer.writeByte(',');
+                }
+                first = false;
+                writeJsonString(buffer, entry.getKey());
+                buffer.writeByte(':');
+                if (entry.getValue() == null) {
+                    buffer.writeUtf8("null");
+                } else {
+                    writeJsonString(buffer, entry.getValue());
+                }
+            }
+            buffer.writeByte('}');
+        }
+        buffer.writeByte(']');
+        return buffer.readUtf8();
+    }
+
+    private static void writeJsonString(Buffer buffer, String value) {
+        buffer.writeByte('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                replacement = String.format(Locale.US, "\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            buffer.writeUtf8(value, start, i);
+            buffer.writeUtf8(replacement);
+            start = i + 1;
+        }
+        buffer.writeUtf8(value, start, value.length());
+        buffer.writeByte('"');
+    }
+
+    private static final class Item {
+        final Map<String, String> form;
+        final ResultCallback<BatchResult> callback;
+
+        Item(Map<String, String> form, ResultCallback<BatchResult> callback) {
+            this.form = form;
+            this.callback = callback;
+        }
+    }
+
+    public static final class Builder {
+        private Call.Factory client;
+        private String url;
+        private Object tag;
+        private int maxBatchSize = 50;
+        private long maxDelayMillis = 200;
+
+        /**
+         * 不设置时使用OkHttpClientUtils的根client
+         */
+        public Builder client(Call.Factory client) {
+            this.client = client;
+            return this;
+        }
+
+        /**
+         * 批量接口的地址
+         */
+        public Builder url(String url) {
+            this.url = url;
+            return this;
+        }
+
+        public Builder tag(Object tag) {
+            this.tag = tag;
+            return this;
+        }
+
+        /**
+         * 攒够这么多个表单立即发送
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1) throw new IllegalArgumentException("maxBatchSize < 1");
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * 第一个表单最多等待这么久就发送，默认200毫秒
+         */
+        public Builder maxDelay(long delay, TimeUnit unit) {
+            if (delay < 0) throw new IllegalArgumentException("maxDelay < 0");
+            this.maxDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        public PostBatcher build() {
+            return new PostBatcher(this);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package yinlei.com.okhttputils;
+
+/**
+ * 带有优先级的tag，同一个tag既可以按tag取消，也可以决定请求的优先级
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: Prioritized.java
+ * @author: myName
+ * @date: 2026-10-18 20:22
+ */
+
+public interface Prioritized {
+
+    Priority priority();
+}
@@ -0,0 +1,55 @@
+package yinlei.com.okhttputils;
+
+import okhttp3.Request;
+
+/**
+ * 请求的优先级，开启PriorityScheduler后排队的异步请求按优先级执行
+ * <p>
+ * 设置方式(按顺序查找)：Request.Builder.tag(Priority.class, priority)；
+ * 请求的tag本身是Priority，例如 OkHttpClientUtils.getDataAsync(url, callback, Priority.LOW)；
+ * tag实现了Prioritized接口。都没有时为NORMAL。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: Priority.java
+ * @author: myName
+ * @date: 2026-10-18 20:20
+ */
+
+public enum Priority {
+
+    /**
+     * 用户正在等待的请求
+     */
+    HIGH,
+
+    NORMAL,
+
+    /**
+     * 预加载、上传、统计等后台请求
+     */
+    LOW;
+
+    /**
+     * 请求的优先级
+     *
+     * @param request
+     * @return
+     */
+    public static Priority of(Request request) {
+        Priority priority = request.tag(Priority.class);
+        if (priority != null) {
+            return priority;
+        }
+        Object tag = request.tag();
+        if (tag instanceof Priority) {
+            return (Priority) tag;
+        }
+        if (tag instanceof Prioritized) {
+            Priority declared = ((Prioritized) tag).priority();
+            if (declared != null) {
+                return declared;
+            }
+        }
+        return NORMAL;
+    }
+}
@@ -0,0 +1,491 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Timeout;
+
+/**
+ * 按优先级调度异步请求，代替Dispatcher的先进先出队列
+ * <p>
+ * 异步请求先放在这里按优先级排队，全局和单个host的并发数都没有超过上限时才交给OkHttp的Dispatcher，
+ * 所以Dispatcher自己的队列始终是空的。同一优先级内先进先出；排队每超过agingInterval，
+ * 请求的有效优先级提高一级，低优先级的请求不会一直等下去。
+ * 同步请求不排队(和OkHttp一致，避免在回调中同步请求时互相等待)，但计入正在执行的数量。
+ * 名额在回调返回或者execute返回时释放，不等待响应体读完。
+ * 配置了排队方式的AdaptiveLimiter时，单个host的上限使用它自适应调整的值，代替maxRequestsPerHost。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: PriorityScheduler.java
+ * @author: myName
+ * @date: 2026-10-18 20:25
+ */
+
+public final class PriorityScheduler {
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final long agingNanos;
+    private int maxRequests;
+    private int maxRequestsPerHost;
+    private volatile AdaptiveLimiter limiter;
+
+    private final List<ArrayDeque<ScheduledCall>> queues = new ArrayList<ArrayDeque<ScheduledCall>>(PRIORITIES.length);
+    private final Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+    private int running;
+    private final PriorityMetrics[] metrics = new PriorityMetrics[PRIORITIES.length];
+
+    private PriorityScheduler(Builder builder) {
+        this.maxRequests = builder.maxRequests;
+        this.maxRequestsPerHost = builder.maxRequestsPerHost;
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(builder.agingIntervalMillis);
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            queues.add(new ArrayDeque<ScheduledCall>());
+            metrics[i] = new PriorityMetrics();
+        }
+    }
+
+    /**
+     * 创建经过调度的请求
+     *
+     * @param factory 真正创建请求的client
+     * @param request
+     * @return
+     */
+    Call newCall(Call.Factory factory, Request request) {
+        //使用AdaptiveLimiter时和它按同样的"主机:端口"计数
+        String host = limiter != null ? CircuitBreaker.hostOf(request.url()) : request.url().host();
+        return new ScheduledCall(factory.newCall(request), Priority.of(request), host);
+    }
+
+    public synchronized int maxRequests() {
+        return maxRequests;
+    }
+
+    public synchronized int maxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * 修改全局并发上限，立即生效
+     *
+     * @param maxRequests
+     */
+    public void setMaxRequests(int maxRequests) {
+        if (maxRequests < 1) throw new IllegalArgumentException("maxRequests < 1");
+        List<ScheduledCall> ready;
+        synchronized (this) {
+            this.maxRequests = maxRequests;
+            ready = promote();
+        }
+        start(ready);
+    }
+
+    /**
+     * 修改单个host的并发上限，立即生效
+     *
+     * @param maxRequestsPerHost
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) throw new IllegalArgumentException("maxRequestsPerHost < 1");
+        List<ScheduledCall> ready;
+        synchronized (this) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            ready = promote();
+        }
+        start(ready);
+    }
+
+    /**
+     * 单个host的上限改由limiter决定，只有OverflowPolicy.QUEUE时生效
+     */
+    synchronized void adaptiveLimiter(AdaptiveLimiter limiter) {
+        this.limiter = limiter != null && limiter.policy() == AdaptiveLimiter.OverflowPolicy.QUEUE ? limiter : null;
+    }
+
+    /**
+     * 正在执行的请求数
+     */
+    public synchronized int runningCount() {
+        return running;
+    }
+
+    /**
+     * 排队中的请求数
+     */
+    public synchronized int queuedCount() {
+        int count = 0;
+        for (ArrayDeque<ScheduledCall> queue : queues) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    /**
+     * 某个优先级的排队统计
+     *
+     * @param priority
+     * @return
+     */
+    public Stats stats(Priority priority) {
+        PriorityMetrics m = metrics[priority.ordinal()];
+        int depth;
+        synchronized (this) {
+            depth = queues.get(priority.ordinal()).size();
+        }
+        return new Stats(priority, depth, m.maxDepth.get(), m.enqueued.get(), m.started.get(), m.aged.get(),
+                m.canceled.get(), m.waitTime.snapshot());
+    }
+
+    /**
+     * 有名额时按有效优先级取出请求，需要在锁内调用，返回的请求在锁外启动
+     */
+    private List<ScheduledCall> promote() {
+        List<ScheduledCall> ready = null;
+        long now = System.nanoTime();
+        while (running < maxRequests) {
+            ScheduledCall next = selectNext(now);
+            if (next == null) {
+                break;
+            }
+            queues.get(next.priority.ordinal()).remove(next);
+            acquire(next.host);
+            PriorityMetrics m = metrics[next.priority.ordinal()];
+            m.started.incrementAndGet();
+            m.waitTime.recordNanos(now - next.enqueuedNanos);
+            if (ready == null) {
+                ready = new ArrayList<ScheduledCall>();
+            }
+            ready.add(next);
+        }
+        return ready;
+    }
+
+    /**
+     * 每个优先级中第一个host还有名额的请求(也就是这个host等待最久的)，比较它们的有效优先级，
+     * 相同时原本优先级高的先执行
+     */
+    private ScheduledCall selectNext(long now) {
+        ScheduledCall best = null;
+        long bestLevel = Long.MAX_VALUE;
+        for (int level = 0; level < PRIORITIES.length; level++) {
+            for (ScheduledCall call : queues.get(level)) {
+                if (hostRunning(call.host) >= hostLimit(call.host)) {
+                    continue;
+                }
+                long effective = level;
+                if (agingNanos > 0) {
+                    effective = Math.max(0, level - (now - call.enqueuedNanos) / agingNanos);
+                }
+                if (effective < bestLevel) {
+                    best = call;
+                    bestLevel = effective;
+                }
+                break;
+            }
+        }
+        if (best != null && bestLevel < best.priority.ordinal()) {
+            metrics[best.priority.ordinal()].aged.incrementAndGet();
+        }
+        return best;
+    }
+
+    private int hostLimit(String host) {
+        return limiter != null ? limiter.limit(host) : maxRequestsPerHost;
+    }
+
+    private int hostRunning(String host) {
+        Integer count = runningPerHost.get(host);
+        return count != null ? count : 0;
+    }
+
+    private void acquire(String host) {
+        running++;
+        runningPerHost.put(host, hostRunning(host) + 1);
+    }
+
+    private void release(String host) {
+        List<ScheduledCall> ready;
+        synchronized (this) {
+            running--;
+            int count = hostRunning(host) - 1;
+            if (count > 0) {
+                runningPerHost.put(host, count);
+            } else {
+                runningPerHost.remove(host);
+            }
+            ready = promote();
+        }
+        start(ready);
+    }
+
+    private void start(List<ScheduledCall> ready) {
+        if (ready != null) {
+            for (ScheduledCall call : ready) {
+                call.delegate.enqueue(call.callback);
+            }
+        }
+    }
+
+    private static final class PriorityMetrics {
+        final AtomicLong enqueued = new AtomicLong();
+        final AtomicLong started = new AtomicLong();
+        final AtomicLong aged = new AtomicLong();
+        final AtomicLong canceled = new AtomicLong();
+        final AtomicLong maxDepth = new AtomicLong();
+        final LatencyHistogram waitTime = new LatencyHistogram();
+    }
+
+    private final class ScheduledCall implements Call {
+        final Call delegate;
+        final Priority priority;
+        final String host;
+        long enqueuedNanos;
+        SchedulingCallback callback;
+
+        ScheduledCall(Call delegate, Priority priority, String host) {
+            this.delegate = delegate;
+            this.priority = priority;
+            this.host = host;
+        }
+
+        @Override
+        public Request request() {
+            return delegate.request();
+        }
+
+        @Override
+        public Response execute() throws IOException {
+            synchronized (PriorityScheduler.this) {
+                acquire(host);
+            }
+            try {
+                return delegate.execute();
+            } finally {
+                release(host);
+            }
+        }
+
+        @Override
+        public void enqueue(Callback responseCallback) {
+            List<ScheduledCall> ready;
+            synchronized (PriorityScheduler.this) {
+                if (callback != null) throw new IllegalStateException("Already Executed");
+                callback = new SchedulingCallback(responseCallback, this);
+                enqueuedNanos = System.nanoTime();
+                ArrayDeque<ScheduledCall> queue = queues.get(priority.ordinal());
+                queue.add(this);
+                PriorityMetrics m = metrics[priority.ordinal()];
+                m.enqueued.incrementAndGet();
+                if (queue.size() > m.maxDepth.get()) {
+                    m.maxDepth.set(queue.size());
+                }
+                ready = promote();
+            }
+            start(ready);
+        }
+
+        @Override
+        public void cancel() {
+            delegate.cancel();
+            boolean wasQueued;
+            synchronized (PriorityScheduler.this) {
+                wasQueued = callback != null && queues.get(priority.ordinal()).remove(this);
+                if (wasQueued) {
+                    //不占名额，交给OkHttp回调onFailure
+                    callback.holdsSlot = false;
+                    metrics[priority.ordinal()].canceled.incrementAndGet();
+                }
+            }
+            if (wasQueued) {
+                delegate.enqueue(callback);
+            }
+        }
+
+        @Override
+        public boolean isExecuted() {
+            synchronized (PriorityScheduler.this) {
+                if (callback != null) {
+                    return true;
+                }
+            }
+            return delegate.isExecuted();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return delegate.isCanceled();
+        }
+
+        @Override
+        public Timeout timeout() {
+            return delegate.timeout();
+        }
+
+        @Override
+        public Call clone() {
+            return new ScheduledCall(delegate.clone(), priority, host);
+        }
+    }
+
+    private final class SchedulingCallback implements Callback {
+        final Callback delegate;
+        final ScheduledCall call;
+        volatile boolean holdsSlot = true;
+
+        SchedulingCallback(Callback delegate, ScheduledCall call) {
+            this.delegate = delegate;
+            this.call = call;
+        }
+
+        @Override
+        public void onFailure(Call ignored, IOException e) {
+            try {
+                delegate.onFailure(call, e);
+            } finally {
+                finished();
+            }
+        }
+
+        @Override
+        public void onResponse(Call ignored, Response response) throws IOException {
+            try {
+                delegate.onResponse(call, response);
+            } finally {
+                finished();
+            }
+        }
+
+        private void finished() {
+            if (holdsSlot) {
+                release(call.host);
+            }
+        }
+    }
+
+    /**
+     * 某个优先级在某一时刻的排队统计
+     */
+    public static final class Stats {
+        private final Priority priority;
+        private final int queueDepth;
+        private final long maxQueueDepth;
+        private final long enqueued;
+        private final long started;
+        private final long aged;
+        private final long canceled;
+        private final LatencyHistogram.Snapshot waitTime;
+
+        Stats(Priority priority, int queueDepth, long maxQueueDepth, long enqueued, long started, long aged,
+              long canceled, LatencyHistogram.Snapshot waitTime) {
+            this.priority = priority;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.enqueued = enqueued;
+            this.started = started;
+            this.aged = aged;
+            this.canceled = canceled;
+            this.waitTime = waitTime;
+        }
+
+        public Priority priority() {
+            return priority;
+        }
+
+        /**
+         * 当前排队的请求数
+         */
+        public int queueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * 出现过的最大排队数
+         */
+        public long maxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        public long enqueued() {
+            return enqueued;
+        }
+
+        public long started() {
+            return started;
+        }
+
+        /**
+         * 因为等待太久提高了优先级才执行的请求数
+         */
+        public long aged() {
+            return aged;
+        }
+
+        /**
+         * 排队时被取消的请求数
+         */
+        public long canceled() {
+            return canceled;
+        }
+
+        /**
+         * 从enqueue到交给Dispatcher的等待时间，微秒
+         */
+        public LatencyHistogram.Snapshot waitTime() {
+            return waitTime;
+        }
+
+        @Override
+        public String toString() {
+            return priority + "{depth=" + queueDepth + ", maxDepth=" + maxQueueDepth + ", enqueued=" + enqueued
+                    + ", started=" + started + ", aged=" + aged + ", canceled=" + canceled + ", wait=" + waitTime + "}";
+        }
+    }
+
+    public static final class Builder {
+        private int maxRequests = 64;
+        private int maxRequestsPerHost = 5;
+        private long agingIntervalMillis = 1000;
+
+        /**
+         * 同时执行的最大请求数，默认64
+         */
+        public Builder maxRequests(int maxRequests) {
+            if (maxRequests < 1) throw new IllegalArgumentException("maxRequests < 1");
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * 同一个host同时执行的最大请求数，默认5
+         */
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            if (maxRequestsPerHost < 1) throw new IllegalArgumentException("maxRequestsPerHost < 1");
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * 排队每超过这么久优先级提高一级，默认1秒，0表示不提高
+         */
+        public Builder agingInterval(long interval, TimeUnit unit) {
+            if (interval < 0) throw new IllegalArgumentException("agingInterval < 0");
+            this.agingIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        public PriorityScheduler build() {
+            return new PriorityScheduler(this);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package yinlei.com.okhttputils;
+
+/**
+ * 传输进度回调，在执行传输的线程中调用，不要在回调里做耗时操作
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: ProgressListener.java
+ * @author: myName
+ * @date: 2026-10-18 10:40
+ */
+
+public interface ProgressListener {
+
+    /**
+     * @param bytesTransferred 已传输的字节数，断点续传时包含之前已完成的部分
+     * @param contentLength    总字节数，未知时为-1
+     * @param bytesPerSecond   本次传输的平均速度
+     */
+    void onProgress(long bytesTransferred, long contentLength, long bytesPerSecond);
+}
@@ -0,0 +1,403 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.Timeout;
+
+/**
+ * 合并相同的GET请求
+ * <p>
+ * method、url以及会影响响应内容的请求头都相同的请求同时进行时，只发送一次网络请求，
+ * 响应体读入内存后分发给所有等待的调用方(每个调用方拿到的是独立的Response)，失败时每个调用方都收到同样的异常。
+ * 某个调用方取消只会让它自己退出，所有调用方都取消之后才取消真正的网络请求；先取消再执行的请求直接失败，不会发出网络请求。
+ * 同步请求在调用线程中执行网络请求，只和其他同步请求发起的网络请求合并，不会等待排在Dispatcher队列里的异步请求，
+ * 避免在异步回调中同步请求时占满Dispatcher的线程互相等待；异步请求可以加入任何一种。
+ * 响应体会整体读入内存，所以只用于获取字符串、字节数组和对象的接口，不用于下载和输入流。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: RequestCoalescer.java
+ * @author: myName
+ * @date: 2026-10-18 14:30
+ */
+
+final class RequestCoalescer implements Call.Factory {
+
+    //这些请求头不同时响应内容可能不同，不能合并
+    private static final String[] VARY_HEADERS = {
+            "Accept", "Accept-Encoding", "Accept-Language", "Authorization", "Cookie", "Cache-Control", "Range"
+    };
+
+    private final Call.Factory delegate;
+    private final Executor callbackExecutor;
+    //异步请求发起的网络请求，在Dispatcher中执行
+    private final Map<String, Flight> flights = new HashMap<String, Flight>();
+    //同步请求发起的网络请求，在第一个调用方的线程中执行
+    private final Map<String, Flight> syncFlights = new HashMap<String, Flight>();
+    private final AtomicLong flightCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * @param delegate         发送真正网络请求的Call.Factory
+     * @param callbackExecutor 执行异步回调的线程池，使用Dispatcher的线程池
+     */
+    RequestCoalescer(Call.Factory delegate, Executor callbackExecutor) {
+        this.delegate = delegate;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    @Override
+    public Call newCall(Request request) {
+        if (!"GET".equals(request.method())) {
+            return delegate.newCall(request);
+        }
+        return new CoalescedCall(request, keyOf(request));
+    }
+
+    /**
+     * 实际发出的网络请求数
+     */
+    long flightCount() {
+        return flightCount.get();
+    }
+
+    /**
+     * 被合并掉、没有单独发出的请求数
+     */
+    long coalescedCount() {
+        return coalescedCount.get();
+    }
+
+    static String keyOf(Request request) {
+        StringBuilder key = new StringBuilder(request.method()).append(' ').append(request.url());
+        for (String name : VARY_HEADERS) {
+            List<String> values = request.headers(name);
+            if (!values.isEmpty()) {
+                key.append('\n').append(name).append(':').append(values);
+            }
+        }
+        //上限不同的请求不能共用一个响应
+        ResponseSizeLimit limit = ResponseSizeLimit.of(request);
+        if (limit != null) {
+            key.append("\nlimit:").append(limit.maxBytes());
+        }
+        return key.toString();
+    }
+
+    /**
+     * 加入或者发起网络请求；已经取消的请求不加入。
+     * 返回需要由调用方线程执行的同步网络请求，其他情况返回null
+     */
+    private Flight join(CoalescedCall call, boolean sync) {
+        Flight flight;
+        boolean start = false;
+        synchronized (this) {
+            //和leave用同一把锁，取消之后不会再加入
+            if (call.canceled) {
+                return null;
+            }
+            flight = syncFlights.get(call.key);
+            if (flight == null && !sync) {
+                flight = flights.get(call.key);
+            }
+            if (flight == null) {
+                flight = new Flight(call.key, call.request, sync);
+                flightsOf(flight).put(call.key, flight);
+                start = true;
+            } else {
+                coalescedCount.incrementAndGet();
+            }
+            flight.waiters.add(call);
+            call.flight = flight;
+        }
+        if (!start) {
+            return null;
+        }
+        flightCount.incrementAndGet();
+        if (sync) {
+            return flight;
+        }
+        flight.start();
+        return null;
+    }
+
+    private Map<String, Flight> flightsOf(Flight flight) {
+        return flight.sync ? syncFlights : flights;
+    }
+
+    private void leave(CoalescedCall call) {
+        Flight flight;
+        boolean cancelFlight = false;
+        synchronized (this) {
+            flight = call.flight;
+            if (flight != null && flight.waiters.remove(call) && flight.waiters.isEmpty() && !flight.finished) {
+                if (flightsOf(flight).get(flight.key) == flight) {
+                    flightsOf(flight).remove(flight.key);
+                }
+                cancelFlight = true;
+            }
+        }
+        if (cancelFlight) {
+            flight.networkCall.cancel();
+        }
+    }
+
+    /**
+     * 一次真正的网络请求
+     */
+    private final class Flight implements Callback {
+        final String key;
+        final boolean sync;
+        final Call networkCall;
+        final List<CoalescedCall> waiters = new ArrayList<CoalescedCall>();
+        boolean finished;
+
+        Flight(String key, Request request, boolean sync) {
+            this.key = key;
+            this.sync = sync;
+            //合并后的请求不属于任何一个调用方的tag，只保留优先级和大小上限
+            this.networkCall = delegate.newCall(request.newBuilder()
+                    .tag(null)
+                    .tag(Priority.class, Priority.of(request))
+                    .tag(ResponseSizeLimit.class, ResponseSizeLimit.of(request))
+                    .build());
+        }
+
+        void start() {
+            networkCall.enqueue(this);
+        }
+
+        /**
+         * 在调用方线程中执行同步的网络请求，结果同样分发给所有调用方
+         */
+        void run() {
+            Response response;
+            try {
+                response = networkCall.execute();
+            } catch (IOException e) {
+                onFailure(networkCall, e);
+                return;
+            } catch (RuntimeException e) {
+                //其他同步调用方在等待，不能只抛给第一个
+                onFailure(networkCall, new IOException(e));
+                throw e;
+            }
+            onResponse(networkCall, response);
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            for (CoalescedCall waiter : finish()) {
+                waiter.fail(e);
+            }
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            Buffer buffer = new Buffer();
+            ResponseBody body = response.body();
+            try {
+                buffer.writeAll(body.source());
+            } catch (IOException e) {
+                onFailure(call, e);
+                return;
+            } finally {
+                body.close();
+            }
+            for (CoalescedCall waiter : finish()) {
+                //Buffer.clone()共享Segment，不会复制数据
+                Buffer copy = buffer.clone();
+                waiter.succeed(response.newBuilder()
+                        .request(waiter.request)
+                        .body(ResponseBody.create(body.contentType(), copy.size(), copy))
+                        .build());
+            }
+        }
+
+        private List<CoalescedCall> finish() {
+            synchronized (RequestCoalescer.this) {
+                finished = true;
+                if (flightsOf(this).get(key) == this) {
+                    flightsOf(this).remove(key);
+                }
+                return new ArrayList<CoalescedCall>(waiters);
+            }
+        }
+    }
+
+    /**
+     * 调用方拿到的Call
+     */
+    private final class CoalescedCall implements Call {
+        final Request request;
+        final String key;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Flight flight;
+        private volatile boolean executed;
+        private volatile boolean canceled;
+        private Callback callback;
+        private Response response;
+        private IOException failure;
+
+        CoalescedCall(Request request, String key) {
+            this.request = request;
+            this.key = key;
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        /**
+         * 第一个调用方在自己的线程中执行网络请求，不占用也不等待Dispatcher的线程；
+         * 它取消时如果还有其他调用方，要等网络请求结束才返回
+         */
+        @Override
+        public Response execute() throws IOException {
+            markExecuted();
+            Flight flight = join(this, true);
+            if (flight != null) {
+                flight.run();
+            }
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                cancel();
+                throw new InterruptedIOException("interrupted while waiting for " + request.url());
+            }
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+        }
+
+        @Override
+        public void enqueue(final Callback responseCallback) {
+            markExecuted();
+            final IOException canceledFailure;
+            synchronized (this) {
+                callback = responseCallback;
+                canceledFailure = failure;
+            }
+            if (canceledFailure != null) {
+                //enqueue之前已经取消，fail()当时还没有回调可以通知
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        responseCallback.onFailure(CoalescedCall.this, canceledFailure);
+                    }
+                });
+                return;
+            }
+            join(this, false);
+        }
+
+        private void markExecuted() {
+            synchronized (this) {
+                if (executed) throw new IllegalStateException("Already Executed");
+                executed = true;
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (canceled) {
+                return;
+            }
+            canceled = true;
+            leave(this);
+            fail(new IOException("Canceled"));
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return executed;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        /**
+         * 多个调用方共用同一个网络请求，超时由client的callTimeout控制
+         */
+        @Override
+        public Timeout timeout() {
+            return Timeout.NONE;
+        }
+
+        @Override
+        public Call clone() {
+            return new CoalescedCall(request, key);
+        }
+
+        void succeed(final Response result) {
+            final Callback target;
+            synchronized (this) {
+                if (done.getCount() == 0 || canceled) {
+                    result.close();
+                    return;
+                }
+                response = result;
+                target = callback;
+                done.countDown();
+            }
+            if (target != null) {
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            target.onResponse(CoalescedCall.this, result);
+                        } catch (IOException e) {
+                            target.onFailure(CoalescedCall.this, e);
+                        }
+                    }
+                });
+            }
+        }
+
+        void fail(final IOException e) {
+            final Callback target;
+            synchronized (this) {
+                if (done.getCount() == 0) {
+                    return;
+                }
+                failure = e;
+                target = callback;
+                done.countDown();
+            }
+            if (target != null) {
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        target.onFailure(CoalescedCall.this, e);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * 每个调用方的回调在Dispatcher的线程池中单独执行，一个回调耗时不会拖慢其他调用方
+     */
+    private void dispatch(Runnable runnable) {
+        callbackExecutor.execute(runnable);
+    }
+}
@@ -0,0 +1,180 @@
+package yinlei.com.okhttputils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * 读取完的响应体：不超过内存阈值时保存在内存中，超过后把已读的部分和剩余部分写入临时文件，
+ * 读取时按需打开文件，也可以内存映射整个文件，不用一次占用等量的堆内存
+ * <p>
+ * 可以多次读取；使用完必须close()，删除临时文件
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: ResponseBuffer.java
+ * @author: myName
+ * @date: 2026-10-18 22:55
+ */
+
+public final class ResponseBuffer implements Closeable {
+
+    private final MediaType contentType;
+    private final long size;
+    //两者只有一个不为null
+    private final Buffer memory;
+    private final File file;
+
+    private ResponseBuffer(MediaType contentType, long size, Buffer memory, File file) {
+        this.contentType = contentType;
+        this.size = size;
+        this.memory = memory;
+        this.file = file;
+    }
+
+    /**
+     * 读取整个响应体并关闭它
+     *
+     * @param body
+     * @param memoryThreshold 内存中最多保存的字节数，超过时写入临时文件
+     * @return
+     * @throws IOException
+     */
+    public static ResponseBuffer read(ResponseBody body, long memoryThreshold) throws IOException {
+        return read(body.source(), body.contentType(), memoryThreshold, null);
+    }
+
+    /**
+     * 读取整个source并关闭它
+     *
+     * @param source
+     * @param contentType     可以为null
+     * @param memoryThreshold 内存中最多保存的字节数，超过时写入临时文件
+     * @param tempDir         临时文件所在的目录，为null时使用java.io.tmpdir
+     * @return
+     * @throws IOException
+     */
+    public static ResponseBuffer read(BufferedSource source, MediaType contentType, long memoryThreshold,
+                                      File tempDir) throws IOException {
+        if (memoryThreshold < 0) throw new IllegalArgumentException("memoryThreshold < 0");
+        try {
+            //多请求一个字节，判断是否超过阈值；Long.MAX_VALUE表示全部放在内存中
+            if (memoryThreshold == Long.MAX_VALUE || !source.request(memoryThreshold + 1)) {
+                Buffer memory = new Buffer();
+                source.readAll(memory);
+                return new ResponseBuffer(contentType, memory.size(), memory, null);
+            }
+            File file = File.createTempFile("okhttputils", ".body", tempDir);
+            boolean ok = false;
+            try {
+                BufferedSink sink = Okio.buffer(Okio.sink(file));
+                long size;
+                try {
+                    size = sink.writeAll(source);
+                } finally {
+                    sink.close();
+                }
+                ok = true;
+                return new ResponseBuffer(contentType, size, null, file);
+            } finally {
+                if (!ok) {
+                    file.delete();
+                }
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isInMemory() {
+        return memory != null;
+    }
+
+    /**
+     * 临时文件，在内存中时返回null
+     */
+    public File file() {
+        return file;
+    }
+
+    /**
+     * 每次返回一个从头开始的新source，调用方负责关闭
+     */
+    public BufferedSource newSource() throws IOException {
+        if (memory != null) {
+            return memory.clone();
+        }
+        Source source = Okio.source(file);
+        return Okio.buffer(source);
+    }
+
+    public InputStream newInputStream() throws IOException {
+        return newSource().inputStream();
+    }
+
+    /**
+     * 只读的ByteBuffer，在文件中时内存映射整个文件，映射在被回收之前一直有效
+     *
+     * @return
+     * @throws IOException 超过2GB时无法映射
+     */
+    public ByteBuffer asByteBuffer() throws IOException {
+        if (memory != null) {
+            return ByteBuffer.wrap(memory.clone().readByteArray()).asReadOnlyBuffer();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("body too large to map: " + size);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            //映射建立之后关闭文件不影响映射
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 整个响应体的字节数组，在文件中时会一次读入内存
+     */
+    public byte[] bytes() throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("body too large for a byte array: " + size);
+        }
+        BufferedSource source = newSource();
+        try {
+            return source.readByteArray();
+        } finally {
+            source.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (memory != null) {
+            memory.clear();
+        }
+        if (file != null) {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * 按请求上的ResponseSizeLimit限制响应体大小的应用拦截器
+ * <p>
+ * Content-Length已经超过上限时直接关闭响应并失败；长度未知或者服务器没有遵守Content-Length时，
+ * 读取过程中一旦超过上限就抛出异常，已经读入的数据最多比上限多一个字节。
+ * 作为应用拦截器统计的是gzip解压之后的字节数，压缩炸弹也会被拦住。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: ResponseSizeInterceptor.java
+ * @author: myName
+ * @date: 2026-10-18 22:40
+ */
+
+final class ResponseSizeInterceptor implements Interceptor {
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Response response = chain.proceed(request);
+        ResponseSizeLimit limit = ResponseSizeLimit.of(request);
+        ResponseBody body = response.body();
+        //Long.MAX_VALUE表示不限制，也避免下面多读一个字节时溢出
+        if (limit == null || body == null || limit.maxBytes() == Long.MAX_VALUE) {
+            return response;
+        }
+        long contentLength = body.contentLength();
+        if (contentLength > limit.maxBytes()) {
+            response.close();
+            throw new ResponseTooLargeException(limit.maxBytes(), "Content-Length " + contentLength
+                    + " exceeds limit " + limit.maxBytes() + ": " + request.url());
+        }
+        return response.newBuilder()
+                .body(new LimitedBody(body, limit.maxBytes(), request))
+                .build();
+    }
+
+    private static final class LimitedBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        LimitedBody(ResponseBody delegate, final long maxBytes, final Request request) {
+            this.delegate = delegate;
+            this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                private long total;
+
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    //最多多读一个字节，用来判断是否超过
+                    long read = super.read(sink, Math.min(byteCount, maxBytes - total + 1));
+                    if (read != -1) {
+                        total += read;
+                        if (total > maxBytes) {
+                            throw new ResponseTooLargeException(maxBytes, "response body exceeds limit "
+                                    + maxBytes + ": " + request.url());
+                        }
+                    }
+                    return read;
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+}
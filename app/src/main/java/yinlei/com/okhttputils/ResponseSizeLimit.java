@@ -0,0 +1,49 @@
+package yinlei.com.okhttputils;
+
+import okhttp3.Request;
+
+/**
+ * 单个请求的响应体大小上限，作为类型化的tag设置在请求上：
+ * Request.Builder.tag(ResponseSizeLimit.class, ResponseSizeLimit.of(maxBytes))
+ * <p>
+ * 在读取响应体的过程中检查，超过时抛出ResponseTooLargeException，不会先把整个响应体读完；
+ * 统计的是解压之后的字节数。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: ResponseSizeLimit.java
+ * @author: myName
+ * @date: 2026-10-18 22:40
+ */
+
+public final class ResponseSizeLimit {
+
+    private final long maxBytes;
+
+    private ResponseSizeLimit(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param maxBytes Long.MAX_VALUE表示不限制，同时不使用Config.maxResponseSize的默认上限
+     */
+    public static ResponseSizeLimit of(long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("maxBytes < 0");
+        return new ResponseSizeLimit(maxBytes);
+    }
+
+    /**
+     * 请求上的上限，没有设置时返回null
+     */
+    public static ResponseSizeLimit of(Request request) {
+        return request.tag(ResponseSizeLimit.class);
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseSizeLimit{" + maxBytes + "}";
+    }
+}
@@ -0,0 +1,31 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+
+/**
+ * 响应体超过了ResponseSizeLimit
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: ResponseTooLargeException.java
+ * @author: myName
+ * @date: 2026-10-18 22:40
+ */
+
+public class ResponseTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long limit;
+
+    public ResponseTooLargeException(long limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * 超过的上限，字节
+     */
+    public long limit() {
+        return limit;
+    }
+}
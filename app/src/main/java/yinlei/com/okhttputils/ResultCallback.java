@@ -0,0 +1,24 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+
+import okhttp3.Call;
+
+/**
+ * 异步请求解析成对象之后的回调，在Dispatcher的线程中调用
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: ResultCallback.java
+ * @author: myName
+ * @date: 2026-10-18 13:08
+ */
+
+public interface ResultCallback<T> {
+
+    void onSuccess(Call call, T result);
+
+    /**
+     * 网络错误、非2xx响应以及解析失败都会回调这里
+     */
+    void onFailure(Call call, IOException e);
+}
@@ -0,0 +1,393 @@
+package yinlei.com.okhttputils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * 分块、可续传的文件上传，使用tus 1.0协议(https://tus.io/protocols/resumable-upload)
+ * <p>
+ * 先POST创建上传，服务器在Location中返回上传地址；之后用PATCH按块发送文件内容，
+ * 每一块的响应中Upload-Offset是服务器已经确认的位置。连接断开时用HEAD查询服务器已收到的位置，从那里继续，
+ * 不需要从头上传。设置stateDir后上传地址会保存下来，进程重启后同一个文件可以接着上传。
+ * 每一块写出时计数，可以回调进度，也可以限制上传的总速度，避免影响前台请求；分块上传的数据不会被压缩。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: ResumableUploader.java
+ * @author: myName
+ * @date: 2026-10-18 18:10
+ */
+
+public final class ResumableUploader {
+
+    private static final String TUS_VERSION = "1.0.0";
+    private static final MediaType OFFSET_OCTET_STREAM = MediaType.parse("application/offset+octet-stream");
+
+    private final Call.Factory client;
+    private final long chunkSize;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+    private final File stateDir;
+    private final BandwidthLimiter limiter;
+
+    private ResumableUploader(Builder builder) {
+        this.client = builder.client != null ? builder.client : OkHttpClientUtils.getOkHttpClientSingleInstance();
+        this.chunkSize = builder.chunkSize;
+        this.maxRetries = builder.maxRetries;
+        this.retryDelayMillis = builder.retryDelayMillis;
+        this.stateDir = builder.stateDir;
+        this.limiter = builder.maxBytesPerSecond > 0 ? new BandwidthLimiter(builder.maxBytesPerSecond) : null;
+    }
+
+    /**
+     * 上传文件，返回上传地址
+     *
+     * @param request  url是创建上传的地址，请求头和tag会用在这次上传的所有请求上
+     * @param file
+     * @param listener 进度回调，在执行请求的线程中调用，可以为null
+     * @return
+     * @throws IOException 连续失败超过重试次数，或者请求被取消
+     */
+    public String upload(Request request, File file, ProgressListener listener) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("not a file: " + file);
+        }
+        return new Task(request, file, listener).run();
+    }
+
+    /**
+     * 一次上传
+     */
+    private final class Task {
+        private final Request template;
+        private final File file;
+        private final long length;
+        private final ProgressListener listener;
+        private final File stateFile;
+        private volatile Call current;
+
+        Task(Request template, File file, ProgressListener listener) {
+            this.template = template;
+            this.file = file;
+            this.length = file.length();
+            this.listener = listener;
+            this.stateFile = stateDir != null ? new File(stateDir, fingerprint(template.url(), file) + ".tus") : null;
+        }
+
+        String run() throws IOException {
+            String uploadUrl = stateFile != null ? readState(stateFile) : null;
+            long offset = -1;
+            boolean sync = uploadUrl != null;
+            int failures = 0;
+            while (true) {
+                try {
+                    if (sync) {
+                        offset = queryOffset(uploadUrl);
+                        sync = false;
+                    }
+                    if (offset < 0) {
+                        //没有上传过，或者服务器上的上传已经过期
+                        uploadUrl = create();
+                        offset = 0;
+                        if (stateFile != null) {
+                            writeState(stateFile, uploadUrl);
+                        }
+                    }
+                    if (offset >= length) {
+                        break;
+                    }
+                    offset = sendChunk(uploadUrl, offset);
+                    failures = 0;
+                } catch (IOException e) {
+                    Call call = current;
+                    boolean interrupted = e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+                    if ((call != null && call.isCanceled()) || interrupted || ++failures > maxRetries) {
+                        throw e;
+                    }
+                    sleep(retryDelayMillis * failures);
+                    //不知道服务器收到了多少，下一次先查询
+                    sync = uploadUrl != null;
+                }
+            }
+            if (stateFile != null) {
+                stateFile.delete();
+            }
+            return uploadUrl;
+        }
+
+        /**
+         * POST创建上传，返回上传地址
+         */
+        private String create() throws IOException {
+            Request request = template.newBuilder()
+                    .url(template.url())
+                    .header("Tus-Resumable", TUS_VERSION)
+                    .header("Upload-Length", String.valueOf(length))
+                    .header("Upload-Metadata", "filename " + ByteString.encodeUtf8(file.getName()).base64())
+                    .post(RequestBody.create(null, new byte[0]))
+                    .build();
+            Response response = execute(request);
+            try {
+                String location = response.header("Location");
+                if (response.code() != 201 || location == null) {
+                    throw new IOException("Unexpected code " + response);
+                }
+                HttpUrl url = response.request().url().resolve(location);
+                if (url == null) {
+                    throw new IOException("invalid Location: " + location);
+                }
+                return url.toString();
+            } finally {
+                response.close();
+            }
+        }
+
+        /**
+         * HEAD查询服务器已经收到的字节数，上传不存在或者长度不一致时返回-1
+         */
+        private long queryOffset(String uploadUrl) throws IOException {
+            Request request = template.newBuilder()
+                    .url(uploadUrl)
+                    .header("Tus-Resumable", TUS_VERSION)
+                    .cacheControl(CacheControl.FORCE_NETWORK)
+                    .head()
+                    .build();
+            Response response = execute(request);
+            try {
+                int code = response.code();
+                if (code == 404 || code == 410 || code == 403) {
+                    return -1;
+                }
+                if (!response.isSuccessful()) {
+                    throw new IOException("Unexpected code " + response);
+                }
+                String uploadLength = response.header("Upload-Length");
+                if (uploadLength != null && parseLong(uploadLength) != length) {
+                    //本地文件已经变化
+                    return -1;
+                }
+                long offset = parseLong(response.header("Upload-Offset"));
+                if (offset < 0 || offset > length) {
+                    throw new IOException("invalid Upload-Offset: " + response);
+                }
+                return offset;
+            } finally {
+                response.close();
+            }
+        }
+
+        /**
+         * PATCH发送从offset开始的一块，返回服务器确认的新位置
+         */
+        private long sendChunk(String uploadUrl, long offset) throws IOException {
+            long size = Math.min(chunkSize, length - offset);
+            RequestBody body = new CountingRequestBody(new FileRangeBody(file, offset, size), offset, length,
+                    listener, limiter);
+            Request request = template.newBuilder()
+                    .url(uploadUrl)
+                    .header("Tus-Resumable", TUS_VERSION)
+                    .header("Upload-Offset", String.valueOf(offset))
+                    .method("PATCH", body)
+                    .build();
+            Response response = execute(request);
+            try {
+                if (response.code() == 404 || response.code() == 410) {
+                    throw new IOException("upload expired: " + response);
+                }
+                if (response.code() != 204 && response.code() != 200) {
+                    //409表示offset和服务器不一致，重新查询后继续
+                    throw new IOException("Unexpected code " + response);
+                }
+                long next = parseLong(response.header("Upload-Offset"));
+                if (next <= offset || next > length) {
+                    throw new IOException("invalid Upload-Offset: " + response);
+                }
+                return next;
+            } finally {
+                response.close();
+            }
+        }
+
+        private Response execute(Request request) throws IOException {
+            Call call = client.newCall(request);
+            current = call;
+            return call.execute();
+        }
+    }
+
+    /**
+     * 文件中的一段，每次写入时重新打开文件，重试时可以再写一次
+     */
+    private static final class FileRangeBody extends RequestBody {
+        private final File file;
+        private final long offset;
+        private final long size;
+
+        FileRangeBody(File file, long offset, long size) {
+            this.file = file;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return OFFSET_OCTET_STREAM;
+        }
+
+        @Override
+        public long contentLength() {
+            return size;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                in.getChannel().position(offset);
+                Source source = Okio.source(in);
+                sink.write(source, size);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting to retry upload");
+        }
+    }
+
+    /**
+     * 同一个创建地址、同一个文件(路径、长度、修改时间都相同)对应同一个状态文件
+     */
+    private static String fingerprint(HttpUrl endpoint, File file) {
+        String key = endpoint + "\n" + file.getAbsolutePath() + "\n" + file.length() + "\n" + file.lastModified();
+        return ByteString.encodeUtf8(key).md5().hex();
+    }
+
+    private static String readState(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        BufferedSource source = null;
+        try {
+            source = Okio.buffer(Okio.source(file));
+            String url = source.readUtf8().trim();
+            return url.length() > 0 ? url : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void writeState(File file, String uploadUrl) throws IOException {
+        BufferedSink sink = Okio.buffer(Okio.sink(file));
+        try {
+            sink.writeUtf8(uploadUrl);
+        } finally {
+            sink.close();
+        }
+    }
+
+    public static final class Builder {
+        private Call.Factory client;
+        private long chunkSize = 1 << 20;  //1MB
+        private int maxRetries = 5;
+        private long retryDelayMillis = 1000;
+        private File stateDir;
+        private long maxBytesPerSecond;
+
+        /**
+         * 不设置时使用OkHttpClientUtils的根client
+         */
+        public Builder client(Call.Factory client) {
+            this.client = client;
+            return this;
+        }
+
+        /**
+         * 每个PATCH请求发送的字节数，连接断开时最多重发这么多
+         */
+        public Builder chunkSize(long chunkSize) {
+            if (chunkSize < 1) throw new IllegalArgumentException("chunkSize < 1");
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * 连续失败的最大重试次数，有进展之后重新计数
+         */
+        public Builder maxRetries(int maxRetries) {
+            if (maxRetries < 0) throw new IllegalArgumentException("maxRetries < 0");
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * 第n次重试前等待n倍的这个时间，默认1秒
+         */
+        public Builder retryDelay(long delay, TimeUnit unit) {
+            if (delay < 0) throw new IllegalArgumentException("retryDelay < 0");
+            this.retryDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * 保存上传地址的目录，进程重启后可以接着上传；为null时只在一次upload调用内续传(默认)
+         */
+        public Builder stateDir(File stateDir) {
+            this.stateDir = stateDir;
+            return this;
+        }
+
+        /**
+         * 这个uploader所有上传加起来的最大速度，字节/秒，0表示不限制(默认)
+         */
+        public Builder maxBytesPerSecond(long maxBytesPerSecond) {
+            if (maxBytesPerSecond < 0) throw new IllegalArgumentException("maxBytesPerSecond < 0");
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            return this;
+        }
+
+        public ResumableUploader build() {
+            return new ResumableUploader(this);
+        }
+    }
+}
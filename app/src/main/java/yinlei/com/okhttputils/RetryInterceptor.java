@@ -0,0 +1,187 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 失败重试的应用拦截器
+ * <p>
+ * 网络异常以及408、429、5xx响应时按指数退避重试，等待时间在[0, min(maxDelay, baseDelay * 2^n)]之间随机(full jitter)，
+ * 避免大量客户端同时重试。响应带有Retry-After时按服务器要求的时间等待，超过maxDelay时不再重试。
+ * 默认只重试幂等的请求方法，POST需要通过retryNonIdempotent(true)开启。
+ * 等待发生在执行请求的线程中，异步请求会占用Dispatcher的线程。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: RetryInterceptor.java
+ * @author: myName
+ * @date: 2026-10-18 16:10
+ */
+
+public class RetryInterceptor implements Interceptor {
+
+    private static final Random RANDOM = new Random();
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final boolean retryNonIdempotent;
+    private final AtomicLong retryCount = new AtomicLong();
+
+    private RetryInterceptor(Builder builder) {
+        this.maxRetries = builder.maxRetries;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.retryNonIdempotent = builder.retryNonIdempotent;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean retryable = retryNonIdempotent || isIdempotent(request.method());
+        int attempt = 0;
+        while (true) {
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                //达到并发上限是limiter要减少的负载，重试只会增加
+                if (!retryable || attempt >= maxRetries || chain.call().isCanceled() || e instanceof LimitExceededException) {
+                    throw e;
+                }
+                waitBeforeRetry(backoffMillis(attempt++));
+                continue;
+            }
+            if (!retryable || attempt >= maxRetries || !isRetryableCode(response.code()) || chain.call().isCanceled()) {
+                return response;
+            }
+            long delay = retryAfterMillis(response);
+            if (delay > maxDelayMillis) {
+                //服务器要求等待的时间太长，交给调用方处理
+                return response;
+            }
+            if (delay < 0) {
+                delay = backoffMillis(attempt);
+            }
+            response.close();
+            attempt++;
+            waitBeforeRetry(delay);
+        }
+    }
+
+    /**
+     * 重试的总次数
+     */
+    public long retryCount() {
+        return retryCount.get();
+    }
+
+    long backoffMillis(int attempt) {
+        long ceiling = baseDelayMillis << Math.min(attempt, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) {
+            ceiling = maxDelayMillis;
+        }
+        synchronized (RANDOM) {
+            return (long) (RANDOM.nextDouble() * ceiling);
+        }
+    }
+
+    private void waitBeforeRetry(long millis) throws IOException {
+        retryCount.incrementAndGet();
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting to retry");
+        }
+    }
+
+    static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method)
+                || "DELETE".equals(method) || "OPTIONS".equals(method) || "TRACE".equals(method);
+    }
+
+    static boolean isRetryableCode(int code) {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * Retry-After: 秒数 或者 HTTP日期，没有或者格式不对时返回-1
+     */
+    static long retryAfterMillis(Response response) {
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter)));
+        } catch (NumberFormatException ignored) {
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(retryAfter);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    public static final class Builder {
+        private int maxRetries = 2;
+        private long baseDelayMillis = 200;
+        private long maxDelayMillis = 5000;
+        private boolean retryNonIdempotent;
+
+        /**
+         * 最多重试几次，不包括第一次请求
+         */
+        public Builder maxRetries(int maxRetries) {
+            if (maxRetries < 0) throw new IllegalArgumentException("maxRetries < 0");
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * 第一次重试的最大等待时间，之后每次翻倍
+         */
+        public Builder baseDelay(long delay, TimeUnit unit) {
+            if (delay <= 0) throw new IllegalArgumentException("baseDelay <= 0");
+            this.baseDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * 单次等待的上限，Retry-After超过这个时间时不再重试
+         */
+        public Builder maxDelay(long delay, TimeUnit unit) {
+            if (delay <= 0) throw new IllegalArgumentException("maxDelay <= 0");
+            this.maxDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * 是否重试POST等非幂等请求，默认false
+         */
+        public Builder retryNonIdempotent(boolean retryNonIdempotent) {
+            this.retryNonIdempotent = retryNonIdempotent;
+            return this;
+        }
+
+        public RetryInterceptor build() {
+            return new RetryInterceptor(this);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package yinlei.com.okhttputils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.CacheControl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * 多连接分段下载
+ * <p>
+ * 先用 Range: bytes=0-0 探测服务器是否支持分段以及文件总长度，支持时把文件分成N段，
+ * 每一段作为一个异步请求交给Dispatcher并发执行，按偏移量写入预先分配好大小的文件。
+ * 某一段失败时只重试这一段剩下的部分，服务器不支持Range时退化为单连接下载。
+ * 并发的连接数同时受Dispatcher的maxRequestsPerHost限制。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: SegmentedDownloader.java
+ * @author: myName
+ * @date: 2026-10-18 11:20
+ */
+
+public final class SegmentedDownloader {
+
+    private static final CacheControl NO_STORE = new CacheControl.Builder().noStore().build();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Call.Factory client;
+    private final int segmentCount;
+    private final long minSegmentSize;
+    private final int maxRetries;
+
+    private SegmentedDownloader(Builder builder) {
+        this.client = builder.client != null ? builder.client : OkHttpClientUtils.getOkHttpClientSingleInstance();
+        this.segmentCount = builder.segmentCount;
+        this.minSegmentSize = builder.minSegmentSize;
+        this.maxRetries = builder.maxRetries;
+    }
+
+    /**
+     * 下载到文件，返回文件的总长度
+     *
+     * @param request
+     * @param file
+     * @param listener 进度回调，在Dispatcher的线程中调用，可以为null
+     * @return
+     * @throws IOException
+     */
+    public long download(Request request, File file, ProgressListener listener) throws IOException {
+        Request probe = request.newBuilder()
+                .cacheControl(NO_STORE)
+                .header("Range", "bytes=0-0")
+                .build();
+        Response response = client.newCall(probe).execute();
+        long total;
+        String validator;
+        try {
+            if (response.code() == 200) {
+                //不支持Range，直接使用这次的响应单连接下载
+                ResponseBody body = response.body();
+                return FileDownloader.writeTo(body.source(), file, false, 0, body.contentLength(), listener);
+            }
+            if (response.code() != 206) {
+                throw new IOException("Unexpected code " + response);
+            }
+            total = FileDownloader.rangeTotal(response);
+            validator = response.header("ETag");
+            if (validator == null || validator.startsWith("W/")) {
+                validator = response.header("Last-Modified");
+            }
+        } finally {
+            response.close();
+        }
+
+        if (total <= 0) {
+            //长度未知，无法分段
+            return FileDownloader.download(client, request, file, listener);
+        }
+        int count = (int) Math.max(1, Math.min(segmentCount, total / minSegmentSize));
+        if (count == 1) {
+            return FileDownloader.download(client, request, file, listener);
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(total);
+            Task task = new Task(request, validator, randomAccessFile.getChannel(), total, count, listener);
+            task.start();
+            task.await();
+        } catch (IOException e) {
+            randomAccessFile.close();
+            file.delete();
+            throw e;
+        }
+        randomAccessFile.close();
+        return total;
+    }
+
+    /**
+     * 一次分段下载任务
+     */
+    private final class Task {
+        private final Request request;
+        private final String validator;
+        private final FileChannel channel;
+        private final long total;
+        private final ProgressListener listener;
+        private final List<Segment> segments;
+        private final CountDownLatch latch;
+        private final AtomicLong transferred = new AtomicLong();
+        private final long startNanos = System.nanoTime();
+        private volatile IOException failure;
+
+        Task(Request request, String validator, FileChannel channel, long total, int count, ProgressListener listener) {
+            this.request = request;
+            this.validator = validator;
+            this.channel = channel;
+            this.total = total;
+            this.listener = listener;
+            this.segments = new ArrayList<Segment>(count);
+            this.latch = new CountDownLatch(count);
+            long size = total / count;
+            for (int i = 0; i < count; i++) {
+                long start = i * size;
+                long end = i == count - 1 ? total - 1 : start + size - 1;
+                segments.add(new Segment(start, end));
+            }
+        }
+
+        void start() {
+            for (Segment segment : segments) {
+                enqueue(segment);
+            }
+        }
+
+        void await() throws IOException {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                cancelAll();
+                throw new InterruptedIOException("segmented download interrupted");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void enqueue(final Segment segment) {
+            Request.Builder builder = request.newBuilder()
+                    .cacheControl(NO_STORE)
+                    .header("Range", "bytes=" + segment.position + "-" + segment.end);
+            if (validator != null) {
+                //文件在下载过程中发生变化时服务器会返回200，这一段直接失败
+                builder.header("If-Range", validator);
+            }
+            Call call = client.newCall(builder.build());
+            segment.call = call;
+            if (failure != null) {
+                call.cancel();
+            }
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    retryOrFail(segment, e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    try {
+                        if (response.code() != 206) {
+                            fail(new IOException("Range not honoured: " + response));
+                            return;
+                        }
+                        write(segment, response.body().source());
+                        latch.countDown();
+                    } catch (IOException e) {
+                        retryOrFail(segment, e);
+                    } finally {
+                        response.close();
+                    }
+                }
+            });
+        }
+
+        private void write(Segment segment, BufferedSource source) throws IOException {
+            ByteBuffer buffer = segment.buffer();
+            byte[] array = buffer.array();
+            while (segment.position <= segment.end) {
+                int limit = (int) Math.min(array.length, segment.end - segment.position + 1);
+                int read = source.read(array, 0, limit);
+                if (read == -1) {
+                    throw new IOException("unexpected end of segment at " + segment.position);
+                }
+                buffer.clear();
+                buffer.limit(read);
+                long offset = segment.position;
+                while (buffer.hasRemaining()) {
+                    //按位置写入，多个线程同时写同一个FileChannel是安全的
+                    offset += channel.write(buffer, offset);
+                }
+                segment.position = offset;
+                long done = transferred.addAndGet(read);
+                if (listener != null) {
+                    listener.onProgress(done, total, FileDownloader.bytesPerSecond(done, startNanos));
+                }
+            }
+        }
+
+        private void retryOrFail(Segment segment, IOException e) {
+            if (failure == null && segment.attempts++ < maxRetries) {
+                enqueue(segment);
+            } else {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException e) {
+            if (failure == null) {
+                failure = e;
+                cancelAll();
+            }
+            while (latch.getCount() > 0) {
+                latch.countDown();
+            }
+        }
+
+        private void cancelAll() {
+            for (Segment segment : segments) {
+                Call call = segment.call;
+                if (call != null) {
+                    call.cancel();
+                }
+            }
+        }
+    }
+
+    private static final class Segment {
+        final long start;
+        final long end;
+        //下一个要写入的位置，重试时从这里继续
+        volatile long position;
+        volatile Call call;
+        int attempts;
+        private ByteBuffer buffer;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        ByteBuffer buffer() {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+            return buffer;
+        }
+    }
+
+    public static final class Builder {
+        private Call.Factory client;
+        private int segmentCount = 4;
+        private long minSegmentSize = 1 << 20;  //1MB
+        private int maxRetries = 3;
+
+        /**
+         * 不设置时使用OkHttpClientUtils的根client
+         */
+        public Builder client(Call.Factory client) {
+            this.client = client;
+            return this;
+        }
+
+        /**
+         * 最多分成几段
+         */
+        public Builder segmentCount(int segmentCount) {
+            if (segmentCount < 1) throw new IllegalArgumentException("segmentCount < 1");
+            this.segmentCount = segmentCount;
+            return this;
+        }
+
+        /**
+         * 每一段的最小长度，文件太小时少分几段
+         */
+        public Builder minSegmentSize(long minSegmentSize) {
+            if (minSegmentSize < 1) throw new IllegalArgumentException("minSegmentSize < 1");
+            this.minSegmentSize = minSegmentSize;
+            return this;
+        }
+
+        /**
+         * 每一段单独的最大重试次数
+         */
+        public Builder maxRetries(int maxRetries) {
+            if (maxRetries < 0) throw new IllegalArgumentException("maxRetries < 0");
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public SegmentedDownloader build() {
+            return new SegmentedDownloader(this);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Response;
+
+/**
+ * 把响应体包装成自动释放连接的输入流：读到末尾、close()、读取出错时立即关闭响应，连接回到连接池；
+ * 调用方忘记关闭时，空闲超过idleTimeout(没有在读取)后由后台线程关闭，并计入reclaimedCount
+ * <p>
+ * reclaimedCount就是调用方泄漏的流的个数，正常情况下应该一直为0；openCount是当前还没有释放的流
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: StreamReleaser.java
+ * @author: myName
+ * @date: 2026-10-18 23:20
+ */
+
+public final class StreamReleaser {
+
+    private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OkHttpUtils Watchdog");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        WATCHDOG.setRemoveOnCancelPolicy(true);
+    }
+
+    private final long idleTimeoutNanos;
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong eofCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong reclaimedCount = new AtomicLong();
+
+    /**
+     * @param idleTimeout 为0时不回收，只统计
+     * @param unit
+     */
+    public StreamReleaser(long idleTimeout, TimeUnit unit) {
+        if (idleTimeout < 0) throw new IllegalArgumentException("idleTimeout < 0");
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+    }
+
+    /**
+     * 包装response的响应体，返回的流持有response，释放时关闭它
+     */
+    public InputStream wrap(Response response) {
+        openedCount.incrementAndGet();
+        ReleasingInputStream stream = new ReleasingInputStream(response);
+        if (idleTimeoutNanos > 0) {
+            stream.schedule(idleTimeoutNanos);
+        }
+        return stream;
+    }
+
+    public long openedCount() {
+        return openedCount.get();
+    }
+
+    /**
+     * 读到末尾释放的个数
+     */
+    public long eofCount() {
+        return eofCount.get();
+    }
+
+    /**
+     * 调用方close()释放的个数(没有读到末尾)
+     */
+    public long closedCount() {
+        return closedCount.get();
+    }
+
+    /**
+     * 读取出错释放的个数
+     */
+    public long errorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * 调用方没有关闭，空闲超时被回收的个数
+     */
+    public long reclaimedCount() {
+        return reclaimedCount.get();
+    }
+
+    /**
+     * 还没有释放的流
+     */
+    public long openCount() {
+        return openedCount.get() - eofCount.get() - closedCount.get() - errorCount.get() - reclaimedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "StreamReleaser{opened=" + openedCount + ", eof=" + eofCount + ", closed=" + closedCount
+                + ", errors=" + errorCount + ", reclaimed=" + reclaimedCount + "}";
+    }
+
+    private final class ReleasingInputStream extends InputStream implements Runnable {
+        private final Response response;
+        private final InputStream delegate;
+        //正在read的线程数，读取中不算空闲，由socket的读超时负责
+        private final AtomicInteger reading = new AtomicInteger();
+        private volatile long lastActiveNanos = System.nanoTime();
+        private ScheduledFuture<?> watchdog;
+        private volatile boolean released;
+        private volatile boolean eof;
+
+        ReleasingInputStream(Response response) {
+            this.response = response;
+            this.delegate = response.body().byteStream();
+        }
+
+        synchronized void schedule(long delayNanos) {
+            if (!released) {
+                watchdog = WATCHDOG.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            long idle = System.nanoTime() - lastActiveNanos;
+            boolean busy = reading.get() > 0;
+            if (busy || idle < idleTimeoutNanos) {
+                schedule(busy ? idleTimeoutNanos : idleTimeoutNanos - idle);
+                return;
+            }
+            release(reclaimedCount);
+        }
+
+        /**
+         * 只释放一次，计入counter
+         */
+        private void release(AtomicLong counter) {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                if (watchdog != null) {
+                    watchdog.cancel(false);
+                }
+            }
+            counter.incrementAndGet();
+            response.close();
+        }
+
+        /**
+         * 读到末尾之后继续返回-1，其他原因释放之后不能再读
+         */
+        private boolean checkOpen() throws IOException {
+            if (eof) {
+                return false;
+            }
+            if (released) {
+                throw new IOException("stream released");
+            }
+            return true;
+        }
+
+        private void onEof() {
+            eof = true;
+            release(eofCount);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!checkOpen()) {
+                return -1;
+            }
+            reading.incrementAndGet();
+            try {
+                int b = delegate.read();
+                if (b == -1) {
+                    onEof();
+                }
+                return b;
+            } catch (IOException e) {
+                release(errorCount);
+                throw e;
+            } finally {
+                reading.decrementAndGet();
+                lastActiveNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!checkOpen()) {
+                return -1;
+            }
+            reading.incrementAndGet();
+            try {
+                int read = delegate.read(b, off, len);
+                if (read == -1) {
+                    onEof();
+                }
+                return read;
+            } catch (IOException e) {
+                release(errorCount);
+                throw e;
+            } finally {
+                reading.decrementAndGet();
+                lastActiveNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return released ? 0 : delegate.available();
+        }
+
+        @Override
+        public void close() {
+            release(closedCount);
+        }
+    }
+}
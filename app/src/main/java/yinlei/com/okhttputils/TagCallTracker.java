@@ -0,0 +1,397 @@
+package yinlei.com.okhttputils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Timeout;
+
+/**
+ * 按tag记录进行中的请求，用于按tag取消以及限制同一个tag的并发数
+ * <p>
+ * 每个tag只保存自己的请求，取消时不需要遍历Dispatcher中的全部请求。
+ * 超过并发上限的异步请求先放在这里的等待队列中，不占用Dispatcher的名额；同步请求在调用线程中等待。
+ * 没有设置tag的请求直接交给OkHttp，不做任何记录。
+ * 并发上限弱引用tag(通常是页面对象)，在tag的整个生命周期内有效，分页等依次发出的请求不需要每次重新设置；
+ * tag被回收后上限随之清除。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: TagCallTracker.java
+ * @author: myName
+ * @date: 2026-10-18 13:40
+ */
+
+final class TagCallTracker {
+
+    //进行中的tag，请求全部结束时移除
+    private final Map<Object, TagState> states = new HashMap<Object, TagState>();
+    //请求结束后仍然保留，只弱引用tag，不会因为设置过上限而泄漏页面
+    private final Map<Object, Integer> limits = new WeakHashMap<Object, Integer>();
+
+    /**
+     * 创建请求，设置了tag的请求会被记录
+     *
+     * @param factory
+     * @param request
+     * @return
+     */
+    Call newCall(Call.Factory factory, Request request) {
+        Call call = factory.newCall(request);
+        Object tag = request.tag();
+        if (tag == null) {
+            return call;
+        }
+        return new TrackedCall(call, tag);
+    }
+
+    /**
+     * 取消tag下等待中和执行中的请求
+     *
+     * @param tag
+     */
+    void cancel(Object tag) {
+        List<TrackedCall> calls;
+        synchronized (this) {
+            TagState state = states.get(tag);
+            if (state == null) {
+                return;
+            }
+            calls = new ArrayList<TrackedCall>(state.calls);
+        }
+        for (TrackedCall call : calls) {
+            call.cancel();
+        }
+    }
+
+    /**
+     * 设置tag同时执行的最大请求数，小于等于0表示不限制
+     *
+     * @param tag
+     * @param max
+     */
+    void setMaxConcurrency(Object tag, int max) {
+        List<TrackedCall> ready;
+        synchronized (this) {
+            if (max > 0) {
+                limits.put(tag, max);
+            } else {
+                limits.remove(tag);
+            }
+            TagState state = states.get(tag);
+            if (state == null) {
+                return;
+            }
+            ready = promote(tag, state);
+            notifyAll();
+        }
+        start(ready);
+    }
+
+    synchronized int runningCount(Object tag) {
+        TagState state = states.get(tag);
+        return state != null ? state.running : 0;
+    }
+
+    synchronized int waitingCount(Object tag) {
+        TagState state = states.get(tag);
+        return state != null ? state.waiting.size() : 0;
+    }
+
+    private int limit(Object tag) {
+        Integer limit = limits.get(tag);
+        return limit != null ? limit : Integer.MAX_VALUE;
+    }
+
+    private TagState stateOf(Object tag) {
+        TagState state = states.get(tag);
+        if (state == null) {
+            state = new TagState();
+            states.put(tag, state);
+        }
+        return state;
+    }
+
+    private void removeIfIdle(Object tag, TagState state) {
+        if (state.calls.isEmpty() && state.waiting.isEmpty() && state.running == 0) {
+            states.remove(tag);
+        }
+    }
+
+    /**
+     * 有空闲名额时从等待队列中取出请求，需要在锁内调用，返回的请求在锁外启动
+     */
+    private List<TrackedCall> promote(Object tag, TagState state) {
+        List<TrackedCall> ready = null;
+        int limit = limit(tag);
+        while (state.running < limit && !state.waiting.isEmpty()) {
+            if (ready == null) {
+                ready = new ArrayList<TrackedCall>();
+            }
+            state.running++;
+            ready.add(state.waiting.poll());
+        }
+        return ready;
+    }
+
+    private void start(List<TrackedCall> ready) {
+        if (ready != null) {
+            for (TrackedCall call : ready) {
+                call.delegate.enqueue(call.callback);
+            }
+        }
+    }
+
+    private static final class TagState {
+        //等待中和执行中的请求，取消时使用
+        final Set<TrackedCall> calls = new HashSet<TrackedCall>();
+        final ArrayDeque<TrackedCall> waiting = new ArrayDeque<TrackedCall>();
+        //占用名额的请求数
+        int running;
+    }
+
+    private final class TrackedCall implements Call {
+        final Call delegate;
+        final Object tag;
+        TrackingCallback callback;
+
+        TrackedCall(Call delegate, Object tag) {
+            this.delegate = delegate;
+            this.tag = tag;
+        }
+
+        @Override
+        public Request request() {
+            return delegate.request();
+        }
+
+        @Override
+        public Response execute() throws IOException {
+            acquire();
+            Response response;
+            try {
+                response = delegate.execute();
+            } catch (IOException e) {
+                release(true);
+                throw e;
+            } catch (RuntimeException e) {
+                release(true);
+                throw e;
+            }
+            //名额在返回时释放，响应体关闭之前仍然可以按tag取消
+            release(false);
+            return response.newBuilder()
+                    .body(new TrackedResponseBody(response.body(), this))
+                    .build();
+        }
+
+        private void acquire() throws IOException {
+            synchronized (TagCallTracker.this) {
+                TagState state = stateOf(tag);
+                state.calls.add(this);
+                try {
+                    while (state.running >= limit(tag)) {
+                        if (delegate.isCanceled()) {
+                            state.calls.remove(this);
+                            removeIfIdle(tag, state);
+                            throw new IOException("Canceled");
+                        }
+                        TagCallTracker.this.wait();
+                    }
+                } catch (InterruptedException e) {
+                    state.calls.remove(this);
+                    removeIfIdle(tag, state);
+                    throw new InterruptedIOException("interrupted while waiting for tag " + tag);
+                }
+                state.running++;
+            }
+        }
+
+        private void release(boolean untrack) {
+            List<TrackedCall> ready;
+            synchronized (TagCallTracker.this) {
+                TagState state = stateOf(tag);
+                state.running--;
+                if (untrack) {
+                    state.calls.remove(this);
+                }
+                ready = promote(tag, state);
+                removeIfIdle(tag, state);
+                TagCallTracker.this.notifyAll();
+            }
+            start(ready);
+        }
+
+        void untrack() {
+            synchronized (TagCallTracker.this) {
+                TagState state = states.get(tag);
+                if (state != null) {
+                    state.calls.remove(this);
+                    removeIfIdle(tag, state);
+                }
+            }
+        }
+
+        @Override
+        public void enqueue(Callback responseCallback) {
+            callback = new TrackingCallback(responseCallback, this);
+            boolean startNow;
+            synchronized (TagCallTracker.this) {
+                TagState state = stateOf(tag);
+                state.calls.add(this);
+                startNow = state.running < limit(tag);
+                if (startNow) {
+                    state.running++;
+                } else {
+                    state.waiting.add(this);
+                }
+            }
+            if (startNow) {
+                delegate.enqueue(callback);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            delegate.cancel();
+            boolean wasWaiting;
+            synchronized (TagCallTracker.this) {
+                TagState state = states.get(tag);
+                wasWaiting = state != null && state.waiting.remove(this);
+                if (wasWaiting) {
+                    //不占名额，交给OkHttp回调onFailure
+                    callback.holdsSlot = false;
+                }
+                TagCallTracker.this.notifyAll();
+            }
+            if (wasWaiting) {
+                delegate.enqueue(callback);
+            }
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return delegate.isExecuted();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return delegate.isCanceled();
+        }
+
+        @Override
+        public Timeout timeout() {
+            return delegate.timeout();
+        }
+
+        @Override
+        public Call clone() {
+            return new TrackedCall(delegate.clone(), tag);
+        }
+    }
+
+    private final class TrackingCallback implements Callback {
+        final Callback delegate;
+        final TrackedCall call;
+        volatile boolean holdsSlot = true;
+
+        TrackingCallback(Callback delegate, TrackedCall call) {
+            this.delegate = delegate;
+            this.call = call;
+        }
+
+        @Override
+        public void onFailure(Call ignored, IOException e) {
+            try {
+                delegate.onFailure(call, e);
+            } finally {
+                finished();
+            }
+        }
+
+        @Override
+        public void onResponse(Call ignored, Response response) throws IOException {
+            try {
+                delegate.onResponse(call, response);
+            } finally {
+                finished();
+            }
+        }
+
+        private void finished() {
+            if (holdsSlot) {
+                call.release(true);
+            } else {
+                call.untrack();
+            }
+        }
+    }
+
+    /**
+     * 响应体关闭或读完时不再按tag记录这个请求
+     */
+    private static final class TrackedResponseBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        TrackedResponseBody(ResponseBody delegate, final TrackedCall call) {
+            this.delegate = delegate;
+            this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                private boolean untracked;
+
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read == -1) {
+                        untrack();
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    untrack();
+                    super.close();
+                }
+
+                private void untrack() {
+                    if (!untracked) {
+                        untracked = true;
+                        call.untrack();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟容量固定的服务器：同时最多处理capacity个请求，每个耗时serviceMillis，多出的在服务器端排队。
+ * 闭环压测下AdaptiveLimiter的上限应该收敛到容量附近，而不是停在初始值
+ */
+public class AdaptiveLimiterTest {
+
+    private MockWebServer server;
+
+    /**
+     * 容量有限的后端，overloaded时直接返回503
+     */
+    private static final class SimulatedBackend extends okhttp3.mockwebserver.Dispatcher {
+        final Semaphore capacity;
+        final long serviceMillis;
+        volatile boolean overloaded;
+
+        SimulatedBackend(int capacity, long serviceMillis) {
+            this.capacity = new Semaphore(capacity, true);
+            this.serviceMillis = serviceMillis;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            if (overloaded) {
+                return new MockResponse().setResponseCode(503);
+            }
+            capacity.acquire();
+            try {
+                Thread.sleep(serviceMillis);
+            } finally {
+                capacity.release();
+            }
+            //没有响应体，响应头一次写完；分两次写时第二次要等客户端的延迟ACK，每个请求多出约40ms
+            return new MockResponse();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.getLogger(MockWebServer.class.getName()).setLevel(Level.WARNING);
+        server = new MockWebServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private String host() {
+        return CircuitBreaker.hostOf(server.url("/"));
+    }
+
+    private void start(SimulatedBackend backend) throws IOException {
+        server.setDispatcher(backend);
+        server.start();
+    }
+
+    private static OkHttpClient client(AdaptiveLimiter limiter) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(limiter)
+                .retryOnConnectionFailure(false)
+                .build();
+    }
+
+    /**
+     * users个线程不停地同步请求，持续millis，返回每100ms采样一次的上限
+     */
+    private List<Integer> closedLoop(final OkHttpClient client, final AdaptiveLimiter limiter, int users, long millis)
+            throws InterruptedException {
+        final Request request = new Request.Builder().url(server.url("/")).build();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        final CountDownLatch done = new CountDownLatch(users);
+        for (int i = 0; i < users; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    while (System.nanoTime() < deadline) {
+                        try {
+                            Response response = client.newCall(request).execute();
+                            response.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        List<Integer> limits = new ArrayList<Integer>();
+        while (!done.await(100, TimeUnit.MILLISECONDS)) {
+            limits.add(limiter.limit(host()));
+        }
+        return limits;
+    }
+
+    private static double averageOfLast(List<Integer> values, int count) {
+        double sum = 0;
+        int n = Math.min(count, values.size());
+        for (int i = values.size() - n; i < values.size(); i++) {
+            sum += values.get(i);
+        }
+        return sum / n;
+    }
+
+    @Test
+    public void limitGrowsTowardsCapacityOfFastBackend() throws Exception {
+        start(new SimulatedBackend(20, 10));
+        AdaptiveLimiter limiter = new AdaptiveLimiter.Builder().initialLimit(5).build();
+
+        List<Integer> limits = closedLoop(client(limiter), limiter, 60, 3000);
+        //容量20、允许排队3~6个，稳定后应在容量附近，远高于初始的5
+        double converged = averageOfLast(limits, 10);
+        assertTrue("limits " + limits, converged >= 15 && converged <= 28);
+        assertTrue(limiter.queuedCount() > 0);
+        assertEquals(0, limiter.dropCount());
+    }
+
+    @Test
+    public void limitShrinksTowardsCapacityOfFragileBackend() throws Exception {
+        start(new SimulatedBackend(2, 20));
+        AdaptiveLimiter limiter = new AdaptiveLimiter.Builder().initialLimit(30).build();
+
+        List<Integer> limits = closedLoop(client(limiter), limiter, 60, 3000);
+        //容量2，稳定后最多再排队beta个
+        double converged = averageOfLast(limits, 10);
+        assertTrue("limits " + limits, converged >= 2 && converged <= 9);
+    }
+
+    @Test
+    public void overloadResponsesBackOffMultiplicatively() throws Exception {
+        SimulatedBackend backend = new SimulatedBackend(100, 5);
+        backend.overloaded = true;
+        start(backend);
+        AdaptiveLimiter limiter = new AdaptiveLimiter.Builder().initialLimit(40).build();
+
+        List<Integer> limits = closedLoop(client(limiter), limiter, 40, 1000);
+        assertTrue("limits " + limits, limiter.limit(host()) <= 5);
+        assertTrue(limiter.dropCount() > 0);
+    }
+
+    @Test
+    public void rejectPolicyFailsFastAtLimit() throws Exception {
+        start(new SimulatedBackend(10, 500));
+        AdaptiveLimiter limiter = new AdaptiveLimiter.Builder()
+                .initialLimit(1)
+                .limitRange(1, 1)
+                .overflowPolicy(AdaptiveLimiter.OverflowPolicy.REJECT)
+                .build();
+        //重试在limiter之前，和共享client的顺序相同；拒绝的请求不应该被重试
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RetryInterceptor.Builder().maxRetries(3).build())
+                .addInterceptor(limiter)
+                .build();
+        final Request request = new Request.Builder().url(server.url("/")).build();
+
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    client.newCall(request).execute().close();
+                } catch (IOException ignored) {
+                }
+            }
+        };
+        first.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (limiter.inflight(host()) == 0) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        try {
+            client.newCall(request).execute();
+            fail();
+        } catch (LimitExceededException expected) {
+            assertEquals(host(), expected.host());
+            assertEquals(1, expected.limit());
+        }
+        assertEquals(1, limiter.rejectedCount());
+        first.join();
+        assertEquals(0, limiter.inflight(host()));
+    }
+
+    @Test
+    public void localRejectionsDoNotOpenCircuit() throws Exception {
+        start(new SimulatedBackend(10, 500));
+        AdaptiveLimiter limiter = new AdaptiveLimiter.Builder()
+                .initialLimit(1)
+                .limitRange(1, 1)
+                .overflowPolicy(AdaptiveLimiter.OverflowPolicy.REJECT)
+                .build();
+        CircuitBreaker breaker = new CircuitBreaker.Builder()
+                .windowSize(4)
+                .minimumCalls(2)
+                .failureRateThreshold(0.5f)
+                .build();
+        //和共享client的顺序相同，熔断器在limiter之前
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(breaker)
+                .addInterceptor(limiter)
+                .build();
+        final Request request = new Request.Builder().url(server.url("/")).build();
+
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    client.newCall(request).execute().close();
+                } catch (IOException ignored) {
+                }
+            }
+        };
+        first.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (limiter.inflight(host()) == 0) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                client.newCall(request).execute();
+                fail();
+            } catch (LimitExceededException expected) {
+            }
+        }
+        first.join();
+        assertEquals(3, limiter.rejectedCount());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state(host()));
+        assertEquals(0, breaker.rejectedCount());
+    }
+
+    @Test
+    public void queueWaitIsNotSlowCall() throws Exception {
+        start(new SimulatedBackend(10, 100));
+        AdaptiveLimiter limiter = new AdaptiveLimiter.Builder()
+                .initialLimit(1)
+                .limitRange(1, 1)
+                .build();
+        CircuitBreaker breaker = new CircuitBreaker.Builder()
+                .windowSize(4)
+                .minimumCalls(2)
+                .slowCallRateThreshold(0.5f)
+                .slowCallDuration(250, TimeUnit.MILLISECONDS)
+                .build();
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(breaker)
+                .addInterceptor(limiter)
+                .build();
+        final Request request = new Request.Builder().url(server.url("/")).build();
+
+        //4个请求排队依次执行，后面的总耗时超过250ms，但每个的网络时间只有约100ms
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        client.newCall(request).execute().close();
+                    } catch (IOException ignored) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state(host()));
+    }
+}
@@ -0,0 +1,280 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * CachePolicy通过enqueue对着磁盘缓存执行：CACHE_THEN_NETWORK的两次回调、CACHE_ONLY没有缓存时的504、
+ * maxStale和minFresh，CacheStatsInterceptor按ETag和Last-Modified分别统计条件请求，以及内存缓存同样按策略处理
+ */
+public class CachePolicyTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private MockWebServer server;
+    private Cache cache;
+    private CacheStatsInterceptor stats;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        //maxAge：响应的max-age，默认60秒；age：Date比现在早的秒数；
+        //etag、lastModified：带上验证器，条件请求返回304
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                HttpUrl url = request.getRequestUrl();
+                boolean etag = url.queryParameter("etag") != null;
+                boolean lastModified = url.queryParameter("lastModified") != null;
+                if ((etag && "\"v1\"".equals(request.getHeader("If-None-Match")))
+                        || (lastModified && request.getHeader("If-Modified-Since") != null)) {
+                    return new MockResponse().setResponseCode(304);
+                }
+                String maxAge = url.queryParameter("maxAge");
+                MockResponse response = new MockResponse()
+                        .setHeader("Cache-Control", "max-age=" + (maxAge != null ? maxAge : "60"))
+                        .setBody("v1");
+                String age = url.queryParameter("age");
+                if (age != null) {
+                    response.setHeader("Date", httpDate(System.currentTimeMillis() - Long.parseLong(age) * 1000L));
+                }
+                if (etag) {
+                    response.setHeader("ETag", "\"v1\"");
+                }
+                if (lastModified) {
+                    response.setHeader("Last-Modified", httpDate(System.currentTimeMillis() - 3600 * 1000L));
+                }
+                return response;
+            }
+        });
+        server.start();
+        cache = new Cache(temp.getRoot(), 1 << 20);
+        stats = new CacheStatsInterceptor();
+        client = new OkHttpClient.Builder().cache(cache).addInterceptor(stats).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+        cache.close();
+    }
+
+    private static String httpDate(long millis) {
+        //借Headers按HTTP日期格式输出
+        return new Headers.Builder().set("Date", new Date(millis)).build().get("Date");
+    }
+
+    private Request get(String pathAndQuery) {
+        return new Request.Builder().url(server.url(pathAndQuery)).build();
+    }
+
+    private void prime(String pathAndQuery) throws IOException {
+        Response response = client.newCall(get(pathAndQuery)).execute();
+        assertEquals("v1", response.body().string());
+    }
+
+    /**
+     * 按顺序记录每一次回调，响应体在回调中读出
+     */
+    private static final class Recorder implements Callback {
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            results.add(e);
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            //先读出响应体，Response本身可以在回调之后检查
+            response.body().string();
+            results.add(response);
+        }
+
+        Response next() throws Exception {
+            Object result = results.poll(5, TimeUnit.SECONDS);
+            assertNotNull("callback not invoked", result);
+            if (result instanceof IOException) {
+                throw (IOException) result;
+            }
+            return (Response) result;
+        }
+
+        void assertNoMore() throws Exception {
+            assertNull(results.poll(200, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private Recorder enqueue(OkHttpClient client, CachePolicy policy, String pathAndQuery) {
+        Recorder recorder = new Recorder();
+        policy.enqueue(client, get(pathAndQuery), recorder);
+        return recorder;
+    }
+
+    private Response enqueueOnce(CachePolicy policy, String pathAndQuery) throws Exception {
+        Recorder recorder = enqueue(client, policy, pathAndQuery);
+        Response response = recorder.next();
+        recorder.assertNoMore();
+        return response;
+    }
+
+    @Test
+    public void cacheThenNetworkCallsBackTwice() throws Exception {
+        prime("/a?etag=1");
+        Recorder recorder = enqueue(client, CachePolicy.CACHE_THEN_NETWORK, "/a?etag=1");
+
+        Response cached = recorder.next();
+        assertNull(cached.networkResponse());
+        assertNotNull(cached.cacheResponse());
+
+        //第二次带If-None-Match访问网络，304时内容和第一次相同
+        Response revalidated = recorder.next();
+        assertEquals(304, revalidated.networkResponse().code());
+        assertEquals(200, revalidated.code());
+        assertEquals("\"v1\"", revalidated.networkResponse().request().header("If-None-Match"));
+        recorder.assertNoMore();
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.conditionalHitCount());
+    }
+
+    @Test
+    public void cacheThenNetworkWithoutCacheCallsBackOnce() throws Exception {
+        Response response = enqueueOnce(CachePolicy.CACHE_THEN_NETWORK, "/a");
+        assertNotNull(response.networkResponse());
+        assertEquals(200, response.code());
+        assertEquals(1, server.getRequestCount());
+        //没有缓存时只读缓存的那一次是504
+        assertEquals(1, stats.unsatisfiableCount());
+        assertEquals(1, stats.networkCount());
+    }
+
+    @Test
+    public void cacheOnlyWithoutCacheIs504() throws Exception {
+        Response response = enqueueOnce(CachePolicy.CACHE_ONLY, "/a");
+        //同步接口因为不是isSuccessful返回null
+        assertEquals(504, response.code());
+        assertNull(response.cacheResponse());
+        assertNull(response.networkResponse());
+        assertEquals(0, server.getRequestCount());
+        assertEquals(1, stats.unsatisfiableCount());
+
+        prime("/a");
+        response = enqueueOnce(CachePolicy.CACHE_ONLY, "/a");
+        assertEquals(200, response.code());
+        assertNull(response.networkResponse());
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, stats.hitCount());
+    }
+
+    @Test
+    public void maxStale() throws Exception {
+        //已经过期10秒
+        prime("/a?age=70");
+        Response stale = enqueueOnce(CachePolicy.maxStale(30, TimeUnit.SECONDS), "/a?age=70");
+        assertNull(stale.networkResponse());
+        assertEquals(1, server.getRequestCount());
+
+        Response refreshed = enqueueOnce(CachePolicy.maxStale(5, TimeUnit.SECONDS), "/a?age=70");
+        assertNotNull(refreshed.networkResponse());
+        assertEquals(2, server.getRequestCount());
+
+        //DEFAULT不接受过期的缓存
+        enqueueOnce(CachePolicy.DEFAULT, "/a?age=70");
+        assertEquals(3, server.getRequestCount());
+        assertEquals(1, stats.hitCount());
+    }
+
+    @Test
+    public void minFresh() throws Exception {
+        //还有30秒新鲜
+        prime("/a?age=30");
+        Response fresh = enqueueOnce(CachePolicy.minFresh(10, TimeUnit.SECONDS), "/a?age=30");
+        assertNull(fresh.networkResponse());
+        assertEquals(1, server.getRequestCount());
+
+        Response refreshed = enqueueOnce(CachePolicy.minFresh(40, TimeUnit.SECONDS), "/a?age=30");
+        assertNotNull(refreshed.networkResponse());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void revalidationCountedByValidator() throws Exception {
+        //max-age=0，每次都要验证
+        prime("/etag?maxAge=0&etag=1");
+        prime("/lm?maxAge=0&lastModified=1");
+        prime("/etag?maxAge=0&etag=1");
+        prime("/lm?maxAge=0&lastModified=1");
+
+        assertEquals(1, stats.etagRevalidationCount());
+        assertEquals(1, stats.etagNotModifiedCount());
+        assertEquals(1, stats.lastModifiedRevalidationCount());
+        assertEquals(1, stats.lastModifiedNotModifiedCount());
+        assertEquals(2, stats.conditionalHitCount());
+        assertEquals(2, stats.networkCount());
+        assertEquals(4, server.getRequestCount());
+    }
+
+    @Test
+    public void memoryCacheHonoursPolicy() throws Exception {
+        MemoryCacheInterceptor memory = new MemoryCacheInterceptor(1 << 20);
+        //和OkHttpClientUtils相同的顺序：内存缓存在统计和磁盘缓存之前
+        OkHttpClient client = new OkHttpClient.Builder().cache(cache).addInterceptor(memory).addInterceptor(stats).build();
+        Recorder recorder = enqueue(client, CachePolicy.DEFAULT, "/a?age=30");
+        recorder.next();
+        assertEquals(1, server.getRequestCount());
+
+        //内存中还有30秒，满足minFresh=10，不经过磁盘缓存
+        enqueue(client, CachePolicy.minFresh(10, TimeUnit.SECONDS), "/a?age=30").next();
+        assertEquals(1, memory.hitCount());
+        assertEquals(0, stats.hitCount());
+
+        //不满足minFresh=40，内存和磁盘都不能用
+        enqueue(client, CachePolicy.minFresh(40, TimeUnit.SECONDS), "/a?age=30").next();
+        assertEquals(2, server.getRequestCount());
+
+        //NETWORK_ONLY不读内存缓存
+        Response network = enqueue(client, CachePolicy.NETWORK_ONLY, "/a?age=30").next();
+        assertNotNull(network.networkResponse());
+        assertEquals(3, server.getRequestCount());
+
+        //CACHE_ONLY从内存返回
+        Response cached = enqueue(client, CachePolicy.CACHE_ONLY, "/a?age=30").next();
+        assertEquals(200, cached.code());
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, memory.hitCount());
+
+        //CACHE_THEN_NETWORK的第二次请求不读内存，一定访问网络
+        recorder = enqueue(client, CachePolicy.CACHE_THEN_NETWORK, "/a?age=30");
+        assertNull(recorder.next().networkResponse());
+        assertNotNull(recorder.next().networkResponse());
+        assertEquals(4, server.getRequestCount());
+    }
+}
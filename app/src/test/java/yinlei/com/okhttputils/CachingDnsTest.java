@@ -0,0 +1,293 @@
+package yinlei.com.okhttputils;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * CachingDns的缓存、过期回退、合并解析和IPv4/IPv6并行解析，上游是假的解析器
+ */
+public class CachingDnsTest {
+
+    private static final InetAddress V4 = address("fake.test", 10, 0, 0, 1);
+    private static final InetAddress V6 = address("fake.test", 0xfd, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1);
+
+    /**
+     * 计数的假上游，failing为true时解析失败
+     */
+    private static final class FakeDns implements Dns {
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile boolean failing;
+        volatile long delayMillis;
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            lookups.incrementAndGet();
+            sleep(delayMillis);
+            if (failing) {
+                throw new UnknownHostException(hostname);
+            }
+            return Collections.singletonList(V4);
+        }
+    }
+
+    @Test
+    public void cachedWithinTtl() throws Exception {
+        FakeDns upstream = new FakeDns();
+        CachingDns dns = new CachingDns.Builder().upstream(upstream).build();
+
+        assertEquals(Collections.singletonList(V4), dns.lookup("fake.test"));
+        assertEquals(Collections.singletonList(V4), dns.lookup("fake.test"));
+        assertEquals(1, upstream.lookups.get());
+        assertEquals(1, dns.hitCount());
+        assertEquals(1, dns.missCount());
+        assertEquals(1, dns.lookupTime().count());
+    }
+
+    @Test
+    public void resolvedAgainAfterTtl() throws Exception {
+        FakeDns upstream = new FakeDns();
+        CachingDns dns = new CachingDns.Builder()
+                .upstream(upstream)
+                .ttl(50, TimeUnit.MILLISECONDS)
+                .build();
+
+        dns.lookup("fake.test");
+        Thread.sleep(100);
+        dns.lookup("fake.test");
+        assertEquals(2, upstream.lookups.get());
+    }
+
+    @Test
+    public void staleAddressesUsedWhenUpstreamFails() throws Exception {
+        FakeDns upstream = new FakeDns();
+        CachingDns dns = new CachingDns.Builder()
+                .upstream(upstream)
+                .ttl(50, TimeUnit.MILLISECONDS)
+                .staleTtl(1, TimeUnit.MINUTES)
+                .build();
+
+        dns.lookup("fake.test");
+        Thread.sleep(100);
+        upstream.failing = true;
+        assertEquals(Collections.singletonList(V4), dns.lookup("fake.test"));
+        assertEquals(1, dns.staleHitCount());
+        assertEquals(1, dns.failureCount());
+
+        try {
+            dns.lookup("other.test");
+            fail();
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    @Test
+    public void staleAddressesExpire() throws Exception {
+        FakeDns upstream = new FakeDns();
+        CachingDns dns = new CachingDns.Builder()
+                .upstream(upstream)
+                .ttl(20, TimeUnit.MILLISECONDS)
+                .staleTtl(20, TimeUnit.MILLISECONDS)
+                .build();
+
+        dns.lookup("fake.test");
+        Thread.sleep(100);
+        upstream.failing = true;
+        try {
+            dns.lookup("fake.test");
+            fail();
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    @Test
+    public void concurrentLookupsShareOneUpstreamQuery() throws Exception {
+        final FakeDns upstream = new FakeDns();
+        upstream.delayMillis = 200;
+        final CachingDns dns = new CachingDns.Builder().upstream(upstream).build();
+
+        int threads = 8;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(dns.lookup("fake.test"));
+                    } catch (UnknownHostException e) {
+                        results.add(e);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, upstream.lookups.get());
+        for (Object result : results) {
+            assertEquals(Collections.singletonList(V4), result);
+        }
+    }
+
+    @Test
+    public void prefetchFillsCache() throws Exception {
+        FakeDns upstream = new FakeDns();
+        CachingDns dns = new CachingDns.Builder().upstream(upstream).build();
+
+        dns.prefetch("a.test", "b.test");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (upstream.lookups.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        //等待解析结果放入缓存
+        Thread.sleep(50);
+        dns.lookup("a.test");
+        dns.lookup("b.test");
+        assertEquals(2, upstream.lookups.get());
+        assertEquals(2, dns.hitCount());
+    }
+
+    @Test
+    public void slowFamilyDoesNotDelayLookup() throws Exception {
+        //IPv4很慢，IPv6返回后最多再等resolutionDelay
+        CachingDns dns = new CachingDns.Builder()
+                .upstream(new FakeFamilyResolver(2000, 0))
+                .resolutionDelay(50, TimeUnit.MILLISECONDS)
+                .build();
+
+        long start = System.nanoTime();
+        List<InetAddress> addresses = dns.lookup("fake.test");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(Collections.singletonList(V6), addresses);
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 1000);
+    }
+
+    @Test
+    public void bothFamiliesInterleavedWhenFast() throws Exception {
+        CachingDns dns = new CachingDns.Builder()
+                .upstream(new FakeFamilyResolver(0, 20))
+                .resolutionDelay(500, TimeUnit.MILLISECONDS)
+                .build();
+
+        assertEquals(Arrays.asList(V6, V4), dns.lookup("fake.test"));
+    }
+
+    @Test
+    public void failedFamilyFallsBackToOther() throws Exception {
+        CachingDns dns = new CachingDns.Builder()
+                .upstream(new FakeFamilyResolver(0, -1))
+                .build();
+
+        assertEquals(Collections.singletonList(V4), dns.lookup("fake.test"));
+    }
+
+    @Test
+    public void hungFamilyBoundedByLookupTimeout() throws Exception {
+        //IPv4失败，IPv6一直不返回
+        CachingDns dns = new CachingDns.Builder()
+                .upstream(new FakeFamilyResolver(-1, 5000))
+                .lookupTimeout(200, TimeUnit.MILLISECONDS)
+                .build();
+
+        long start = System.nanoTime();
+        try {
+            dns.lookup("fake.test");
+            fail();
+        } catch (UnknownHostException expected) {
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 2000);
+        assertEquals(1, dns.failureCount());
+    }
+
+    @Test
+    public void configClientUsesFakeResolver() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.start();
+        try {
+            final InetAddress local = InetAddress.getByName(server.getHostName());
+            CachingDns dns = new CachingDns.Builder()
+                    .upstream(new Dns() {
+                        @Override
+                        public List<InetAddress> lookup(String hostname) {
+                            return Collections.singletonList(local);
+                        }
+                    })
+                    .build();
+            //和共享client一样由Config生成OkHttpClient
+            OkHttpClient client = new OkHttpClientUtils.Config.Builder()
+                    .dns(dns)
+                    .build()
+                    .newClientBuilder()
+                    .build();
+            String url = server.url("/").newBuilder().host("api.fake.test").build().toString();
+
+            Response response = client.newCall(new Request.Builder().url(url).build()).execute();
+            assertEquals("ok", response.body().string());
+            assertEquals(1, dns.missCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * 按地址类型分别延迟返回，延迟为-1时这一类解析失败
+     */
+    private static final class FakeFamilyResolver implements CachingDns.FamilyResolver {
+        private final long ipv4DelayMillis;
+        private final long ipv6DelayMillis;
+
+        FakeFamilyResolver(long ipv4DelayMillis, long ipv6DelayMillis) {
+            this.ipv4DelayMillis = ipv4DelayMillis;
+            this.ipv6DelayMillis = ipv6DelayMillis;
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname, boolean ipv6) throws UnknownHostException {
+            long delay = ipv6 ? ipv6DelayMillis : ipv4DelayMillis;
+            if (delay < 0) {
+                throw new UnknownHostException(hostname);
+            }
+            sleep(delay);
+            return Collections.singletonList(ipv6 ? V6 : V4);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static InetAddress address(String host, int... bytes) {
+        byte[] address = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            address[i] = (byte) bytes[i];
+        }
+        try {
+            return InetAddress.getByAddress(host, address);
+        } catch (UnknownHostException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * CircuitBreaker的打开、半开、关闭，以及打开时磁盘缓存仍然可以返回；只有502、503、504算失败
+ */
+public class CircuitBreakerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private MockWebServer server;
+    private StatusDispatcher dispatcher;
+    private final List<String> transitions = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * 返回code，/cached返回可以缓存一分钟的响应
+     */
+    private static final class StatusDispatcher extends okhttp3.mockwebserver.Dispatcher {
+        volatile int code = 200;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            MockResponse response = new MockResponse().setResponseCode(code).setBody(request.getPath());
+            if ("/cached".equals(request.getPath())) {
+                response.setHeader("Cache-Control", "max-age=60");
+            }
+            return response;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dispatcher = new StatusDispatcher();
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private CircuitBreaker.Builder breaker() {
+        return new CircuitBreaker.Builder()
+                .windowSize(10)
+                .minimumCalls(4)
+                .failureRateThreshold(0.5f)
+                .openDuration(200, TimeUnit.MILLISECONDS)
+                .halfOpenCalls(2)
+                .listener(new CircuitBreaker.Listener() {
+                    @Override
+                    public void onStateChange(String host, CircuitBreaker.State from, CircuitBreaker.State to) {
+                        transitions.add(from + "->" + to);
+                    }
+                });
+    }
+
+    private OkHttpClient client(CircuitBreaker breaker) {
+        return new OkHttpClient.Builder()
+                .cache(new Cache(temp.getRoot(), 1 << 20))
+                .addInterceptor(breaker)
+                .build();
+    }
+
+    private String host() {
+        return CircuitBreaker.hostOf(server.url("/"));
+    }
+
+    private static int call(OkHttpClient client, Request request) throws IOException {
+        Response response = client.newCall(request).execute();
+        response.body().string();
+        return response.code();
+    }
+
+    private static Request get(MockWebServer server, String path) {
+        return new Request.Builder().url(server.url(path)).build();
+    }
+
+    private void open(OkHttpClient client, CircuitBreaker breaker) throws IOException {
+        dispatcher.code = 503;
+        for (int i = 0; i < 10 && breaker.state(host()) == CircuitBreaker.State.CLOSED; i++) {
+            assertEquals(503, call(client, get(server, "/fail")));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state(host()));
+    }
+
+    @Test
+    public void opensAfterFailuresAndFailsFast() throws Exception {
+        CircuitBreaker breaker = breaker().build();
+        OkHttpClient client = client(breaker);
+        open(client, breaker);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state(host()));
+
+        int requests = server.getRequestCount();
+        try {
+            call(client, get(server, "/fail"));
+            fail();
+        } catch (CircuitOpenException expected) {
+            assertEquals(host(), expected.host());
+            assertTrue(expected.retryAfterMillis() > 0);
+        }
+        assertEquals(requests, server.getRequestCount());
+        assertEquals(1, breaker.rejectedCount());
+        assertEquals(Collections.singletonList("CLOSED->OPEN"), transitions);
+    }
+
+    @Test
+    public void halfOpenProbesCloseOnSuccess() throws Exception {
+        CircuitBreaker breaker = breaker().build();
+        OkHttpClient client = client(breaker);
+        open(client, breaker);
+
+        Thread.sleep(300);
+        dispatcher.code = 200;
+        assertEquals(200, call(client, get(server, "/ok")));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state(host()));
+        assertEquals(200, call(client, get(server, "/ok")));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state(host()));
+        assertEquals(1, breaker.closedCount());
+        assertEquals(3, transitions.size());
+        assertEquals("OPEN->HALF_OPEN", transitions.get(1));
+        assertEquals("HALF_OPEN->CLOSED", transitions.get(2));
+    }
+
+    @Test
+    public void failedProbeReopens() throws Exception {
+        CircuitBreaker breaker = breaker().build();
+        OkHttpClient client = client(breaker);
+        open(client, breaker);
+
+        Thread.sleep(300);
+        assertEquals(503, call(client, get(server, "/fail")));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state(host()));
+        assertEquals(2, breaker.openedCount());
+        assertEquals("HALF_OPEN->OPEN", transitions.get(transitions.size() - 1));
+    }
+
+    @Test
+    public void cacheAnswersWhileOpen() throws Exception {
+        CircuitBreaker breaker = breaker().build();
+        OkHttpClient client = client(breaker);
+        assertEquals(200, call(client, get(server, "/cached")));
+        assertEquals(200, call(client, get(server, "/stale")));
+        open(client, breaker);
+        int requests = server.getRequestCount();
+
+        //新鲜的缓存
+        Response fresh = client.newCall(get(server, "/cached")).execute();
+        assertEquals("/cached", fresh.body().string());
+        assertNotNull(fresh.cacheResponse());
+
+        //过期的缓存，CACHE_ELSE_NETWORK允许使用
+        Response stale = client.newCall(CachePolicy.CACHE_ELSE_NETWORK.apply(get(server, "/stale"))).execute();
+        assertEquals("/stale", stale.body().string());
+
+        //没有缓存
+        try {
+            call(client, get(server, "/missing"));
+            fail();
+        } catch (CircuitOpenException expected) {
+        }
+        assertEquals(requests, server.getRequestCount());
+        assertEquals(2, breaker.cacheFallbackCount());
+        assertEquals(1, breaker.rejectedCount());
+    }
+
+    @Test
+    public void cacheHitsAreNotCounted() throws Exception {
+        CircuitBreaker breaker = breaker().build();
+        OkHttpClient client = client(breaker);
+        assertEquals(200, call(client, get(server, "/cached")));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, call(client, get(server, "/cached")));
+        }
+        assertEquals(1, server.getRequestCount());
+
+        //窗口里只有1次成功和3次失败；缓存命中也算成功时是3/7，不会打开
+        dispatcher.code = 503;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(503, call(client, get(server, "/fail")));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state(host()));
+    }
+
+    @Test
+    public void otherServerErrorsDoNotOpen() throws Exception {
+        CircuitBreaker breaker = breaker().build();
+        OkHttpClient client = client(breaker);
+        //某个接口一直返回500，host仍然可用
+        dispatcher.code = 500;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(500, call(client, get(server, "/broken")));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state(host()));
+        assertEquals(0, breaker.openedCount());
+    }
+}
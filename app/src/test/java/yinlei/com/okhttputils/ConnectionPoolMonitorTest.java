@@ -0,0 +1,188 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * ConnectionPoolMonitor按host回收空闲连接：超过maxIdleConnections、超过保活时间和prune，
+ * 回收后OkHttp的连接池里也没有这些连接，下一个请求会新建连接
+ */
+public class ConnectionPoolMonitorTest {
+
+    private MockWebServer server;
+    private ConnectionPool pool;
+
+    /**
+     * 等到parallel个请求都到达后再一起返回，保证每个请求各用一个连接
+     */
+    private static final class GateDispatcher extends Dispatcher {
+        volatile CountDownLatch arrived = new CountDownLatch(0);
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            CountDownLatch latch = arrived;
+            latch.countDown();
+            latch.await(5, TimeUnit.SECONDS);
+            return new MockResponse().setBody("ok");
+        }
+    }
+
+    private final GateDispatcher dispatcher = new GateDispatcher();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        pool = new ConnectionPool(10, 5, TimeUnit.MINUTES);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.evictAll();
+        server.shutdown();
+    }
+
+    private OkHttpClient client(ConnectionPoolMonitor monitor) {
+        monitor.attach(pool);
+        return new OkHttpClient.Builder()
+                .connectionPool(pool)
+                .eventListenerFactory(monitor)
+                .build();
+    }
+
+    private String host() {
+        return server.url("/").host();
+    }
+
+    private void get(OkHttpClient client) throws Exception {
+        Response response = client.newCall(new Request.Builder().url(server.url("/")).build()).execute();
+        assertEquals("ok", response.body().string());
+    }
+
+    /**
+     * 同时发出parallel个请求，全部完成后返回
+     */
+    private void parallel(final OkHttpClient client, int parallel) throws Exception {
+        dispatcher.arrived = new CountDownLatch(parallel);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < parallel; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        get(client);
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    @Test
+    public void idleConnectionsAboveHostLimitAreEvicted() throws Exception {
+        ConnectionPoolMonitor monitor = new ConnectionPoolMonitor.Builder()
+                .maxIdleConnections(host(), 1)
+                .build();
+        OkHttpClient client = client(monitor);
+
+        parallel(client, 3);
+        ConnectionPoolMonitor.HostSnapshot snapshot = monitor.snapshot(host());
+        assertEquals(3, snapshot.created());
+        assertEquals(1, snapshot.idle());
+        assertEquals(0, snapshot.active());
+        assertEquals(2, snapshot.evicted());
+        assertEquals(1, pool.connectionCount());
+
+        //留下的连接可以继续复用
+        get(client);
+        assertEquals(1, monitor.snapshot(host()).reused());
+        assertEquals(1, pool.connectionCount());
+    }
+
+    @Test
+    public void idleConnectionsEvictedAfterHostKeepAlive() throws Exception {
+        ConnectionPoolMonitor monitor = new ConnectionPoolMonitor.Builder()
+                .keepAliveDuration(host(), 200, TimeUnit.MILLISECONDS)
+                .build();
+        OkHttpClient client = client(monitor);
+
+        get(client);
+        assertEquals(1, monitor.snapshot(host()).idle());
+        assertEquals(1, pool.connectionCount());
+
+        Thread.sleep(600);
+        ConnectionPoolMonitor.HostSnapshot snapshot = monitor.snapshot(host());
+        assertEquals(0, snapshot.idle());
+        assertEquals(1, snapshot.evicted());
+        assertEquals(0, pool.connectionCount());
+    }
+
+    @Test
+    public void pruneClosesIdleConnections() throws Exception {
+        ConnectionPoolMonitor monitor = new ConnectionPoolMonitor.Builder().build();
+        OkHttpClient client = client(monitor);
+
+        get(client);
+        get(client);
+        ConnectionPoolMonitor.HostSnapshot snapshot = monitor.snapshot(host());
+        assertEquals(2, snapshot.acquired());
+        assertEquals(1, snapshot.created());
+        assertEquals(0.5, snapshot.reuseRatio(), 0.001);
+
+        assertEquals(1, monitor.prune());
+        assertEquals(0, pool.connectionCount());
+        assertEquals(0, monitor.snapshot(host()).idle());
+
+        //被回收的连接不会再被取出来
+        get(client);
+        assertEquals(2, monitor.snapshot(host()).created());
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void withoutAttachOnlyCounts() throws Exception {
+        ConnectionPoolMonitor monitor = new ConnectionPoolMonitor.Builder()
+                .maxIdleConnectionsPerHost(0)
+                .build();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .connectionPool(pool)
+                .eventListenerFactory(monitor)
+                .build();
+
+        get(client);
+        ConnectionPoolMonitor.HostSnapshot snapshot = monitor.snapshot(host());
+        assertEquals(1, snapshot.idle());
+        assertEquals(0, snapshot.evicted());
+        assertEquals(1, pool.idleConnectionCount());
+    }
+}
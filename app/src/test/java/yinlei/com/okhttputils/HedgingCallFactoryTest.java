@@ -0,0 +1,167 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * HedgingCallFactory在超过p95之后才发送对冲请求，先返回的结果胜出，另一个请求被取消
+ */
+public class HedgingCallFactoryTest {
+
+    private static final long MIN_DELAY_MILLIS = 200;
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private HedgingCallFactory factory;
+    //第一个/slow请求在gate为0之前不返回，之后的立即返回
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final AtomicInteger slowRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new okhttp3.mockwebserver.Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (request.getPath().startsWith("/slow") && slowRequests.getAndIncrement() == 0) {
+                    gate.await(5, TimeUnit.SECONDS);
+                    return new MockResponse().setBody("primary");
+                }
+                return new MockResponse().setBody("hedge");
+            }
+        });
+        server.start();
+        client = new OkHttpClient();
+        factory = new HedgingCallFactory(client, MIN_DELAY_MILLIS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        server.shutdown();
+    }
+
+    private Call newCall(String path) {
+        return factory.newCall(new Request.Builder().url(server.url(path)).build());
+    }
+
+    /**
+     * 积累足够的样本，之后才会对冲
+     */
+    private void warmUp() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            newCall("/fast").execute().body().string();
+        }
+        assertEquals(0, factory.hedgeCount());
+    }
+
+    /**
+     * 服务器还没有响应第一个请求，它被取消后很快释放Dispatcher的名额
+     */
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (client.dispatcher().runningCallsCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.dispatcher().runningCallsCount());
+    }
+
+    @Test
+    public void noHedgeWithoutSamples() throws Exception {
+        gate.countDown();
+        assertEquals("primary", newCall("/slow").execute().body().string());
+        assertEquals(0, factory.hedgeCount());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void executeHedgesAfterP95AndCancelsPrimary() throws Exception {
+        warmUp();
+        long start = System.nanoTime();
+        Response response = newCall("/slow").execute();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("hedge", response.body().string());
+        assertTrue("hedged too early: " + elapsed, elapsed >= MIN_DELAY_MILLIS);
+        //第一个请求在调用方线程中执行，它被取消后execute才返回，服务器仍然没有响应
+        assertTrue("primary not canceled: " + elapsed, elapsed < 2000);
+        assertEquals(1, gate.getCount());
+        assertEquals(1, factory.hedgeCount());
+        assertEquals(1, factory.hedgeWinCount());
+        awaitIdle();
+    }
+
+    @Test
+    public void enqueueHedgesAfterP95AndCancelsPrimary() throws Exception {
+        warmUp();
+        final AtomicReference<String> body = new AtomicReference<String>();
+        final CountDownLatch done = new CountDownLatch(1);
+        newCall("/slow").enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                done.countDown();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                body.set(response.body().string());
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals("hedge", body.get());
+        assertEquals(1, factory.hedgeWinCount());
+        awaitIdle();
+        assertEquals(1, gate.getCount());
+    }
+
+    @Test
+    public void executeInsideCallbackDoesNotWaitForDispatcher() throws Exception {
+        //Dispatcher只有一个名额，被正在回调的请求占着
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(1);
+        OkHttpClient single = new OkHttpClient.Builder().dispatcher(dispatcher).build();
+        final HedgingCallFactory factory = new HedgingCallFactory(single, MIN_DELAY_MILLIS);
+        final AtomicReference<String> nested = new AtomicReference<String>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        single.newCall(new Request.Builder().url(server.url("/outer")).build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                done.countDown();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                response.close();
+                try {
+                    Response inner = factory.newCall(new Request.Builder().url(server.url("/inner")).build()).execute();
+                    nested.set(inner.body().string());
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("hedge", nested.get());
+    }
+}
@@ -0,0 +1,75 @@
+package yinlei.com.okhttputils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 抛出异常的监听器不会让同一个future的其他监听器和组合出来的future停住
+ */
+public class HttpFutureTest {
+
+    private static <T> HttpFuture.Listener<T> throwing() {
+        return new HttpFuture.Listener<T>() {
+            @Override
+            public void onSuccess(T result) {
+                throw new IllegalStateException("listener bug");
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                throw new IllegalStateException("listener bug");
+            }
+        };
+    }
+
+    @Test
+    public void throwingListenerDoesNotBlockDerivedFutures() throws Exception {
+        HttpFuture<String> source = new HttpFuture<String>();
+        source.addListener(HttpFutureTest.<String>throwing());
+        HttpFuture<Integer> length = source.thenApply(new HttpFuture.Function<String, Integer>() {
+            @Override
+            public Integer apply(String value) {
+                return value.length();
+            }
+        });
+        HttpFuture<String> timed = source.withTimeout(10, TimeUnit.SECONDS);
+        HttpFuture<List<String>> all = HttpFuture.allOf(Arrays.asList(source, HttpFuture.completed("b")));
+
+        try {
+            source.succeed("abc");
+            fail();
+        } catch (IllegalStateException expected) {
+            //全部回调之后再抛出第一个异常
+        }
+        assertEquals(Integer.valueOf(3), length.get(1, TimeUnit.SECONDS));
+        assertEquals("abc", timed.get(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("abc", "b"), all.get(1, TimeUnit.SECONDS));
+        assertEquals("abc", source.get());
+    }
+
+    @Test
+    public void throwingListenerDoesNotBlockFailure() throws Exception {
+        HttpFuture<String> source = new HttpFuture<String>();
+        source.addListener(HttpFutureTest.<String>throwing());
+        HttpFuture<String> timed = source.withTimeout(10, TimeUnit.SECONDS);
+
+        IOException cause = new IOException("boom");
+        try {
+            source.fail(cause);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            timed.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (IOException expected) {
+            assertSame(cause, expected);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Date;
+
+import okhttp3.Cache;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * MemoryCacheInterceptor按Vary区分响应：Vary的请求头在key中时分别缓存，其他请求头或者*不缓存；
+ * 新鲜期限从响应的年龄(Age、Date)算起，磁盘缓存里的旧响应不会重新获得完整的max-age
+ */
+public class MemoryCacheInterceptorTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private MockWebServer server;
+    private MemoryCacheInterceptor cache;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        //返回Vary的值和请求中这个头的值，/vary/后面是Vary的值；
+        ///age/后面是Age的秒数，/dated/后面是Date比现在早的秒数
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String path = request.getPath();
+                MockResponse response = new MockResponse()
+                        .setHeader("Cache-Control", "max-age=60")
+                        .setBody(path);
+                if (path.startsWith("/vary/")) {
+                    String vary = path.substring("/vary/".length());
+                    response.setHeader("Vary", vary).setBody(vary + "=" + request.getHeader(vary));
+                } else if (path.startsWith("/age/")) {
+                    response.setHeader("Age", path.substring("/age/".length()));
+                } else if (path.startsWith("/dated/")) {
+                    long seconds = Long.parseLong(path.substring("/dated/".length()));
+                    //借Headers按HTTP日期格式输出
+                    Date date = new Date(System.currentTimeMillis() - seconds * 1000L);
+                    response.setHeader("Date", new Headers.Builder().set("Date", date).build().get("Date"));
+                }
+                return response;
+            }
+        });
+        server.start();
+        cache = new MemoryCacheInterceptor(1 << 20);
+        client = new OkHttpClient.Builder().addInterceptor(cache).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private String get(String path, String header, String value) throws Exception {
+        Request.Builder builder = new Request.Builder().url(server.url(path));
+        if (header != null) {
+            builder.header(header, value);
+        }
+        Response response = client.newCall(builder.build()).execute();
+        return response.body().string();
+    }
+
+    @Test
+    public void withoutVaryIsCached() throws Exception {
+        assertEquals(get("/plain", null, null), get("/plain", null, null));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void varyOnKeyedHeaderCachedPerValue() throws Exception {
+        assertEquals("Accept-Language=en", get("/vary/Accept-Language", "Accept-Language", "en"));
+        assertEquals("Accept-Language=fr", get("/vary/Accept-Language", "Accept-Language", "fr"));
+        assertEquals("Accept-Language=en", get("/vary/Accept-Language", "Accept-Language", "en"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void varyOnOtherHeaderNotCached() throws Exception {
+        assertEquals("User-Agent=a", get("/vary/User-Agent", "User-Agent", "a"));
+        assertEquals("User-Agent=b", get("/vary/User-Agent", "User-Agent", "b"));
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void varyStarNotCached() throws Exception {
+        get("/vary/*", null, null);
+        get("/vary/*", null, null);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, cache.hitCount());
+    }
+
+    @Test
+    public void ageCountsAgainstMaxAge() throws Exception {
+        get("/age/30", null, null);
+        get("/age/30", null, null);
+        assertEquals(1, server.getRequestCount());
+
+        //代理那里已经放了60秒，到达时就过期了
+        get("/age/60", null, null);
+        get("/age/60", null, null);
+        assertEquals(3, server.getRequestCount());
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void diskCacheHitKeepsItsAge() throws Exception {
+        Cache disk = new Cache(temp.newFolder(), 1 << 20);
+        //先只经过磁盘缓存，存入时响应已经58秒了
+        OkHttpClient diskOnly = new OkHttpClient.Builder().cache(disk).build();
+        diskOnly.newCall(new Request.Builder().url(server.url("/dated/58")).build()).execute().close();
+
+        client = new OkHttpClient.Builder().addInterceptor(cache).cache(disk).build();
+        assertEquals("/dated/58", get("/dated/58", null, null));
+        assertEquals(1, server.getRequestCount());
+        assertEquals("/dated/58".length(), cache.size());
+
+        //内存中只剩2秒，不是从磁盘读出时重新算的60秒
+        Thread.sleep(2500);
+        assertEquals("/dated/58", get("/dated/58", null, null));
+        assertEquals(2, server.getRequestCount());
+        disk.close();
+    }
+}
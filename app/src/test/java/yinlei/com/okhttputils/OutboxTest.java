@@ -0,0 +1,248 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.*;
+
+/**
+ * Outbox在服务器断开时保存、恢复后按顺序补发，以及进程重启后从日志恢复
+ */
+public class OutboxTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private MockWebServer server;
+    private OfflineDispatcher dispatcher;
+    private OkHttpClient client;
+    private File dir;
+
+    /**
+     * offline时直接断开连接，online时返回code并记录请求体
+     */
+    private static final class OfflineDispatcher extends okhttp3.mockwebserver.Dispatcher {
+        volatile boolean online;
+        volatile int code = 200;
+        final AtomicInteger attempts = new AtomicInteger();
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+        //DISCONNECT_AT_START只在peek()中生效，读取请求之前断开
+        @Override
+        public MockResponse peek() {
+            return new MockResponse().setSocketPolicy(online ? SocketPolicy.KEEP_OPEN : SocketPolicy.DISCONNECT_AT_START);
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            attempts.incrementAndGet();
+            if (!online) {
+                return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START);
+            }
+            received.add(request.getBody().readUtf8());
+            return new MockResponse().setResponseCode(code);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dispatcher = new OfflineDispatcher();
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        client = new OkHttpClient.Builder().retryOnConnectionFailure(false).build();
+        dir = temp.newFolder("outbox");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private Outbox newOutbox() {
+        return new Outbox.Builder()
+                .directory(dir)
+                .client(client)
+                .maxConcurrency(1)
+                .retryDelay(10, TimeUnit.SECONDS)
+                .syncInterval(20, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private static Map<String, String> form(int i) {
+        return Collections.singletonMap("i", String.valueOf(i));
+    }
+
+    private static void awaitTrue(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.isTrue()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean isTrue();
+    }
+
+    /**
+     * 等离线时的第一次发送被服务器断开；close()取消还在建立连接的请求时OkHttp仍可能把它发出去，
+     * 那是允许的重复，但会让按次数断言的测试不稳定
+     */
+    private void awaitFirstAttempt() throws InterruptedException {
+        awaitTrue(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return dispatcher.attempts.get() >= 1;
+            }
+        });
+    }
+
+    @Test
+    public void replayedInOrderWhenServerComesBack() throws Exception {
+        final Outbox outbox = newOutbox();
+        String url = server.url("/submit").toString();
+        for (int i = 0; i < 5; i++) {
+            outbox.post(url, form(i));
+        }
+        awaitFirstAttempt();
+        outbox.flush();
+        assertEquals(5, outbox.pendingCount());
+        assertTrue(new File(dir, "outbox.log").length() > 0);
+
+        dispatcher.online = true;
+        outbox.retryNow();
+        awaitTrue(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return outbox.deliveredCount() == 5;
+            }
+        });
+        assertEquals(0, outbox.pendingCount());
+        assertEquals(5, dispatcher.received.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("i=" + i, dispatcher.received.get(i));
+        }
+
+        //全部确认后日志被清空
+        outbox.flush();
+        assertEquals(0, new File(dir, "outbox.log").length());
+        outbox.close();
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        Outbox first = newOutbox();
+        String url = server.url("/submit").toString();
+        for (int i = 0; i < 3; i++) {
+            first.post(url, form(i));
+        }
+        awaitFirstAttempt();
+        first.flush();
+        first.close();
+
+        //模拟进程重启：同一个目录新建Outbox，服务器已经恢复
+        dispatcher.online = true;
+        final Outbox second = newOutbox();
+        awaitTrue(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return second.deliveredCount() == 3;
+            }
+        });
+        assertEquals(3, dispatcher.received.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("i=" + i, dispatcher.received.get(i));
+        }
+        second.close();
+    }
+
+    @Test
+    public void tornRecordAtEndIsDropped() throws Exception {
+        Outbox first = newOutbox();
+        String url = server.url("/submit").toString();
+        first.post(url, form(0));
+        first.post(url, form(1));
+        awaitFirstAttempt();
+        first.flush();
+        first.close();
+
+        //写到一半的记录
+        File log = new File(dir, "outbox.log");
+        long validLength = log.length();
+        FileOutputStream out = new FileOutputStream(log, true);
+        out.write(new byte[]{0, 0, 0, 40, 1, 2, 3});
+        out.close();
+
+        dispatcher.online = true;
+        final Outbox second = newOutbox();
+        awaitTrue(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return second.deliveredCount() == 2;
+            }
+        });
+        assertEquals(2, dispatcher.received.size());
+        second.close();
+        assertTrue(log.length() < validLength);
+    }
+
+    @Test
+    public void clientErrorIsDroppedNotRetried() throws Exception {
+        dispatcher.online = true;
+        dispatcher.code = 400;
+        final Outbox outbox = newOutbox();
+        outbox.post(server.url("/submit").toString(), form(0));
+        awaitTrue(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return outbox.rejectedCount() == 1;
+            }
+        });
+        assertEquals(0, outbox.pendingCount());
+        assertEquals(1, dispatcher.attempts.get());
+        outbox.close();
+    }
+
+    @Test
+    public void serverErrorIsRetried() throws Exception {
+        dispatcher.online = true;
+        dispatcher.code = 503;
+        final Outbox outbox = newOutbox();
+        outbox.post(server.url("/submit").toString(), form(0));
+        awaitTrue(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return dispatcher.attempts.get() == 1;
+            }
+        });
+        dispatcher.code = 200;
+        outbox.retryNow();
+        awaitTrue(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return outbox.deliveredCount() == 1;
+            }
+        });
+        assertEquals(0, outbox.pendingCount());
+        outbox.close();
+    }
+}
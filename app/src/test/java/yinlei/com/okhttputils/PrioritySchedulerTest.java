@@ -0,0 +1,187 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * PriorityScheduler占满名额后按优先级启动排队的请求，排队太久的请求提高优先级，
+ * 以及配置AdaptiveLimiter后单个host按它的上限调度
+ */
+public class PrioritySchedulerTest {
+
+    private MockWebServer server;
+    private final OkHttpClient client = new OkHttpClient();
+    //服务器收到请求的顺序
+    private final List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    //为0之前/block开头的请求不返回
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                paths.add(request.getPath());
+                int now = concurrent.incrementAndGet();
+                while (true) {
+                    int max = maxConcurrent.get();
+                    if (now <= max || maxConcurrent.compareAndSet(max, now)) {
+                        break;
+                    }
+                }
+                try {
+                    if (request.getPath().startsWith("/block")) {
+                        gate.await(5, TimeUnit.SECONDS);
+                    }
+                    return new MockResponse();
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        server.shutdown();
+    }
+
+    private static final class Finished implements Callback {
+        final CountDownLatch latch;
+
+        Finished(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            response.close();
+            latch.countDown();
+        }
+    }
+
+    private void enqueue(PriorityScheduler scheduler, String path, Priority priority, CountDownLatch finished) {
+        Request request = new Request.Builder().url(server.url(path)).tag(Priority.class, priority).build();
+        scheduler.newCall(client, request).enqueue(new Finished(finished));
+    }
+
+    /**
+     * 等服务器收到count个请求
+     */
+    private void awaitRequests(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (paths.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, paths.size());
+    }
+
+    @Test
+    public void higherPriorityStartsFirst() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler.Builder()
+                .maxRequests(1)
+                .agingInterval(0, TimeUnit.MILLISECONDS)
+                .build();
+        CountDownLatch finished = new CountDownLatch(5);
+        enqueue(scheduler, "/block", Priority.NORMAL, finished);
+        awaitRequests(1);
+
+        enqueue(scheduler, "/low1", Priority.LOW, finished);
+        enqueue(scheduler, "/normal", Priority.NORMAL, finished);
+        enqueue(scheduler, "/high", Priority.HIGH, finished);
+        enqueue(scheduler, "/low2", Priority.LOW, finished);
+        assertEquals(1, scheduler.runningCount());
+        assertEquals(4, scheduler.queuedCount());
+        assertEquals(2, scheduler.stats(Priority.LOW).queueDepth());
+
+        gate.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("/block", "/high", "/normal", "/low1", "/low2"), paths);
+        assertEquals(1, maxConcurrent.get());
+        assertEquals(0, scheduler.stats(Priority.LOW).aged());
+    }
+
+    @Test
+    public void agedLowPriorityOvertakesNormal() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler.Builder()
+                .maxRequests(1)
+                .agingInterval(50, TimeUnit.MILLISECONDS)
+                .build();
+        CountDownLatch finished = new CountDownLatch(3);
+        enqueue(scheduler, "/block", Priority.NORMAL, finished);
+        awaitRequests(1);
+        enqueue(scheduler, "/old", Priority.LOW, finished);
+        //排队超过两个agingInterval，有效优先级已经是HIGH
+        Thread.sleep(150);
+        enqueue(scheduler, "/new", Priority.NORMAL, finished);
+
+        gate.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("/block", "/old", "/new"), paths);
+        assertEquals(1, scheduler.stats(Priority.LOW).aged());
+    }
+
+    @Test
+    public void queuedCallsRespectAdaptiveLimiter() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler.Builder()
+                .maxRequests(64)
+                .maxRequestsPerHost(5)
+                .build();
+        AdaptiveLimiter limiter = new AdaptiveLimiter.Builder()
+                .initialLimit(2)
+                .overflowPolicy(AdaptiveLimiter.OverflowPolicy.QUEUE)
+                .build();
+        scheduler.adaptiveLimiter(limiter);
+        OkHttpClient limited = client.newBuilder().addInterceptor(limiter).build();
+
+        CountDownLatch finished = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            Request request = new Request.Builder().url(server.url("/block" + i)).build();
+            scheduler.newCall(limited, request).enqueue(new Finished(finished));
+        }
+        //只按limiter的上限交给Dispatcher，其余的在调度器里排队，不占用Dispatcher的线程等待limiter
+        awaitRequests(2);
+        Thread.sleep(100);
+        assertEquals(2, paths.size());
+        assertEquals(2, scheduler.runningCount());
+        assertEquals(3, scheduler.queuedCount());
+        assertEquals(0, limiter.queuedCount());
+        assertEquals(2, limited.dispatcher().runningCallsCount());
+
+        gate.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(5, server.getRequestCount());
+    }
+}
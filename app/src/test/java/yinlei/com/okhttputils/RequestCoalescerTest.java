@@ -0,0 +1,216 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * RequestCoalescer合并相同的请求，以及取消的语义：先取消再执行、取消一部分调用方、取消全部调用方
+ */
+public class RequestCoalescerTest {
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private RequestCoalescer coalescer;
+    //为0之前/slow不返回响应
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new okhttp3.mockwebserver.Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (request.getPath().startsWith("/slow")) {
+                    gate.await(5, TimeUnit.SECONDS);
+                }
+                return new MockResponse().setBody(request.getPath());
+            }
+        });
+        server.start();
+        client = new OkHttpClient();
+        coalescer = new RequestCoalescer(client, client.dispatcher().executorService());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        server.shutdown();
+    }
+
+    private Call newCall(String path) {
+        return coalescer.newCall(new Request.Builder().url(server.url(path)).build());
+    }
+
+    /**
+     * 记录一次回调的结果
+     */
+    private static final class Result implements Callback {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> body = new AtomicReference<String>();
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            failure.set(e);
+            done.countDown();
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            body.set(response.body().string());
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("callback not invoked", done.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void concurrentCallsShareOneRequest() throws Exception {
+        gate = new CountDownLatch(1);
+        List<Result> results = new ArrayList<Result>();
+        for (int i = 0; i < 3; i++) {
+            Result result = new Result();
+            newCall("/slow").enqueue(result);
+            results.add(result);
+        }
+        gate.countDown();
+        for (Result result : results) {
+            result.await();
+            assertEquals("/slow", result.body.get());
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, coalescer.flightCount());
+        assertEquals(2, coalescer.coalescedCount());
+    }
+
+    @Test
+    public void cancelBeforeEnqueueFailsWithoutRequest() throws Exception {
+        Call call = newCall("/a");
+        call.cancel();
+        Result result = new Result();
+        call.enqueue(result);
+        result.await();
+        assertNotNull(result.failure.get());
+        assertEquals(0, coalescer.flightCount());
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void cancelBeforeExecuteFailsWithoutRequest() throws Exception {
+        Call call = newCall("/a");
+        call.cancel();
+        try {
+            call.execute();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(0, coalescer.flightCount());
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void cancelOneOfSeveralWaiters() throws Exception {
+        gate = new CountDownLatch(1);
+        Result first = new Result();
+        Result second = new Result();
+        Result third = new Result();
+        newCall("/slow").enqueue(first);
+        Call canceled = newCall("/slow");
+        canceled.enqueue(second);
+        newCall("/slow").enqueue(third);
+
+        canceled.cancel();
+        second.await();
+        assertNotNull(second.failure.get());
+
+        //其他调用方照常收到响应
+        gate.countDown();
+        first.await();
+        third.await();
+        assertEquals("/slow", first.body.get());
+        assertEquals("/slow", third.body.get());
+        assertNull(second.body.get());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void cancelAllWaitersCancelsNetworkCall() throws Exception {
+        gate = new CountDownLatch(1);
+        List<Call> calls = new ArrayList<Call>();
+        List<Result> results = new ArrayList<Result>();
+        for (int i = 0; i < 3; i++) {
+            Call call = newCall("/slow");
+            Result result = new Result();
+            call.enqueue(result);
+            calls.add(call);
+            results.add(result);
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+        for (Result result : results) {
+            result.await();
+            assertNotNull(result.failure.get());
+        }
+
+        //取消的网络请求已经不在合并表中，新的请求重新发起
+        gate.countDown();
+        Response response = newCall("/slow").execute();
+        assertEquals("/slow", response.body().string());
+        assertEquals(2, coalescer.flightCount());
+    }
+
+    @Test
+    public void executeInsideCallbackDoesNotWaitForDispatcher() throws Exception {
+        //Dispatcher只有一个名额，被正在回调的请求占着
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(1);
+        OkHttpClient single = new OkHttpClient.Builder().dispatcher(dispatcher).build();
+        final RequestCoalescer coalescer = new RequestCoalescer(single, dispatcher.executorService());
+        final AtomicReference<String> nested = new AtomicReference<String>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        //OkHttp的回调执行完之前一直占着名额
+        single.newCall(new Request.Builder().url(server.url("/outer")).build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                done.countDown();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                response.close();
+                try {
+                    Response inner = coalescer.newCall(new Request.Builder().url(server.url("/inner")).build()).execute();
+                    nested.set(inner.body().string());
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("/inner", nested.get());
+    }
+}
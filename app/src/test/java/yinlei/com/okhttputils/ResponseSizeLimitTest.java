@@ -0,0 +1,121 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResponseSizeLimit在Content-Length和读取过程中的检查、共享client默认的32MB上限，以及Long.MAX_VALUE表示不限制
+ */
+public class ResponseSizeLimitTest {
+
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient.Builder().addInterceptor(new ResponseSizeInterceptor()).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private Request limited(long maxBytes) {
+        return new Request.Builder()
+                .url(server.url("/"))
+                .tag(ResponseSizeLimit.class, ResponseSizeLimit.of(maxBytes))
+                .build();
+    }
+
+    private static Buffer bytes(int size) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) 'a');
+        return new Buffer().write(data);
+    }
+
+    @Test
+    public void contentLengthOverLimitRejectedBeforeReading() throws Exception {
+        server.enqueue(new MockResponse().setBody(bytes(1001)));
+        try {
+            client.newCall(limited(1000)).execute();
+            fail();
+        } catch (ResponseTooLargeException expected) {
+            assertEquals(1000, expected.limit());
+        }
+    }
+
+    @Test
+    public void chunkedBodyOverLimitFailsWhileReading() throws Exception {
+        server.enqueue(new MockResponse().setChunkedBody(bytes(5000), 512));
+        Response response = client.newCall(limited(1000)).execute();
+        try {
+            response.body().bytes();
+            fail();
+        } catch (ResponseTooLargeException expected) {
+            assertEquals(1000, expected.limit());
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void bodyExactlyAtLimitIsAccepted() throws Exception {
+        server.enqueue(new MockResponse().setChunkedBody(bytes(1000), 300));
+        Response response = client.newCall(limited(1000)).execute();
+        assertEquals(1000, response.body().bytes().length);
+    }
+
+    @Test
+    public void maxValueMeansNoLimit() throws Exception {
+        server.enqueue(new MockResponse().setChunkedBody(bytes(5000), 512));
+        Response response = client.newCall(limited(Long.MAX_VALUE)).execute();
+        assertEquals(5000, response.body().bytes().length);
+
+        server.enqueue(new MockResponse().setBody("ok"));
+        assertEquals("ok", OkHttpUtils.loadStringFromUrl(server.url("/").toString(), Long.MAX_VALUE));
+    }
+
+    @Test
+    public void bufferWithUnboundedThresholdStaysInMemory() throws Exception {
+        ResponseBuffer buffer = ResponseBuffer.read(bytes(5000), null, Long.MAX_VALUE, null);
+        assertTrue(buffer.isInMemory());
+        assertEquals(5000, buffer.size());
+        buffer.close();
+    }
+
+    @Test
+    public void sharedClientAppliesDefaultLimit() throws Exception {
+        //Config.maxResponseSize默认32MB
+        server.enqueue(new MockResponse().setChunkedBody(bytes((32 << 20) + 1), 1 << 20));
+        try {
+            OkHttpUtils.loadByteFromUrl(server.url("/").toString());
+            fail();
+        } catch (ResponseTooLargeException expected) {
+            assertEquals(32 << 20, expected.limit());
+        }
+
+        //单个请求设置的上限优先
+        server.enqueue(new MockResponse().setBody(bytes(2000)));
+        try {
+            OkHttpUtils.loadByteFromUrl(server.url("/").toString(), 1000);
+            fail();
+        } catch (ResponseTooLargeException expected) {
+            assertEquals(1000, expected.limit());
+        }
+    }
+}
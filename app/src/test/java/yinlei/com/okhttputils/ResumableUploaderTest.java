@@ -0,0 +1,199 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResumableUploader对着一个简单的tus服务器上传，连接断开后从服务器确认的位置继续，
+ * 以及设置stateDir后换一个uploader(相当于进程重启)接着上传
+ */
+public class ResumableUploaderTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private MockWebServer server;
+    private TusDispatcher tus;
+    private OkHttpClient client;
+
+    /**
+     * 内存中的tus 1.0服务器：POST /files创建，HEAD查询Upload-Offset，PATCH追加；
+     * dropNextPatch为true时下一个PATCH只保存前一半数据，然后不返回响应直接断开
+     */
+    private static final class TusDispatcher extends Dispatcher {
+        final List<Buffer> uploads = Collections.synchronizedList(new ArrayList<Buffer>());
+        final List<Long> lengths = Collections.synchronizedList(new ArrayList<Long>());
+        final AtomicInteger creates = new AtomicInteger();
+        final AtomicInteger heads = new AtomicInteger();
+        volatile boolean dropNextPatch;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            if (!"1.0.0".equals(request.getHeader("Tus-Resumable"))) {
+                return new MockResponse().setResponseCode(412);
+            }
+            String path = request.getPath();
+            if ("POST".equals(request.getMethod()) && "/files".equals(path)) {
+                creates.incrementAndGet();
+                uploads.add(new Buffer());
+                lengths.add(Long.parseLong(request.getHeader("Upload-Length")));
+                return new MockResponse().setResponseCode(201).setHeader("Location", "/files/" + (uploads.size() - 1));
+            }
+            if (!path.startsWith("/files/")) {
+                return new MockResponse().setResponseCode(404);
+            }
+            int id = Integer.parseInt(path.substring("/files/".length()));
+            if (id >= uploads.size()) {
+                return new MockResponse().setResponseCode(404);
+            }
+            Buffer upload = uploads.get(id);
+            synchronized (upload) {
+                if ("HEAD".equals(request.getMethod())) {
+                    heads.incrementAndGet();
+                    return new MockResponse()
+                            .setHeader("Upload-Offset", upload.size())
+                            .setHeader("Upload-Length", lengths.get(id));
+                }
+                if ("PATCH".equals(request.getMethod())) {
+                    if (Long.parseLong(request.getHeader("Upload-Offset")) != upload.size()) {
+                        return new MockResponse().setResponseCode(409);
+                    }
+                    Buffer body = request.getBody();
+                    if (dropNextPatch) {
+                        dropNextPatch = false;
+                        upload.write(body, body.size() / 2);
+                        return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+                    }
+                    upload.write(body, body.size());
+                    return new MockResponse().setResponseCode(204).setHeader("Upload-Offset", upload.size());
+                }
+            }
+            return new MockResponse().setResponseCode(405);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        tus = new TusDispatcher();
+        server = new MockWebServer();
+        server.setDispatcher(tus);
+        server.start();
+        //OkHttp自己重试PATCH时会带着旧的Upload-Offset，关闭后由uploader查询位置再继续
+        client = new OkHttpClient.Builder().retryOnConnectionFailure(false).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private File file(int size) throws IOException {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) i;
+        }
+        File file = temp.newFile();
+        BufferedSink sink = Okio.buffer(Okio.sink(file));
+        sink.write(data);
+        sink.close();
+        return file;
+    }
+
+    private static ByteString contentOf(File file) throws IOException {
+        BufferedSource source = Okio.buffer(Okio.source(file));
+        try {
+            return source.readByteString();
+        } finally {
+            source.close();
+        }
+    }
+
+    private Request create() {
+        return new Request.Builder().url(server.url("/files")).build();
+    }
+
+    private ResumableUploader.Builder uploader() {
+        return new ResumableUploader.Builder()
+                .client(client)
+                .chunkSize(1000)
+                .retryDelay(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void uploadsInChunks() throws Exception {
+        File file = file(2500);
+        final List<Long> progress = Collections.synchronizedList(new ArrayList<Long>());
+        String url = uploader().build().upload(create(), file, new ProgressListener() {
+            @Override
+            public void onProgress(long bytesTransferred, long contentLength, long bytesPerSecond) {
+                assertEquals(2500, contentLength);
+                progress.add(bytesTransferred);
+            }
+        });
+
+        assertEquals(server.url("/files/0").toString(), url);
+        assertEquals(contentOf(file), tus.uploads.get(0).snapshot());
+        //POST和3个PATCH
+        assertEquals(4, server.getRequestCount());
+        assertEquals(Long.valueOf(2500), progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void resumesFromServerOffsetAfterDisconnect() throws Exception {
+        File file = file(2500);
+        tus.dropNextPatch = true;
+        uploader().build().upload(create(), file, null);
+
+        //服务器收到了第一块的一半，HEAD之后从500继续，不是从0或者1000
+        assertEquals(1, tus.creates.get());
+        assertEquals(1, tus.heads.get());
+        assertEquals(contentOf(file), tus.uploads.get(0).snapshot());
+    }
+
+    @Test
+    public void resumesAcrossUploadersWithStateDir() throws Exception {
+        File file = file(2500);
+        File stateDir = temp.newFolder();
+        tus.dropNextPatch = true;
+        try {
+            uploader().stateDir(stateDir).maxRetries(0).build().upload(create(), file, null);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(500, tus.uploads.get(0).size());
+        assertEquals(1, stateDir.list().length);
+
+        //新的uploader读到保存的上传地址，不再创建
+        String url = uploader().stateDir(stateDir).build().upload(create(), file, null);
+        assertEquals(server.url("/files/0").toString(), url);
+        assertEquals(1, tus.creates.get());
+        assertEquals(contentOf(file), tus.uploads.get(0).snapshot());
+        assertEquals(0, stateDir.list().length);
+    }
+}
@@ -0,0 +1,126 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * RetryInterceptor的退避上限、Retry-After以及只重试幂等请求
+ */
+public class RetryInterceptorTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private OkHttpClient client(RetryInterceptor retry) {
+        return new OkHttpClient.Builder().addInterceptor(retry).build();
+    }
+
+    private int call(OkHttpClient client, Request request) throws Exception {
+        Response response = client.newCall(request).execute();
+        response.close();
+        return response.code();
+    }
+
+    private Request get() {
+        return new Request.Builder().url(server.url("/")).build();
+    }
+
+    private Request post() {
+        return new Request.Builder().url(server.url("/"))
+                .post(RequestBody.create(MediaType.parse("text/plain"), "body"))
+                .build();
+    }
+
+    @Test
+    public void backoffNeverExceedsMaxDelay() throws Exception {
+        RetryInterceptor retry = new RetryInterceptor.Builder()
+                .baseDelay(1, TimeUnit.SECONDS)
+                .maxDelay(50, TimeUnit.MILLISECONDS)
+                .build();
+        //包括左移溢出的情况
+        for (int attempt = 0; attempt < 64; attempt++) {
+            long delay = retry.backoffMillis(attempt);
+            assertTrue(delay >= 0 && delay <= 50);
+        }
+
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse());
+        long start = System.nanoTime();
+        assertEquals(200, call(client(retry), get()));
+        //没有上限时第二次重试最多要等2秒
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, retry.retryCount());
+    }
+
+    @Test
+    public void waitsForRetryAfter() throws Exception {
+        RetryInterceptor retry = new RetryInterceptor.Builder()
+                .baseDelay(10, TimeUnit.MILLISECONDS)
+                .build();
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse());
+        long start = System.nanoTime();
+        assertEquals(200, call(client(retry), get()));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 1000);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void retryAfterBeyondMaxDelayIsReturned() throws Exception {
+        RetryInterceptor retry = new RetryInterceptor.Builder()
+                .maxDelay(1, TimeUnit.SECONDS)
+                .build();
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "10"));
+        assertEquals(429, call(client(retry), get()));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, retry.retryCount());
+    }
+
+    @Test
+    public void postNotRetriedByDefault() throws Exception {
+        RetryInterceptor retry = new RetryInterceptor.Builder()
+                .baseDelay(10, TimeUnit.MILLISECONDS)
+                .build();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse());
+        assertEquals(503, call(client(retry), post()));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void postRetriedWhenEnabled() throws Exception {
+        RetryInterceptor retry = new RetryInterceptor.Builder()
+                .baseDelay(10, TimeUnit.MILLISECONDS)
+                .retryNonIdempotent(true)
+                .build();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse());
+        assertEquals(200, call(client(retry), post()));
+        assertEquals(2, server.getRequestCount());
+    }
+}
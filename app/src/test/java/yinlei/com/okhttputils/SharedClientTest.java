@@ -0,0 +1,66 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * OkHttpUtils和OkHttpClientUtils共用同一个根client
+ */
+public class SharedClientTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void socketReusedAcrossBothEntryPoints() throws Exception {
+        server.enqueue(new MockResponse().setBody("a"));
+        server.enqueue(new MockResponse().setBody("b"));
+        server.enqueue(new MockResponse().setBody("c"));
+        String url = server.url("/").toString();
+
+        assertEquals("a", OkHttpUtils.loadStringFromUrl(url));
+        assertEquals("b", OkHttpClientUtils.loadStringFromUrl(url, "tag"));
+
+        //单独设置超时的派生client仍然复用同一个连接
+        OkHttpClient derived = OkHttpClientUtils.newBuilder()
+                .readTimeout(1, TimeUnit.SECONDS)
+                .build();
+        Response response = derived.newCall(new Request.Builder().url(url).build()).execute();
+        assertEquals("c", response.body().string());
+
+        //sequenceNumber是同一个socket上的请求序号
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+        assertEquals(2, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void derivedClientSharesPoolAndDispatcher() {
+        OkHttpClient root = OkHttpClientUtils.getOkHttpClientSingleInstance();
+        OkHttpClient derived = OkHttpClientUtils.newBuilder().build();
+        assertSame(root, OkHttpClientUtils.getOkHttpClientSingleInstance());
+        assertSame(root.connectionPool(), derived.connectionPool());
+        assertSame(root.dispatcher(), derived.dispatcher());
+    }
+}
@@ -0,0 +1,97 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * StreamReleaser在读到末尾、close()时释放，调用方忘记关闭时空闲超时后回收，正在读取的流不会被回收
+ */
+public class StreamReleaserTest {
+
+    private MockWebServer server;
+    private final OkHttpClient client = new OkHttpClient();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private Response get() throws IOException {
+        return client.newCall(new Request.Builder().url(server.url("/")).build()).execute();
+    }
+
+    @Test
+    public void releasedAtEofAndOnClose() throws Exception {
+        StreamReleaser releaser = new StreamReleaser(0, TimeUnit.MILLISECONDS);
+        server.enqueue(new MockResponse().setBody("abc"));
+        server.enqueue(new MockResponse().setBody("abc"));
+
+        InputStream stream = releaser.wrap(get());
+        while (stream.read() != -1) {
+        }
+        assertEquals(-1, stream.read());
+        assertEquals(1, releaser.eofCount());
+
+        stream = releaser.wrap(get());
+        assertEquals('a', stream.read());
+        stream.close();
+        stream.close();
+        assertEquals(1, releaser.closedCount());
+        assertEquals(0, releaser.openCount());
+    }
+
+    @Test
+    public void leakedStreamReclaimedAfterIdleTimeout() throws Exception {
+        StreamReleaser releaser = new StreamReleaser(100, TimeUnit.MILLISECONDS);
+        server.enqueue(new MockResponse().setBody("abc"));
+
+        InputStream stream = releaser.wrap(get());
+        assertEquals('a', stream.read());
+        assertEquals(1, releaser.openCount());
+
+        //没有关闭也没有继续读
+        Thread.sleep(500);
+        assertEquals(1, releaser.reclaimedCount());
+        assertEquals(0, releaser.openCount());
+        try {
+            stream.read();
+            fail();
+        } catch (IOException expected) {
+        }
+        //回收之后close()不再计数
+        stream.close();
+        assertEquals(0, releaser.closedCount());
+    }
+
+    @Test
+    public void blockedReadIsNotReclaimed() throws Exception {
+        StreamReleaser releaser = new StreamReleaser(100, TimeUnit.MILLISECONDS);
+        server.enqueue(new MockResponse().setBody("abc").setBodyDelay(500, TimeUnit.MILLISECONDS));
+
+        InputStream stream = releaser.wrap(get());
+        //read阻塞的时间比idleTimeout长，由socket的读超时负责
+        assertEquals('a', stream.read());
+        assertEquals(0, releaser.reclaimedCount());
+        stream.close();
+        assertEquals(1, releaser.closedCount());
+    }
+}
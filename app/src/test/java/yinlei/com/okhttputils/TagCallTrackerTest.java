@@ -0,0 +1,143 @@
+package yinlei.com.okhttputils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * TagCallTracker按tag限制并发，上限在tag的请求全部结束和按tag取消之后仍然有效，tag被回收后清除
+ */
+public class TagCallTrackerTest {
+
+    private MockWebServer server;
+    private final OkHttpClient client = new OkHttpClient();
+    private final TagCallTracker tracker = new TagCallTracker();
+    //为0之前服务器不返回响应
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                gate.await(5, TimeUnit.SECONDS);
+                return new MockResponse().setBody("ok");
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        server.shutdown();
+    }
+
+    private Call newCall(Object tag) {
+        return tracker.newCall(client, new Request.Builder().url(server.url("/")).tag(tag).build());
+    }
+
+    private static final class Finished implements Callback {
+        final CountDownLatch latch;
+
+        Finished(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            response.close();
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void limitQueuesCallsOfSameTag() throws Exception {
+        Object tag = new Object();
+        tracker.setMaxConcurrency(tag, 1);
+        gate = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            newCall(tag).enqueue(new Finished(finished));
+        }
+        assertEquals(1, tracker.runningCount(tag));
+        assertEquals(2, tracker.waitingCount(tag));
+
+        gate.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void limitKeptAfterLastCallFinishes() throws Exception {
+        Object tag = new Object();
+        tracker.setMaxConcurrency(tag, 1);
+        //分页：一次只有一个请求，每页结束时tag没有进行中的请求
+        for (int page = 0; page < 2; page++) {
+            Response response = newCall(tag).execute();
+            assertEquals("ok", response.body().string());
+        }
+
+        gate = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        newCall(tag).enqueue(new Finished(finished));
+        newCall(tag).enqueue(new Finished(finished));
+        assertEquals(1, tracker.runningCount(tag));
+        assertEquals(1, tracker.waitingCount(tag));
+        gate.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void limitKeptAfterCancel() throws Exception {
+        Object tag = new Object();
+        //在发出任何请求之前设置
+        tracker.setMaxConcurrency(tag, 1);
+        tracker.cancel(tag);
+
+        gate = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        newCall(tag).enqueue(new Finished(finished));
+        newCall(tag).enqueue(new Finished(finished));
+        assertEquals(1, tracker.runningCount(tag));
+        assertEquals(1, tracker.waitingCount(tag));
+        gate.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void limitDoesNotHoldTag() throws Exception {
+        Object tag = new Object();
+        tracker.setMaxConcurrency(tag, 1);
+        WeakReference<Object> ref = new WeakReference<Object>(tag);
+        tag = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+}
@@ -0,0 +1,108 @@
+package yinlei.com.okhttputils.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import yinlei.com.okhttputils.BatchResult;
+import yinlei.com.okhttputils.OkHttpClientUtils;
+import yinlei.com.okhttputils.OkHttpUtils;
+
+/**
+ * 提交一批表单的总时间：逐个同步提交、postKeyValuePairBatch并行提交、postKeyValuePairBatchCoalesced合并提交
+ * <p>
+ * 服务器每个请求处理serviceMillis毫秒，逐个提交时这段时间是串行累加的。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: BatchBenchmark.java
+ * @author: myName
+ * @date: 2026-10-18 22:00
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({"200"})
+    public int forms;
+
+    @Param({"2"})
+    public long serviceMillis;
+
+    private BenchmarkServer server;
+    private String url;
+    private List<Map<String, String>> batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new BenchmarkServer();
+        server.setServiceMillis(serviceMillis);
+        server.start();
+        url = server.url("/form");
+        batch = new ArrayList<Map<String, String>>(forms);
+        for (int i = 0; i < forms; i++) {
+            Map<String, String> form = new LinkedHashMap<String, String>();
+            form.put("id", String.valueOf(i));
+            form.put("value", "v" + i);
+            batch.add(form);
+        }
+        OkHttpClientUtils.init(new OkHttpClientUtils.Config.Builder().build());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.shutdown();
+        BenchmarkServer.shutdownSharedClient();
+    }
+
+    @Benchmark
+    public int sequential() throws IOException {
+        int ok = 0;
+        for (Map<String, String> form : batch) {
+            if ("ok".equals(OkHttpUtils.postKeyValuePair(url, form))) {
+                ok++;
+            }
+        }
+        return ok;
+    }
+
+    @Benchmark
+    public int parallel() throws IOException {
+        return successes(OkHttpUtils.postKeyValuePairBatch(url, batch, 8));
+    }
+
+    @Benchmark
+    public int coalesced() throws IOException {
+        return successes(OkHttpUtils.postKeyValuePairBatchCoalesced(url, batch, 50));
+    }
+
+    private static int successes(List<BatchResult> results) {
+        int ok = 0;
+        for (BatchResult result : results) {
+            if (result.isSuccessful()) {
+                ok++;
+            }
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,140 @@
+package yinlei.com.okhttputils.benchmark;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ServerSocketFactory;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import yinlei.com.okhttputils.OkHttpClientUtils;
+
+/**
+ * 性能测试用的本地服务器
+ * <p>
+ * GET /json?items=n返回n个对象的JSON数组，POST的路径都返回"ok"；
+ * serviceMillis模拟服务器处理每个请求的时间。
+ * MockWebServer分两次写响应头和响应体，接受的连接要关闭Nagle算法，否则每个响应都要等客户端延迟确认(约40毫秒)。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: BenchmarkServer.java
+ * @author: myName
+ * @date: 2026-10-18 22:00
+ */
+
+final class BenchmarkServer {
+
+    //MockWebServer每个请求输出一条INFO日志，会成为测量的主要开销
+    private static final Logger LOGGER = Logger.getLogger(MockWebServer.class.getName());
+
+    static {
+        LOGGER.setLevel(Level.WARNING);
+    }
+
+    private final MockWebServer server = new MockWebServer();
+    private volatile long serviceMillis;
+
+    BenchmarkServer() {
+        server.setServerSocketFactory(new NoDelayServerSocketFactory());
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (serviceMillis > 0) {
+                    Thread.sleep(serviceMillis);
+                }
+                if ("GET".equals(request.getMethod())) {
+                    String items = request.getRequestUrl().queryParameter("items");
+                    return new MockResponse()
+                            .setHeader("Content-Type", "application/json; charset=utf-8")
+                            .setBody(json(items != null ? Integer.parseInt(items) : 10));
+                }
+                return new MockResponse().setBody("ok");
+            }
+        });
+    }
+
+    void start() throws IOException {
+        server.start();
+    }
+
+    void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    /**
+     * 关闭根client的线程池，Dispatcher的线程不是守护线程，不关闭时JMH的子进程要等超时才退出
+     */
+    static void shutdownSharedClient() {
+        OkHttpClientUtils.getOkHttpClientSingleInstance().dispatcher().executorService().shutdown();
+        OkHttpClientUtils.getOkHttpClientSingleInstance().connectionPool().evictAll();
+    }
+
+    void setServiceMillis(long serviceMillis) {
+        this.serviceMillis = serviceMillis;
+    }
+
+    String url(String path) {
+        return server.url(path).toString();
+    }
+
+    /**
+     * 创建的ServerSocket接受连接后关闭Nagle算法；在客户端设置TCP_NODELAY没有用，等待的是服务器的第二次写
+     */
+    private static final class NoDelayServerSocketFactory extends ServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new ServerSocket() {
+                @Override
+                public Socket accept() throws IOException {
+                    Socket socket = super.accept();
+                    socket.setTcpNoDelay(true);
+                    return socket;
+                }
+            };
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return createServerSocket(port, 50, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            return createServerSocket(port, backlog, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+            ServerSocket serverSocket = createServerSocket();
+            serverSocket.bind(new InetSocketAddress(address, port), backlog);
+            return serverSocket;
+        }
+    }
+
+    /**
+     * 每个对象大约100字节
+     */
+    static Buffer json(int items) {
+        Buffer buffer = new Buffer();
+        buffer.writeUtf8("[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                buffer.writeUtf8(",");
+            }
+            buffer.writeUtf8("{\"id\":").writeUtf8(String.valueOf(i))
+                    .writeUtf8(",\"name\":\"item-").writeUtf8(String.valueOf(i))
+                    .writeUtf8("\",\"price\":").writeUtf8(String.valueOf(i * 0.5))
+                    .writeUtf8(",\"tags\":[\"a\",\"b\"],\"available\":true}");
+        }
+        buffer.writeUtf8("]");
+        return buffer;
+    }
+}
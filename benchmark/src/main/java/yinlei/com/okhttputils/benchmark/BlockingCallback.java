@@ -0,0 +1,56 @@
+package yinlei.com.okhttputils.benchmark;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * 等待异步请求完成的Callback，在回调线程中读完响应体
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: BlockingCallback.java
+ * @author: myName
+ * @date: 2026-10-18 22:00
+ */
+
+final class BlockingCallback implements Callback {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private String body;
+    private IOException failure;
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+        failure = e;
+        latch.countDown();
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+        try {
+            body = response.body().string();
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            response.close();
+            latch.countDown();
+        }
+    }
+
+    String await() throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return body;
+    }
+}
@@ -0,0 +1,121 @@
+package yinlei.com.okhttputils.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import yinlei.com.okhttputils.Decoder;
+import yinlei.com.okhttputils.Decoders;
+import yinlei.com.okhttputils.OkHttpClientUtils;
+import yinlei.com.okhttputils.OkHttpUtils;
+
+/**
+ * 先读成String再解析和直接从响应流解析(loadObject)的对比
+ * <p>
+ * 两种方式用同一个Reader上的扫描器做同样的解析，差别只在中间是否有完整的String。
+ * android-all中的JsonReader依赖Android虚拟机特有的方法，不能在JVM上运行，这里用一个只找"id"字段的扫描器代替。
+ * 用-prof gc比较gc.alloc.rate.norm：String路径每次多分配响应体大小的字节数组和两倍大小的char数组。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: DecodeBenchmark.java
+ * @author: myName
+ * @date: 2026-10-18 22:00
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class DecodeBenchmark {
+
+    /**
+     * 响应中的对象数，每个大约100字节
+     */
+    @Param({"100", "2500"})
+    public int items;
+
+    private BenchmarkServer server;
+    private String url;
+
+    //统计对象个数和id之和，保证整个响应都被解析
+    private static final Decoder<Long> STREAMING = new Decoders.ReaderDecoder<Long>() {
+        @Override
+        protected Long decode(Reader reader) throws IOException {
+            return parse(reader);
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new BenchmarkServer();
+        server.start();
+        url = server.url("/json?items=" + items);
+        OkHttpClientUtils.init(new OkHttpClientUtils.Config.Builder().build());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.shutdown();
+        BenchmarkServer.shutdownSharedClient();
+    }
+
+    @Benchmark
+    public long stringThenParse() throws IOException {
+        return parse(new StringReader(OkHttpUtils.loadStringFromUrl(url)));
+    }
+
+    @Benchmark
+    public long streamingDecode() throws IOException {
+        return OkHttpUtils.loadObject(url, STREAMING);
+    }
+
+    /**
+     * 逐个字符扫描，累加所有"id":后面的整数，和JsonReader一样使用固定大小的缓冲区
+     */
+    static long parse(Reader reader) throws IOException {
+        char[] pattern = "\"id\":".toCharArray();
+        char[] buffer = new char[1024];
+        long sum = 0;
+        int matched = 0;
+        long value = -1;
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            for (int i = 0; i < count; i++) {
+                char c = buffer[i];
+                if (value >= 0) {
+                    if (c >= '0' && c <= '9') {
+                        value = value * 10 + (c - '0');
+                        continue;
+                    }
+                    sum += value;
+                    value = -1;
+                }
+                if (c == pattern[matched]) {
+                    if (++matched == pattern.length) {
+                        matched = 0;
+                        value = 0;
+                    }
+                } else {
+                    matched = c == pattern[0] ? 1 : 0;
+                }
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,136 @@
+package yinlei.com.okhttputils.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okio.BufferedSink;
+import okio.Okio;
+import yinlei.com.okhttputils.OkHttpClientUtils;
+import yinlei.com.okhttputils.OkHttpUtils;
+
+/**
+ * OkHttpUtils和OkHttpClientUtils各个入口的吞吐量和延迟分布
+ * <p>
+ * SampleTime模式输出p50/p90/p99等百分位，配合-prof gc得到每次操作分配的字节数(gc.alloc.rate.norm)。
+ * 服务器在本机，测量的是工具类和OkHttp本身的开销，不包括网络延迟。
+ * 异步请求的大部分分配发生在Dispatcher的线程中，gc.alloc.rate.norm可能统计不全，比较分配时以同步入口为准。
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: EntryPointBenchmark.java
+ * @author: myName
+ * @date: 2026-10-18 22:00
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class EntryPointBenchmark {
+
+    private BenchmarkServer server;
+    private String getUrl;
+    private String formUrl;
+    private String uploadUrl;
+    private Map<String, String> form;
+    private File[] files;
+    private String[] fieldNames;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new BenchmarkServer();
+        server.start();
+        getUrl = server.url("/json?items=10");
+        formUrl = server.url("/form");
+        uploadUrl = server.url("/upload");
+
+        form = new LinkedHashMap<String, String>();
+        form.put("user", "benchmark");
+        form.put("action", "submit");
+        form.put("payload", "0123456789abcdef0123456789abcdef");
+
+        //64KB的文件
+        File file = File.createTempFile("benchmark", ".bin");
+        file.deleteOnExit();
+        BufferedSink sink = Okio.buffer(Okio.sink(file));
+        try {
+            for (int i = 0; i < 64 * 1024; i++) {
+                sink.writeByte(i);
+            }
+        } finally {
+            sink.close();
+        }
+        files = new File[]{file};
+        fieldNames = new String[]{"file"};
+
+        //不带磁盘缓存的默认配置
+        OkHttpClientUtils.init(new OkHttpClientUtils.Config.Builder().build());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.shutdown();
+        BenchmarkServer.shutdownSharedClient();
+        files[0].delete();
+    }
+
+    @Benchmark
+    public String okHttpUtilsSyncGet() throws IOException {
+        return OkHttpUtils.loadStringFromUrl(getUrl);
+    }
+
+    @Benchmark
+    public String okHttpClientUtilsSyncGet() throws IOException {
+        return OkHttpClientUtils.loadStringFromUrl(getUrl, null);
+    }
+
+    @Benchmark
+    public String okHttpUtilsAsyncGet() throws IOException {
+        BlockingCallback callback = new BlockingCallback();
+        OkHttpUtils.getDataAsync(getUrl, callback);
+        return callback.await();
+    }
+
+    @Benchmark
+    public String okHttpClientUtilsAsyncGet() throws IOException {
+        BlockingCallback callback = new BlockingCallback();
+        OkHttpClientUtils.getDataAsync(getUrl, callback, null);
+        return callback.await();
+    }
+
+    @Benchmark
+    public String okHttpUtilsFormPost() throws IOException {
+        return OkHttpUtils.postKeyValuePair(formUrl, form);
+    }
+
+    @Benchmark
+    public String okHttpClientUtilsFormPost() throws IOException {
+        return OkHttpClientUtils.postKeyValuePair(formUrl, form, null);
+    }
+
+    @Benchmark
+    public String okHttpUtilsMultipartUpload() throws IOException {
+        return OkHttpUtils.postUploadFiles(uploadUrl, form, files, fieldNames);
+    }
+
+    @Benchmark
+    public String okHttpClientUtilsMultipartUpload() throws IOException {
+        return OkHttpClientUtils.postUploadFiles(uploadUrl, form, files, fieldNames, null);
+    }
+}
@@ -0,0 +1,194 @@
+package yinlei.com.okhttputils.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import yinlei.com.okhttputils.LatencyHistogram;
+import yinlei.com.okhttputils.OkHttpClientUtils;
+import yinlei.com.okhttputils.OkHttpUtils;
+
+/**
+ * 闭环压测：users个虚拟用户各自不停地发请求，上一个完成后立即发下一个，用户数逐步翻倍
+ * <p>
+ * 每一步输出吞吐量、延迟百分位，以及期间Dispatcher排队数、执行数和连接池连接数的峰值。
+ * 吞吐量不再随用户数增长时就是饱和点，这时如果Dispatcher有排队，瓶颈是maxRequests/maxRequestsPerHost；
+ * 没有排队说明瓶颈在连接或者服务器。
+ * <pre>
+ * --mode async|sync       async使用getDataAsync，经过Dispatcher排队；sync使用loadStringFromUrl，不经过Dispatcher
+ * --max-users 128         最大用户数
+ * --step-seconds 5        每一步持续的时间
+ * --service-millis 5      服务器处理每个请求的时间
+ * --max-requests-per-host Dispatcher对同一个host的并发上限，默认使用Config的默认值
+ * </pre>
+ *
+ * @version V1.0 <描述当前版本功能>
+ * @FileName: LoadTest.java
+ * @author: myName
+ * @date: 2026-10-18 22:00
+ */
+
+public final class LoadTest {
+
+    //吞吐量增长小于这个比例时认为已经饱和
+    private static final double SATURATION_GAIN = 0.05;
+
+    private boolean async = true;
+    private int maxUsers = 128;
+    private long stepMillis = 5000;
+    private long serviceMillis = 5;
+    private int maxRequestsPerHost;
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        test.parse(args);
+        test.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i];
+            String value = args[i + 1];
+            if ("--mode".equals(name)) {
+                async = !"sync".equals(value);
+            } else if ("--max-users".equals(name)) {
+                maxUsers = Integer.parseInt(value);
+            } else if ("--step-seconds".equals(name)) {
+                stepMillis = Long.parseLong(value) * 1000;
+            } else if ("--service-millis".equals(name)) {
+                serviceMillis = Long.parseLong(value);
+            } else if ("--max-requests-per-host".equals(name)) {
+                maxRequestsPerHost = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        BenchmarkServer server = new BenchmarkServer();
+        server.setServiceMillis(serviceMillis);
+        server.start();
+        OkHttpClientUtils.Config.Builder config = new OkHttpClientUtils.Config.Builder();
+        if (maxRequestsPerHost > 0) {
+            config.maxRequestsPerHost(maxRequestsPerHost);
+        }
+        OkHttpClientUtils.init(config.build());
+        String url = server.url("/json?items=10");
+
+        System.out.println(String.format(Locale.US, "mode=%s serviceMillis=%d stepSeconds=%d",
+                async ? "async" : "sync", serviceMillis, stepMillis / 1000));
+        System.out.println(" users   ops/s   p50(ms)   p99(ms)   max(ms)  queued  running  connections  errors");
+        double previous = 0;
+        int saturatedAt = -1;
+        for (int users = 1; users <= maxUsers; users *= 2) {
+            Step step = runStep(url, users);
+            System.out.println(step);
+            if (saturatedAt < 0 && previous > 0 && step.throughput() < previous * (1 + SATURATION_GAIN)) {
+                saturatedAt = users / 2;
+                System.out.println(String.format(Locale.US, "saturated at %d users, %.0f ops/s, limited by %s",
+                        saturatedAt, previous, step.maxQueued > 0 ? "dispatcher limits" : "connections/server"));
+            }
+            previous = Math.max(previous, step.throughput());
+        }
+        if (saturatedAt < 0) {
+            System.out.println("not saturated up to " + maxUsers + " users");
+        }
+        server.shutdown();
+    }
+
+    private Step runStep(final String url, int users) throws InterruptedException {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final long deadline = System.nanoTime() + stepMillis * 1000000L;
+        final CountDownLatch done = new CountDownLatch(users);
+        List<Thread> threads = new ArrayList<Thread>(users);
+        for (int i = 0; i < users; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            long start = System.nanoTime();
+                            try {
+                                request(url);
+                                latency.recordNanos(System.nanoTime() - start);
+                            } catch (IOException e) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "LoadTest user " + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+
+        OkHttpClient client = OkHttpClientUtils.getOkHttpClientSingleInstance();
+        Dispatcher dispatcher = client.dispatcher();
+        ConnectionPool pool = client.connectionPool();
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Step step = new Step(users);
+        //每10毫秒采样一次Dispatcher和连接池
+        while (!done.await(10, TimeUnit.MILLISECONDS)) {
+            step.maxQueued = Math.max(step.maxQueued, dispatcher.queuedCallsCount());
+            step.maxRunning = Math.max(step.maxRunning, dispatcher.runningCallsCount());
+            step.maxConnections = Math.max(step.maxConnections, pool.connectionCount());
+        }
+        step.elapsedNanos = System.nanoTime() - start;
+        step.latency = latency.snapshot();
+        step.errors = errors.get();
+        return step;
+    }
+
+    private void request(String url) throws IOException {
+        if (async) {
+            BlockingCallback callback = new BlockingCallback();
+            OkHttpUtils.getDataAsync(url, callback);
+            callback.await();
+        } else {
+            OkHttpUtils.loadStringFromUrl(url);
+        }
+    }
+
+    /**
+     * 一步的结果
+     */
+    private static final class Step {
+        final int users;
+        long elapsedNanos;
+        LatencyHistogram.Snapshot latency;
+        long errors;
+        int maxQueued;
+        int maxRunning;
+        int maxConnections;
+
+        Step(int users) {
+            this.users = users;
+        }
+
+        double throughput() {
+            return latency.count() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%6d %7.0f %9.2f %9.2f %9.2f %7d %8d %12d %7d",
+                    users, throughput(), latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0,
+                    latency.max() / 1000.0, maxQueued, maxRunning, maxConnections, errors);
+        }
+    }
+}